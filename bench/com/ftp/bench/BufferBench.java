@@ -0,0 +1,78 @@
+package com.ftp.bench;
+
+import com.ftp.file.BufferPool;
+import com.ftp.file.CryptoContext;
+import com.ftp.file.FrameCodec;
+import com.ftp.file.SessionOptions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares one file chunk of transfer loop with new arrays for every chunk (chunk is copied, sealed to new array, header and record are
+ * copied to new frame and record is opened to new array) and with buffers of {@link BufferPool} (record is sealed into pooled frame
+ * after header written in place, and opened into pooled buffer). Prints time, bytes allocated per chunk and number of garbage
+ * collections.
+ * <p>
+ * Usage: {@code java -cp out com.ftp.bench.BufferBench}
+ */
+public class BufferBench {
+    private static final int FILE_SIZE = 64 << 20;
+
+    public static void main(String[] args) throws Exception {
+        byte[] file = new byte[FILE_SIZE];
+        new Random(1).nextBytes(file);
+        System.out.println(Measure.environment());
+        for (int chunk : new int[]{64 << 10, 1 << 20}) {
+            int chunks = FILE_SIZE / chunk;
+            int ops = Math.max(1024, chunks * 4);
+            CryptoContext server = context(false);
+            CryptoContext client = context(true);
+            Measure.Result allocating = Measure.best(5, ops, i -> {
+                int offset = (i % chunks) * chunk;
+                byte[] plain = Arrays.copyOfRange(file, offset, offset + chunk);
+                byte[] sealed = server.seal(plain, 0, plain.length);
+                byte[] frame = new byte[FrameCodec.HEADER_LENGTH + sealed.length];
+                System.arraycopy(FrameCodec.header(sealed.length), 0, frame, 0, FrameCodec.HEADER_LENGTH);
+                System.arraycopy(sealed, 0, frame, FrameCodec.HEADER_LENGTH, sealed.length);
+                return client.open(frame, FrameCodec.HEADER_LENGTH, sealed.length).length;
+            });
+            print("allocating", chunk, ops, allocating);
+            Measure.Result pooled = Measure.best(5, ops, i -> {
+                int offset = (i % chunks) * chunk;
+                ByteBuffer frame = BufferPool.acquire(FrameCodec.HEADER_LENGTH + server.sealedLength(chunk));
+                ByteBuffer plain = BufferPool.acquire(chunk);
+                try {
+                    frame.position(FrameCodec.HEADER_LENGTH);
+                    int length = server.seal(ByteBuffer.wrap(file, offset, chunk), frame);
+                    int end = frame.position();
+                    FrameCodec.putHeader(frame.position(0), length, 0);
+                    frame.position(FrameCodec.HEADER_LENGTH).limit(end);
+                    return client.open(frame, plain);
+                } finally {
+                    BufferPool.release(frame);
+                    BufferPool.release(plain);
+                }
+            });
+            print("pooled", chunk, ops, pooled);
+        }
+    }
+
+    private static CryptoContext context(boolean client) throws Exception {
+        CryptoContext context = new CryptoContext("123456789", client);
+        // both sides use the same randoms, so client opens what server sealed
+        context.deriveSessionKey(new byte[SessionOptions.RANDOM_LENGTH], new byte[SessionOptions.RANDOM_LENGTH]);
+        if (client) {
+            context.setReceiveCipher(CryptoContext.AES_GCM);
+        } else {
+            context.setSendCipher(CryptoContext.AES_GCM);
+        }
+        return context;
+    }
+
+    private static void print(String name, int chunk, int ops, Measure.Result result) {
+        System.out.printf("%-10s %4s chunks: %8.1f us/chunk, %9d B allocated per chunk, %3d GCs per %d chunks%n", name,
+                chunk >= (1 << 20) ? (chunk >> 20) + " MB" : (chunk >> 10) + " KB", result.nanos / 1000, result.allocated, result.collections, ops);
+    }
+}
@@ -0,0 +1,69 @@
+package com.ftp.bench;
+
+import com.ftp.file.FTPCommand;
+import com.ftp.file.FTPTransferObject;
+import com.ftp.file.FrameCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Compares size and speed of control frames encoded with {@link FrameCodec} and with Java serialization of {@link FTPTransferObject}
+ * (with 16-byte ASCII length, as before {@link FrameCodec}). Serialized requests contain username and password, as old client sent them
+ * in every frame.
+ * <p>
+ * Usage: {@code java -cp out com.ftp.bench.CodecBench}
+ */
+public class CodecBench {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Measure.environment());
+        FTPTransferObject get = new FTPTransferObject("admin", "admin", FTPCommand.GET, 0, null, null);
+        get.setPathClient(new File("/home/user/Downloads"));
+        get.setPathServer(new File("/srv/ftp/projects/report"));
+        get.setName("report-2020-05.pdf");
+        get.setRequestId(17);
+        compare("GET request", get);
+        FTPTransferObject success = new FTPTransferObject(null, null, FTPCommand.SUCCESS, 1, "File received successfully", null);
+        success.setRequestId(17);
+        compare("SUCCESS reply", success);
+        FTPTransferObject put = new FTPTransferObject("admin", "admin", FTPCommand.PUT, 0, null, null);
+        put.setPathClient(new File("/home/user/Documents/report-2020-05.pdf"));
+        put.setPathServer(new File("/srv/ftp/projects/report"));
+        put.setFileSize(73_400_320);
+        put.setChunkSize(1 << 20);
+        put.setRequestId(18);
+        compare("PUT request", put);
+    }
+
+    private static void compare(String name, FTPTransferObject object) throws Exception {
+        byte[] serialized = serialize(object);
+        byte[] encoded = FrameCodec.encode(object);
+        Measure.Result serialize = Measure.best(5, 100_000, i -> serialize(object).length);
+        Measure.Result deserialize = Measure.best(5, 100_000, i -> deserialize(serialized).getRequestId());
+        Measure.Result encode = Measure.best(5, 100_000, i -> FrameCodec.encode(object).length);
+        Measure.Result decode = Measure.best(5, 100_000, i -> FrameCodec.decode(encoded, 0, encoded.length).getRequestId());
+        System.out.printf("%-14s frame %4d B -> %3d B, encode %6.0f -> %4.0f ns (%5d -> %4d B allocated), decode %6.0f -> %4.0f ns (%5d -> %4d B allocated)%n",
+                name, serialized.length + 16, encoded.length + FrameCodec.HEADER_LENGTH,
+                serialize.nanos, encode.nanos, serialize.allocated, encode.allocated,
+                deserialize.nanos, decode.nanos, deserialize.allocated, decode.allocated);
+    }
+
+    private static byte[] serialize(FTPTransferObject object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static FTPTransferObject deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (FTPTransferObject) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.ftp.bench;
+
+import com.ftp.file.AES;
+import com.ftp.file.CryptoContext;
+import com.ftp.file.SessionOptions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares encryption of file data with {@link AES} per 512-byte chunk (key is derived and cipher is created for every chunk, as
+ * before {@link CryptoContext}) and with {@link CryptoContext}, in {@link CryptoContext#AES_ECB} and {@link CryptoContext#AES_GCM}
+ * mode with different record sizes. Each record is sealed by server's context and opened by client's context.
+ * <p>
+ * Usage: {@code java -cp out com.ftp.bench.CryptoBench [megabytes]}
+ */
+public class CryptoBench {
+    private static final String KEY = "123456789";
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 64) << 20;
+        byte[] data = new byte[size];
+        new Random(1).nextBytes(data);
+        System.out.println(Measure.environment() + ", " + (size >> 20) + " MB sealed and opened in each run");
+        int chunks = size / 512;
+        Measure.Result result = Measure.best(3, chunks, i -> {
+            byte[] chunk = Arrays.copyOfRange(data, i * 512, i * 512 + 512);
+            return AES.decrypt(AES.encrypt(chunk, KEY), KEY).length;
+        });
+        print("AES per 512 B chunk", 512, result);
+        print(CryptoContext.AES_ECB, 512, context(data, CryptoContext.AES_ECB, 512));
+        for (int record : new int[]{512, 16 << 10, 64 << 10, 1 << 20}) {
+            print(CryptoContext.AES_GCM, record, context(data, CryptoContext.AES_GCM, record));
+        }
+    }
+
+    private static Measure.Result context(byte[] data, String cipher, int record) throws Exception {
+        CryptoContext server = new CryptoContext(KEY, false);
+        CryptoContext client = new CryptoContext(KEY, true);
+        byte[] clientRandom = SessionOptions.newRandom();
+        byte[] serverRandom = SessionOptions.newRandom();
+        server.deriveSessionKey(clientRandom, serverRandom);
+        client.deriveSessionKey(clientRandom, serverRandom);
+        server.setSendCipher(cipher);
+        client.setReceiveCipher(cipher);
+        ByteBuffer sealed = ByteBuffer.allocate(server.sealedLength(record));
+        ByteBuffer opened = ByteBuffer.allocate(record + 64);
+        int records = data.length / record;
+        return Measure.best(3, records, i -> {
+            sealed.clear();
+            opened.clear();
+            server.seal(ByteBuffer.wrap(data, i * record, record), sealed);
+            sealed.flip();
+            return client.open(sealed, opened);
+        });
+    }
+
+    private static void print(String name, int record, Measure.Result result) {
+        System.out.printf("%-20s %8s records: %8.1f MB/s, %8d B allocated per record%n", name,
+                record >= 1024 ? (record >> 10) + " KB" : record + " B", record / result.nanos * 1e9 / (1 << 20), result.allocated);
+    }
+}
@@ -0,0 +1,76 @@
+package com.ftp.bench;
+
+import com.ftp.client.ClientListener;
+import com.ftp.client.FTPClient;
+import com.ftp.file.FTPCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measures latency of commands on running server: connecting of new session (login and options, see {@link FTPClient#checkConnected()}),
+ * and round trips of {@link FTPCommand#MKDIR} (with {@link FTPCommand#RMDIR} of created folder) and {@link FTPCommand#TREE}.
+ * Folders are created in given folder of server. Prints median, 99th percentile and maximum.
+ * <p>
+ * Usage: {@code java -cp out:javafx.jar com.ftp.bench.LatencyBench <port> <server folder> [round trips]}
+ */
+public class LatencyBench {
+    private static final ClientListener QUIET = new ClientListener() {
+        @Override
+        public void log(String message) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LatencyBench <port> <server folder> [round trips]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        File folder = new File(args[1]);
+        int trips = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        System.out.println(Measure.environment());
+        long[] connect = new long[20];
+        FTPClient client = null;
+        for (int i = 0; i < connect.length; i++) {
+            long start = System.nanoTime();
+            client = connect(port);
+            connect[i] = System.nanoTime() - start;
+        }
+        print("connect", connect);
+        long[] mkdir = new long[trips];
+        long[] tree = new long[trips];
+        for (int i = 0; i < trips; i++) {
+            File created = new File(folder, "latency-" + i);
+            long start = System.nanoTime();
+            client.request(null, created, FTPCommand.MKDIR, null).get();
+            mkdir[i] = System.nanoTime() - start;
+            client.request(null, created, FTPCommand.RMDIR, null).get();
+            start = System.nanoTime();
+            client.request(null, null, FTPCommand.TREE, null).get();
+            tree[i] = System.nanoTime() - start;
+        }
+        print("MKDIR", mkdir);
+        print("TREE", tree);
+        // reading threads of clients are not daemons
+        System.exit(0);
+    }
+
+    private static FTPClient connect(int port) throws IOException {
+        FTPClient client = new FTPClient("admin", "admin", "127.0.0.1", port);
+        client.setListener(QUIET);
+        if (!client.createSocket() || !client.checkConnected()) {
+            throw new IOException("Client cannot connect");
+        }
+        return client;
+    }
+
+    private static void print(String name, long[] nanos) {
+        // first fifth is warm-up
+        long[] measured = Arrays.copyOfRange(nanos, nanos.length / 5, nanos.length);
+        Arrays.sort(measured);
+        System.out.printf("%-8s %5d samples: median %8.3f ms, p99 %8.3f ms, max %8.3f ms%n", name, measured.length,
+                measured[measured.length / 2] / 1e6, measured[(int) (measured.length * 0.99)] / 1e6, measured[measured.length - 1] / 1e6);
+    }
+}
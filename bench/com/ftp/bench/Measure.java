@@ -0,0 +1,85 @@
+package com.ftp.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Helper for simple benchmarks without JMH: operation is repeated after warm-up and the best run is reported, with bytes allocated
+ * by measuring thread and number of garbage collections during that run (like JMH with {@code -prof gc}).
+ */
+class Measure {
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Operation that is measured. Result is kept, so JIT cannot remove operation.
+     */
+    @FunctionalInterface
+    interface Operation {
+        long run(int index) throws Exception;
+    }
+
+    /**
+     * Result of the best run.
+     */
+    static class Result {
+        final double nanos;
+        final long allocated;
+        final long collections;
+
+        Result(double nanos, long allocated, long collections) {
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.collections = collections;
+        }
+    }
+
+    private static long sink;
+
+    /**
+     * Runs operation {@code ops} times in each of {@code runs} runs, after one run of warm-up.
+     *
+     * @param runs      Number of measured runs
+     * @param ops       Number of operations in one run
+     * @param operation Measured operation
+     * @return Time and allocation of one operation in the fastest run, with collections of whole run
+     * @throws Exception If operation fails
+     */
+    static Result best(int runs, int ops, Operation operation) throws Exception {
+        for (int i = 0; i < ops; i++) {
+            sink += operation.run(i);
+        }
+        Result best = null;
+        long thread = Thread.currentThread().getId();
+        for (int r = 0; r < runs; r++) {
+            long allocated = THREADS.getThreadAllocatedBytes(thread);
+            long collections = collections();
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += operation.run(i);
+            }
+            double nanos = (System.nanoTime() - start) / (double) ops;
+            if (best == null || nanos < best.nanos) {
+                best = new Result(nanos, (THREADS.getThreadAllocatedBytes(thread) - allocated) / ops, collections() - collections);
+            }
+        }
+        return best;
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += collector.getCollectionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns description of JVM and machine, printed before results.
+     *
+     * @return Description
+     */
+    static String environment() {
+        return "Java " + Runtime.version() + ", " + Runtime.getRuntime().availableProcessors() + " CPUs, "
+                + (Runtime.getRuntime().maxMemory() >> 20) + " MB heap";
+    }
+}
@@ -0,0 +1,88 @@
+package com.ftp.bench;
+
+import com.ftp.file.FTPFile;
+import com.ftp.file.TreeScanner;
+import javafx.scene.control.TreeItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.IntStream;
+
+/**
+ * Compares scanning of folder tree on one thread with {@link FTPFile#FTPFile(File)} for every entry (as before {@link TreeScanner})
+ * and with {@link TreeScanner} with different number of threads. If given folder doesn't exist, synthetic tree is created in it, with
+ * given number of folders and files in every folder (default 200 folders of 1000 files). Files are empty, first scan is warm-up, so
+ * entries are in cache of file system.
+ * <p>
+ * Usage: {@code java -cp out:javafx.jar com.ftp.bench.ScanBench <folder> [folders] [files per folder]}
+ */
+public class ScanBench {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ScanBench <folder> [folders] [files per folder]");
+            return;
+        }
+        Path folder = Paths.get(args[0]).toAbsolutePath().normalize();
+        if (Files.notExists(folder)) {
+            int folders = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+            int files = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            create(folder, folders, files);
+        }
+        System.out.println(Measure.environment());
+        System.out.printf("%,d entries in %s%n", walk(root(folder)), folder);
+        print("single thread, FTPFile(File)", Measure.best(3, 1, i -> walk(root(folder))));
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int parallelism : IntStream.of(1, 4, processors).distinct().sorted().toArray()) {
+            TreeScanner scanner = new TreeScanner(parallelism);
+            print("TreeScanner(" + parallelism + ")", Measure.best(3, 1, i -> {
+                TreeItem<FTPFile> root = root(folder);
+                scanner.scan(root);
+                return root.getChildren().size();
+            }));
+        }
+    }
+
+    private static void create(Path folder, int folders, int files) throws IOException {
+        for (int i = 0; i < folders; i++) {
+            Path subfolder = Files.createDirectories(folder.resolve("folder-" + i));
+            for (int j = 0; j < files; j++) {
+                Files.createFile(subfolder.resolve("file-" + j + ".dat"));
+            }
+        }
+    }
+
+    private static TreeItem<FTPFile> root(Path folder) {
+        return new TreeItem<>(new FTPFile(folder.toFile()));
+    }
+
+    /**
+     * Adds all entries to given folder recursively, like before {@link TreeScanner}.
+     *
+     * @return Number of added entries
+     */
+    private static int walk(TreeItem<FTPFile> folder) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(Paths.get(folder.getValue().getAbsolutePath()))) {
+            for (Path entry : directoryStream) {
+                Path path = entry.toAbsolutePath().normalize();
+                TreeItem<FTPFile> item = new TreeItem<>(new FTPFile(path.toFile()));
+                item.setExpanded(false);
+                folder.getChildren().add(item);
+                count++;
+                if (Files.isDirectory(path)) {
+                    count += walk(item);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void print(String name, Measure.Result result) {
+        System.out.printf("%-30s %8.0f ms%n", name, result.nanos / 1e6);
+    }
+}
@@ -0,0 +1,141 @@
+package com.ftp.bench;
+
+import com.ftp.client.ClientListener;
+import com.ftp.client.FTPClient;
+import com.ftp.file.FTPCommand;
+import com.ftp.file.PartialFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Measures download and upload of one big file over loopback with 1, 4 and 8 streams (see {@link FTPClient#setStreams(int)}).
+ * Server runs on the same machine, file is given with it's path on server. File is downloaded to current folder, which must not be
+ * folder of that file. It's copy in folder {@code segments} of current folder is uploaded to folder {@code segments} next to it.
+ * Transfer is finished when file is renamed from it's partial file, so benchmark waits for that (client doesn't tell when file of
+ * {@link FTPClient#download(File, long)} is received). Every run opens new session, time of opening segment sessions is part of
+ * measured time. Measured runs follow {@value #WARM_UP} downloads and uploads with one stream.
+ * <p>
+ * Usage: {@code java -cp out:javafx.jar com.ftp.bench.SegmentBench <port> <file on server> [runs]}
+ */
+public class SegmentBench {
+    private static final int WARM_UP = 4;
+    private static final ClientListener QUIET = new ClientListener() {
+        @Override
+        public void log(String message) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SegmentBench <port> <file on server> [runs]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        File file = new File(args[1]).getCanonicalFile();
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        File local = new File(file.getName()).getCanonicalFile();
+        if (local.equals(file)) {
+            System.err.println("Run benchmark outside of file's folder, downloaded file would replace original");
+            return;
+        }
+        File folder = new File(file.getParentFile(), "segments");
+        Files.createDirectories(folder.toPath());
+        File uploaded = new File(folder, file.getName());
+        // uploaded copy is not deleted by downloads, client can still read it after server renamed uploaded file
+        File source = new File("segments", file.getName()).getCanonicalFile();
+        Files.createDirectories(source.toPath().getParent());
+        Files.copy(file.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println(Measure.environment() + ", " + (file.length() >> 20) + " MB file");
+        try {
+            // cipher of both sides is slow until it is compiled, so first transfers are not measured
+            for (int i = 0; i < WARM_UP; i++) {
+                get(port, 1, file, local);
+                put(port, 1, source, folder, uploaded);
+            }
+            for (int streams : new int[]{1, 4, 8}) {
+                long get = Long.MAX_VALUE;
+                for (int i = 0; i < runs; i++) {
+                    get = Math.min(get, get(port, streams, file, local));
+                }
+                long put = Long.MAX_VALUE;
+                for (int i = 0; i < runs; i++) {
+                    put = Math.min(put, put(port, streams, source, folder, uploaded));
+                }
+                System.out.printf("%d streams: GET %6.0f ms (%4.0f MB/s), PUT %6.0f ms (%4.0f MB/s)%n", streams,
+                        get / 1e6, file.length() / (get / 1e9) / (1 << 20), put / 1e6, file.length() / (put / 1e9) / (1 << 20));
+            }
+        } finally {
+            delete(local);
+            delete(uploaded);
+            Files.deleteIfExists(folder.toPath());
+            Files.deleteIfExists(source.toPath());
+            Files.deleteIfExists(source.toPath().getParent());
+        }
+        // reading threads of clients are not daemons
+        System.exit(0);
+    }
+
+    /**
+     * Downloads file in new session.
+     *
+     * @return Time of download in nanoseconds
+     */
+    private static long get(int port, int streams, File file, File local) throws Exception {
+        delete(local);
+        FTPClient client = connect(port, streams);
+        long start = System.nanoTime();
+        client.download(file, file.length());
+        await(local, file.length());
+        long time = System.nanoTime() - start;
+        client.writeToSocket(null, null, FTPCommand.CLOSE);
+        return time;
+    }
+
+    /**
+     * Uploads file in new session.
+     *
+     * @return Time of upload in nanoseconds
+     */
+    private static long put(int port, int streams, File source, File folder, File uploaded) throws Exception {
+        delete(uploaded);
+        FTPClient client = connect(port, streams);
+        long start = System.nanoTime();
+        client.writeToSocket(source, folder, FTPCommand.PUT);
+        await(uploaded, source.length());
+        long time = System.nanoTime() - start;
+        client.writeToSocket(null, null, FTPCommand.CLOSE);
+        return time;
+    }
+
+    private static FTPClient connect(int port, int streams) throws IOException {
+        FTPClient client = new FTPClient("admin", "admin", "127.0.0.1", port);
+        client.setListener(QUIET);
+        client.setStreams(streams);
+        if (!client.createSocket() || !client.checkConnected()) {
+            throw new IOException("Client cannot connect");
+        }
+        return client;
+    }
+
+    /**
+     * Waits until whole file is received and partial file is renamed.
+     */
+    private static void await(File file, long size) throws Exception {
+        File part = PartialFile.of(file);
+        long deadline = System.nanoTime() + 300_000_000_000L;
+        while (file.length() != size || part.exists()) {
+            if (System.nanoTime() > deadline) {
+                throw new IOException("Transfer of " + file + " didn't finish");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(PartialFile.of(file).toPath());
+    }
+}
@@ -0,0 +1,156 @@
+package com.ftp.bench;
+
+import com.ftp.client.ClientListener;
+import com.ftp.client.FTPClient;
+import com.ftp.file.AES;
+import com.ftp.file.FrameCodec;
+import com.ftp.file.KeyGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loopback benchmark of server modes ({@code blocking}, {@code virtual}, {@code nio}). Server is started as separate process in given
+ * root folder (it needs {@code client_credentials.txt} with user {@code admin:admin}), with the same JVM and classpath as benchmark.
+ * Benchmark logs in given number of sessions that stay idle, and prints server's number of threads and resident memory
+ * (read from {@code /proc}, so only on Linux). Then it downloads given file of root several times while idle sessions are connected.
+ * Downloaded file is written to current folder, which must not be server's root.
+ * <p>
+ * Usage: {@code java -cp out:javafx.jar com.ftp.bench.SessionBench <root> <mode> <sessions> <file> [port] [runs]}
+ * <p>
+ * Virtual threads need Java 21 or newer, on older JVMs server uses platform threads in {@code virtual} mode.
+ */
+public class SessionBench {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: SessionBench <root> <mode> <sessions> <file> [port] [runs]");
+            return;
+        }
+        File root = new File(args[0]).getCanonicalFile();
+        String mode = args[1];
+        int sessions = Integer.parseInt(args[2]);
+        File file = new File(root, args[3]);
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 4500;
+        int runs = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+        if (root.equals(new File("").getCanonicalFile())) {
+            System.err.println("Run benchmark outside of server's root, downloaded file would replace original");
+            return;
+        }
+        Process server = startServer(root, mode, port);
+        try {
+            System.out.println("Java " + Runtime.version() + ", " + Runtime.getRuntime().availableProcessors() + " CPUs, mode " + mode);
+            System.out.println("Idle server: " + status(server.pid()));
+            List<Socket> idle = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < sessions; i++) {
+                idle.add(login(port));
+            }
+            System.out.printf("Logged in %d sessions in %.1f s%n", sessions, (System.nanoTime() - start) / 1e9);
+            Thread.sleep(2000);
+            System.out.println("Server with " + sessions + " sessions: " + status(server.pid()));
+            download(port, file, runs, sessions);
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        } finally {
+            // port is free for next run only after server exits
+            server.destroy();
+            server.waitFor();
+            Files.deleteIfExists(new File(file.getName()).toPath());
+        }
+        // reading thread of client is not daemon
+        System.exit(0);
+    }
+
+    private static Process startServer(File root, String mode, int port) throws Exception {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "com.ftp.server.FTPServer", "" + port, mode, "1")
+                .directory(root)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return server;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        server.destroy();
+        throw new IOException("Server didn't start on port " + port);
+    }
+
+    /**
+     * Logs in session without options, session stays idle.
+     */
+    private static Socket login(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(30000);
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        KeyGenerator generator = new KeyGenerator(new Random().nextInt(1000) + 10);
+        generator.setReceivedCode(KeyGenerator.parseCode(in.readNBytes(16)));
+        out.write(Arrays.copyOf(String.valueOf(generator.getCodeToSend()).getBytes(StandardCharsets.US_ASCII), 16));
+        byte[] credentials = AES.encrypt("admin:admin".getBytes(StandardCharsets.UTF_8), generator.getFinalCode() + "");
+        out.write(Arrays.copyOf(String.valueOf(credentials.length).getBytes(StandardCharsets.US_ASCII), 32));
+        out.write(credentials);
+        out.flush();
+        byte[] header = in.readNBytes(FrameCodec.HEADER_LENGTH);
+        in.readNBytes(FrameCodec.parseHeader(header));
+        return socket;
+    }
+
+    private static void download(int port, File file, int runs, int sessions) throws Exception {
+        FTPClient client = new FTPClient("admin", "admin", "127.0.0.1", port);
+        client.setListener(new ClientListener() {
+            @Override
+            public void log(String message) {
+            }
+        });
+        if (!client.createSocket() || !client.checkConnected()) {
+            throw new IOException("Client cannot connect");
+        }
+        double best = 0;
+        for (int i = 0; i < runs; i++) {
+            Files.deleteIfExists(new File(file.getName()).toPath());
+            long start = System.nanoTime();
+            client.mget(List.of(file)).get();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            best = Math.max(best, file.length() / seconds / (1 << 20));
+            System.out.printf("GET %s (%d MB) with %d idle sessions: %.2f s%n", file.getName(), file.length() >> 20, sessions, seconds);
+        }
+        System.out.printf("Best GET: %.0f MB/s%n", best);
+    }
+
+    /**
+     * Returns number of threads and resident memory of process.
+     */
+    private static String status(long pid) throws IOException {
+        Path status = Path.of("/proc/" + pid + "/status");
+        if (!Files.exists(status)) {
+            return "status not available";
+        }
+        String threads = "?";
+        String rss = "?";
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("Threads:")) {
+                threads = line.substring(8).trim();
+            } else if (line.startsWith("VmRSS:")) {
+                rss = (Long.parseLong(line.substring(6).trim().split("\\s+")[0]) >> 10) + " MB";
+            }
+        }
+        return threads + " threads, RSS " + rss;
+    }
+}
@@ -0,0 +1,141 @@
+package com.ftp.bench;
+
+import com.ftp.file.FTPFile;
+import com.ftp.file.TreeCodec;
+import com.ftp.file.VarInt;
+import javafx.scene.control.TreeItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares size and speed of directory tree encoded with {@link TreeCodec} and with Java serialization of {@link TreeItem}, as tree
+ * was sent before {@link TreeCodec} (item's number of children and it's whole {@link FTPFile} in pre-order, children added one by one
+ * when read). Tree is synthetic, it has {@code width} folders in root, {@code width} folders in each of them and {@code width} files
+ * in every folder of second level, so default width of 100 gives tree with 1,010,100 entries. Files are not created on disk.
+ * <p>
+ * Usage: {@code java -Xmx4g -cp out:javafx.jar com.ftp.bench.TreeBench [width]}
+ */
+public class TreeBench {
+    private static final String ROOT = "/srv/ftp";
+
+    public static void main(String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        System.out.println(Measure.environment());
+        TreeItem<FTPFile> root = tree(width);
+        byte[] serialized = serialize(root);
+        byte[] encoded = TreeCodec.encode(root);
+        System.out.printf("%,d entries: serialized %,d B, encoded %,d B%n", count(root) - 1, serialized.length, encoded.length);
+        print("serialize", Measure.best(3, 1, i -> serialize(root).length));
+        print("encode", Measure.best(3, 1, i -> TreeCodec.encode(root).length));
+        print("deserialize", Measure.best(3, 1, i -> deserialize(serialized).getChildren().size()));
+        print("decode", Measure.best(3, 1, i -> TreeCodec.decode(encoded).getChildren().size()));
+    }
+
+    private static TreeItem<FTPFile> tree(int width) throws IOException {
+        long time = 1_590_000_000_000L;
+        TreeItem<FTPFile> root = new TreeItem<>(file(ROOT, true, 4096, time));
+        for (int i = 0; i < width; i++) {
+            TreeItem<FTPFile> folder = new TreeItem<>(file(ROOT + "/folder-" + i, true, 4096, time + i));
+            root.getChildren().add(folder);
+            for (int j = 0; j < width; j++) {
+                String path = folder.getValue().getPath() + "/folder-" + j;
+                TreeItem<FTPFile> subfolder = new TreeItem<>(file(path, true, 4096, time + j));
+                folder.getChildren().add(subfolder);
+                List<TreeItem<FTPFile>> files = new ArrayList<>(width);
+                for (int k = 0; k < width; k++) {
+                    files.add(new TreeItem<>(file(path + "/file-" + k + ".dat", false, 1000L * (i + j + k), time + k * 1000L)));
+                }
+                subfolder.getChildren().setAll(files);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Creates file with given properties, file is not accessed.
+     */
+    private static FTPFile file(String path, boolean directory, long length, long lastModified) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VarInt.writeString(out, path);
+        VarInt.writeString(out, path);
+        VarInt.writeString(out, new File(path).getName());
+        // can read and write, folders can be executed
+        out.write(directory ? 0b1111 : 0b0110);
+        VarInt.write(out, length);
+        VarInt.write(out, lastModified);
+        VarInt.writeString(out, "ftp");
+        return FTPFile.read(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    private static int count(TreeItem<FTPFile> root) {
+        int count = 0;
+        ArrayDeque<TreeItem<FTPFile>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            TreeItem<FTPFile> item = stack.pop();
+            count++;
+            item.getChildren().forEach(stack::push);
+        }
+        return count;
+    }
+
+    private static byte[] serialize(TreeItem<FTPFile> root) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            ArrayDeque<TreeItem<FTPFile>> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                TreeItem<FTPFile> item = stack.pop();
+                List<TreeItem<FTPFile>> children = item.getChildren();
+                out.writeInt(children.size());
+                out.writeObject(item.getValue());
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static TreeItem<FTPFile> deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            // items with number of children that are not read yet
+            ArrayDeque<TreeItem<FTPFile>> items = new ArrayDeque<>();
+            ArrayDeque<int[]> remaining = new ArrayDeque<>();
+            int count = in.readInt();
+            TreeItem<FTPFile> root = new TreeItem<>((FTPFile) in.readObject());
+            if (count > 0) {
+                items.push(root);
+                remaining.push(new int[]{count});
+            }
+            while (!items.isEmpty()) {
+                TreeItem<FTPFile> parent = items.peek();
+                if (--remaining.peek()[0] == 0) {
+                    items.pop();
+                    remaining.pop();
+                }
+                count = in.readInt();
+                TreeItem<FTPFile> item = new TreeItem<>((FTPFile) in.readObject());
+                parent.getChildren().add(item);
+                if (count > 0) {
+                    items.push(item);
+                    remaining.push(new int[]{count});
+                }
+            }
+            return root;
+        }
+    }
+
+    private static void print(String name, Measure.Result result) {
+        System.out.printf("%-12s %8.0f ms, %,14d B allocated, %3d GCs%n", name, result.nanos / 1e6, result.allocated, result.collections);
+    }
+}
@@ -0,0 +1,74 @@
+package com.ftp.client;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of batch transfer ({@link FTPClient#mget(List)}, {@link FTPClient#mput(List, File)}). Every file of batch is transferred
+ * or has it's own error, one failed file doesn't stop other files.
+ */
+public class BatchResult {
+    private final List<File> files;
+    private final Map<File, String> errors;
+    private final String message;
+    private final boolean stored;
+    private final long time;
+
+    BatchResult(List<File> files, Map<File, String> errors, String message, boolean stored, long time) {
+        this.files = files;
+        this.errors = Collections.unmodifiableMap(new LinkedHashMap<>(errors));
+        this.message = message;
+        this.stored = stored;
+        this.time = time;
+    }
+
+    /**
+     * Returns all files of batch, in order in which they were requested.
+     *
+     * @return Files of batch
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns files that were not transferred, with error message of each file. Files that were received by server but couldn't be
+     * stored at the end of batch are listed only in {@link #getMessage()}.
+     *
+     * @return Failed files
+     */
+    public Map<File, String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns message of server after storing uploaded batch. Files that server couldn't store are listed in message.
+     *
+     * @return Message of server, {@code null} for download
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Checks if all files of batch were transferred (and stored by server, for upload).
+     *
+     * @return {@code true} if there are no errors
+     */
+    public boolean isSuccessful() {
+        return errors.isEmpty() && stored;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return (files.size() - errors.size()) + " of " + files.size() + " files transferred in " + time + " ms"
+                + (message == null ? "" : " (" + message + ")");
+    }
+}
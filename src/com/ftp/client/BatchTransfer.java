@@ -0,0 +1,115 @@
+package com.ftp.client;
+
+import com.ftp.file.FTPCommand;
+import com.ftp.file.FTPTransferObject;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class follows one batch of {@link FTPCommand#MGET} or {@link FTPCommand#MPUT} requests. Requests are sent one after another
+ * without waiting, and every file gets response to it's own request (see {@link FTPTransferObject#getRequestId()}), so files can be
+ * finished in any order. Download batch is done when all files have response, upload batch gets one more response after all files,
+ * when server stores them.
+ */
+class BatchTransfer {
+    private final List<File> files;
+    private final boolean upload;
+    private final Map<File, String> errors = new LinkedHashMap<>();
+    private final Set<File> pending = new LinkedHashSet<>();
+    private final CompletableFuture<BatchResult> result = new CompletableFuture<>();
+    private final long startTime = System.currentTimeMillis();
+    private boolean sent = false;
+
+    BatchTransfer(List<File> files, boolean upload) {
+        this.files = files;
+        this.upload = upload;
+    }
+
+    List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * Sets error of file that was not sent.
+     *
+     * @param file  File of batch
+     * @param error Error message
+     */
+    synchronized void fail(File file, String error) {
+        errors.put(file, error);
+    }
+
+    /**
+     * Adds request of file that was sent. Error of response (or of connection) is error of file.
+     *
+     * @param file     File of batch
+     * @param response Response to request, completed when file is transferred
+     */
+    synchronized void expect(File file, CompletableFuture<FTPTransferObject> response) {
+        pending.add(file);
+        response.whenComplete((readObject, error) -> response(file, readObject, error));
+    }
+
+    private synchronized void response(File file, FTPTransferObject readObject, Throwable error) {
+        if (!pending.remove(file)) {
+            return;
+        }
+        if (error != null) {
+            errors.put(file, error.getMessage());
+        } else if (readObject.getResponseCode() == -1) {
+            errors.put(file, readObject.getResponseMessage());
+        }
+        if (!upload && sent && pending.isEmpty()) {
+            complete(null, true);
+        }
+    }
+
+    /**
+     * Marks that all requests of batch are sent. Download batch is done when it has all responses.
+     */
+    synchronized void sent() {
+        sent = true;
+        if (!upload && pending.isEmpty()) {
+            complete(null, true);
+        }
+    }
+
+    /**
+     * Adds last request of upload batch, after which server stores files. Server responds to it after all files.
+     *
+     * @param response Response with number of stored files
+     */
+    void stored(CompletableFuture<FTPTransferObject> response) {
+        response.whenComplete((readObject, error) -> {
+            if (error != null) {
+                complete(error.getMessage(), false);
+            } else {
+                complete(readObject.getResponseMessage(), readObject.getResponseCode() != -1);
+            }
+        });
+    }
+
+    /**
+     * Completes batch, files without response get error with given message.
+     *
+     * @param message Message of result
+     * @param stored  If uploaded files were stored
+     */
+    synchronized void complete(String message, boolean stored) {
+        for (File file : pending) {
+            errors.put(file, message);
+        }
+        pending.clear();
+        result.complete(new BatchResult(files, errors, message, stored, System.currentTimeMillis() - startTime));
+    }
+
+    CompletableFuture<BatchResult> getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package com.ftp.client;
+
+/**
+ * Receives log messages and progress of transfers from {@link FTPClient}, and applies changes of client's copy of server's tree.
+ * {@link FTPClientUI} installs listener that shows them in it's window and changes tree on JavaFX application thread. Client that is
+ * used from code without user interface (for example for {@link FTPClient#mget(java.util.List)} and
+ * {@link FTPClient#mput(java.util.List, java.io.File)}) writes messages to standard output and changes tree on thread that received change.
+ */
+public interface ClientListener {
+
+    /**
+     * Shows message about session or transfer.
+     *
+     * @param message Message, usually ending with new line
+     */
+    default void log(String message) {
+        System.out.print(message);
+    }
+
+    /**
+     * Shows progress of current transfer.
+     *
+     * @param percentage Transferred part of file, from {@code 0} to {@code 1}, {@code 0} when transfer is finished
+     * @param speed      Speed in bytes per second
+     */
+    default void progress(double percentage, double speed) {
+    }
+
+    /**
+     * Runs change of client's tree (see {@link com.ftp.file.RemoteTree}) on thread that owns tree.
+     *
+     * @param change Change of tree
+     */
+    default void updateTree(Runnable change) {
+        change.run();
+    }
+}
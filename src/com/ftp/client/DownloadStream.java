@@ -0,0 +1,204 @@
+package com.ftp.client;
+
+import com.ftp.file.BufferPool;
+import com.ftp.file.ChunkCompressor;
+import com.ftp.file.CryptoContext;
+import com.ftp.file.FTPTransferObject;
+import com.ftp.file.FrameCodec;
+import com.ftp.file.PartialFile;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * File that is being received after {@link com.ftp.file.FTPCommand#GET} or {@link com.ftp.file.FTPCommand#MGET} response. File data
+ * comes in frames of stream of request (see {@link FrameCodec}), and frames of different downloads and other responses can be
+ * interleaved, so every download keeps it's own partial file, compressor and position. Partial file is opened when first frame is received,
+ * so many responses of batch can wait for their files without holding open files. Download counts written bytes that are not given
+ * back to server as credit yet (see {@link com.ftp.file.FTPCommand#WINDOW}). Frames are decrypted and decompressed to buffers taken
+ * from {@link BufferPool}, which are given back when download is finished.
+ */
+class DownloadStream {
+    private final FTPTransferObject response;
+    private final File file;
+    private final CryptoContext crypto;
+    private final int chunkSize;
+    private final int maxRecordLength;
+    private final long end;
+    private ChunkCompressor compressor;
+    private ByteBuffer record;
+    private ByteBuffer chunk;
+    private FileChannel out;
+    private long position;
+    private long credit = 0;
+
+    /**
+     * Creates download of file from response.
+     *
+     * @param response  Response with file name, size, offset and segment length
+     * @param crypto    Crypto context of session, {@code null} if file is sent without encryption
+     * @param chunkSize Chunk size accepted by client
+     * @param compress  If chunks are compressed
+     */
+    DownloadStream(FTPTransferObject response, CryptoContext crypto, int chunkSize, boolean compress) {
+        this.response = response;
+        this.file = new File(response.getName());
+        this.crypto = crypto;
+        this.position = response.getOffset();
+        this.end = response.getSegmentLength() > 0 ? response.getOffset() + response.getSegmentLength() : response.getFileSize();
+        this.chunkSize = chunkSize;
+        if (compress) {
+            this.compressor = new ChunkCompressor();
+        }
+        this.maxRecordLength = crypto == null ? 0 : crypto.openedRecordLength(ChunkCompressor.maxRecordLength(chunkSize));
+    }
+
+    private void open() throws IOException {
+        File part = PartialFile.of(file);
+        out = isSegment() ? PartialFile.openSegment(part, response.getOffset(), response.getSegmentLength()) : PartialFile.open(part, response.getOffset());
+    }
+
+    /**
+     * Decrypts one frame of file (decompresses it, if chunks are compressed) and writes it to partial file.
+     *
+     * @param frame Buffer with frame body, buffer's position is moved to it's limit
+     * @throws IOException If frame is not valid or file cannot be written
+     */
+    void receive(ByteBuffer frame) throws IOException {
+        if (frame.remaining() > maxRecordLength) {
+            throw new IOException("Invalid record size: " + frame.remaining());
+        }
+        if (out == null) {
+            open();
+        }
+        if (record == null) {
+            record = BufferPool.acquire(maxRecordLength);
+            chunk = compressor == null ? null : BufferPool.acquire(chunkSize);
+        }
+        ByteBuffer data = record.clear();
+        data.limit(crypto.open(frame, data)).position(0);
+        if (compressor != null) {
+            int length = compressor.decompress(record.array(), 0, data.limit(), chunk.array());
+            if (length > chunkSize) {
+                throw new IOException("Chunk is bigger than " + chunkSize + " bytes");
+            }
+            data = chunk.clear().limit(length);
+        }
+        if (data.remaining() == 0 || data.remaining() > end - position) {
+            throw new IOException("Invalid chunk of " + data.remaining() + " bytes, " + (end - position) + " bytes remaining");
+        }
+        position += data.remaining();
+        out.write(data);
+    }
+
+    /**
+     * Writes file bytes sent without encryption directly from channel to partial file using {@link FileChannel#transferFrom}.
+     *
+     * @param channel Socket channel
+     * @param length  Maximum number of bytes, not more than remaining bytes of frame
+     * @return Number of written bytes
+     * @throws IOException If connection is closed, server sent more bytes than file has or file cannot be written
+     */
+    long receiveDirect(ReadableByteChannel channel, long length) throws IOException {
+        if (length > end - position) {
+            throw new IOException("Invalid frame of " + length + " bytes, " + (end - position) + " bytes remaining");
+        }
+        if (out == null) {
+            open();
+        }
+        long num = out.transferFrom(channel, position, length);
+        if (num == 0) {
+            throw new EOFException("Connection closed, " + (end - position) + " bytes missing");
+        }
+        position += num;
+        out.position(position);
+        return num;
+    }
+
+    /**
+     * Adds written bytes to credit that is not given to server yet.
+     *
+     * @param bytes Length of received frame
+     */
+    synchronized void addCredit(long bytes) {
+        credit += bytes;
+    }
+
+    /**
+     * Takes credit that will be given to server.
+     *
+     * @return Number of bytes
+     */
+    synchronized long takeCredit() {
+        long bytes = credit;
+        credit = 0;
+        return bytes;
+    }
+
+    synchronized long getCredit() {
+        return credit;
+    }
+
+    boolean isComplete() {
+        return position >= end;
+    }
+
+    boolean isSegment() {
+        return response.getSegmentLength() > 0;
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    FTPTransferObject getResponse() {
+        return response;
+    }
+
+    /**
+     * Closes partial file and renames it to real file, unless only segment of file was received (see {@link SegmentedTransfer}).
+     *
+     * @return Compression report for log, {@code null} if chunks were not compressed
+     * @throws IOException If partial file cannot be closed or renamed
+     */
+    String finish() throws IOException {
+        // file without received frames (for example whole file was already in partial file) has no report
+        String report = compressor == null || out == null ? null : compressor.receiveReport();
+        if (out == null) {
+            open();
+        }
+        close();
+        // buffers are given back only by reading thread, download closed by other thread leaves them to garbage collector
+        BufferPool.release(record);
+        BufferPool.release(chunk);
+        record = null;
+        chunk = null;
+        if (!isSegment()) {
+            PartialFile.complete(PartialFile.of(file), file);
+        }
+        return report;
+    }
+
+    /**
+     * Closes partial file without renaming it, so download can be continued later.
+     *
+     * @throws IOException If partial file cannot be closed
+     */
+    void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        if (compressor != null) {
+            compressor.close();
+            compressor = null;
+        }
+    }
+}
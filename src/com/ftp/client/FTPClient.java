@@ -4,90 +4,188 @@ import com.ftp.file.*;
 import javafx.scene.control.TreeItem;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * This is basic class that represents client connecting to remote {@link com.ftp.server.FTPServer}. It uses {@link Socket}
  * for establishing connection to remote server with given username, password, host, port and communicate with {@link FTPTransferObject}. It has 2 main threads,
  * one for reading and one for writing to socket input/output stream. Upon connecting, client sends username and password as plain {@link String}
  * and after that runs read thread which is responsible for listening and reading {@link FTPTransferObject} from socket. On connecting
- * server sends object that contains {@link TreeItem} with folders/files from server.
+ * server sends object that contains {@link TreeItem} with folders/files from server, later responses contain only changes of tree
+ * (see {@link RemoteTree}). If tree is loaded on demand, folders are listed one page at a time with {@link FTPCommand#LIST}.
+ * Interrupted transfers are continued from their partial files (see {@link PartialFile}): download sends length and checksum of
+ * client's partial file with {@link FTPCommand#GET}, and before upload of big file server is asked for it's partial file with {@link FTPCommand#REST}.
+ * If more streams are set ({@link #setStreams(int)}), big files are transferred in segments over several sessions at once (see {@link SegmentedTransfer}).
+ * Every request has it's own id and server responds with same id ({@link #request(File, File, FTPCommand, byte[])}), files are sent in frames
+ * of their request (see {@link FrameCodec}), so many transfers and other commands can run at once on one session and small command
+ * is not waiting behind big file. If delta upload is enabled ({@link #setDelta(boolean)}), only changes of file that server already
+ * has are uploaded (see {@link FileDelta}).
  * Thread for writing to socket output stream runs on command while reading thread works infinitely (until connection closes).
  *
  * @author Stefan
  */
 public class FTPClient {
+    private static final long DIRECT_PART = 1024 * 1024;
+    private static final long RESUME_MIN_SIZE = 1024 * 1024;
+    private static final long RESTART_TIMEOUT = 60000;
+    private static final long CONNECT_TIMEOUT = 10000;
+    private static final long DELTA_MIN_SIZE = 1024 * 1024;
+    private static final long DEDUP_MIN_SIZE = 64 * 1024;
     private Socket socket = null;
-    private InputStream inStream = null;
     private OutputStream outStream = null;
-    private TreeItem<FTPFile> tree = null;
-    private int connected = 0;
+    private FrameReader reader = null;
+    private final RemoteTree tree = new RemoteTree();
+    private final Map<Integer, CompletableFuture<FTPTransferObject>> requests = new ConcurrentHashMap<>();
+    private final Map<Integer, DownloadStream> downloads = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRequest = new AtomicInteger();
+    private final ExecutorService creditWriter = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "Credit writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile int connected = 0;
+    private final CompletableFuture<Boolean> connection = new CompletableFuture<>();
     private boolean pause = false;
     private final String username;
     private final String password;
     private final String host;
     private final Integer port;
     private String key;
+    private CryptoContext crypto;
+    private final Object writeLock = new Object();
+    private final Object uploadBatchLock = new Object();
+    private SessionOptions requestedOptions = new SessionOptions();
+    private SessionOptions options = null;
+    private int chunkSize = 0;
+    private int streams = 1;
+    private boolean delta = false;
+    private boolean segmentSession = false;
+    private LongConsumer progress = null;
+    private ClientListener listener = new ClientListener() {
+    };
 
     public FTPClient(String username, String password, String host, Integer port) {
         this.username = username;
         this.password = password;
         this.host = host;
         this.port = port;
+        tree.setLoader(item -> list(new File(item.getValue().getAbsolutePath()), new ListOptions(), null));
     }
 
     /**
-     * This method is used for creating socket and connecting to server. On connecting it sends login credentials
-     * and starts reading thread that is responsible for listening to socket and accepting {@link FTPTransferObject}.
+     * This method is used for creating socket and connecting to server. On connecting it sends login credentials and requested
+     * {@link SessionOptions}, and starts reading thread that is responsible for listening to socket and accepting {@link FTPTransferObject}.
+     * Socket is opened through {@link SocketChannel}, so files can be sent directly to socket in sessions without encryption.
      */
     public boolean createSocket() {
         try {
-            socket = new Socket(host, port);
-            inStream = socket.getInputStream();
+            socket = SocketChannel.open(new InetSocketAddress(host, port)).socket();
+            // requests are small frames, they are sent right away instead of waiting for acknowledgement of previous data
+            socket.setTcpNoDelay(true);
             outStream = socket.getOutputStream();
+            reader = new FrameReader(socket, 0, FrameReader.DEFAULT_READ_TIMEOUT);
             generateKey();
             byte[] toSend = Objects.requireNonNull(AES.encrypt((username + ":" + password).getBytes(StandardCharsets.UTF_8), key));
             byte[] sizeToSend = Arrays.copyOf(String.valueOf(toSend.length).getBytes(StandardCharsets.US_ASCII), 32);
             outStream.write(sizeToSend, 0, 32);
             outStream.write(toSend);
             outStream.flush();
+            requestedOptions.setRandom(SessionOptions.newRandom());
+            writeObjectToStream(null, null, FTPCommand.OPTS, requestedOptions.toBytes());
             readFromSocket();
             return true;
         } catch (IOException u) {
-            FTPClientUI.addToLog(u.getMessage());
+            listener.log(u.getMessage());
             u.printStackTrace();
         }
+        connection.complete(false);
         return false;
     }
 
     /**
      * This method creates thread for reading from socket stream. It is called after successful connection to server.
-     * Method reads {@link FTPTransferObject} from input stream, and after that reads file bytes (if there is any.
-     * Tree view (server's file explorer) is updated on every change on server side.
+     * Method reads frames from socket: {@link FTPTransferObject} is given to request with same id (see {@link #request(File, File, FTPCommand, byte[])}),
+     * and frames with file bytes are written to their downloads (see {@link DownloadStream}). Response with file completes it's request
+     * when whole file is received. Responses to requests that nobody waits for are written to log.
+     * Tree view (server's file explorer) is updated on every change on server side, changes are applied on thread chosen by client's {@link ClientListener}
+     * (JavaFX application thread in {@link FTPClientUI}).
+     * Client is connected after server responds with granted {@link SessionOptions}.
      */
     public void readFromSocket() {
         Thread readThread = new Thread(() -> {
             while (socket.isConnected()) {
                 try {
-                    FTPTransferObject readObject = readObjectFromStream();
-                    if (readObject.getAdditionalData() != null) {
-                        tree = TreeItemSerialisation.deserialize(readObject.getAdditionalData());
+                    byte[] header = reader.readHeader();
+                    int length = FrameCodec.parseHeader(header);
+                    int stream = FrameCodec.parseStream(header);
+                    if (stream != 0) {
+                        readData(stream, length);
+                        continue;
                     }
-                    FTPClientUI.addToLog("Server response: " + readObject.getResponseMessage() + "\n");
-                    readFileFromStream(readObject);
-                    if (readObject.getResponseCode() == -1) {
-                        connected = -1;
+                    FTPTransferObject readObject = decodeObject(reader.readBody(length));
+                    if (readObject.getCommand().equals(FTPCommand.OPTS)) {
+                        options = SessionOptions.fromBytes(readObject.getAdditionalData());
+                        if (options.getRandom() == null) {
+                            throw new IOException("Server didn't send random bytes of session");
+                        }
+                        crypto.deriveSessionKey(requestedOptions.getRandom(), options.getRandom());
+                        crypto.setReceiveCipher(options.getCipher());
+                        synchronized (writeLock) {
+                            crypto.setSendCipher(options.getCipher());
+                        }
+                        listener.log("Server response: " + readObject.getResponseMessage() + (options.isEncryption() ? "" : " (encryption disabled)")
+                                + (options.isCompression() ? ", compression enabled" : "") + ", chunk size " + options.getChunkSize() + " (max " + options.getMaxChunkSize() + ")\n");
+                        setConnected(1);
+                        if (options.isLazyTree() && !segmentSession) {
+                            list(null, new ListOptions(), null);
+                        }
+                        continue;
+                    }
+                    if (hasTreeDelta(readObject)) {
+                        TreeDelta delta = TreeDelta.decode(readObject.getAdditionalData());
+                        listener.updateTree(() -> tree.apply(delta));
+                    }
+                    if (isDownload(readObject)) {
+                        startDownload(readObject);
+                        continue;
+                    }
+                    if (readObject.getCommand().equals(FTPCommand.MGET) && readObject.getResponseCode() != -1) {
+                        // empty file of batch has no frames, it is only created
+                        Files.write(new File(readObject.getName()).toPath(), new byte[0]);
+                    }
+                    if (!respond(readObject)) {
+                        setConnected(-1);
+                        failPending(readObject.getResponseMessage());
                         return;
-                    } else {
-                        connected = 1;
                     }
-                } catch (IOException | ClassNotFoundException e) {
-                    FTPClientUI.addToLog(e.getMessage());
-                    connected = 0;
+                } catch (IOException e) {
+                    listener.log(socket.isClosed() ? "Socket closed" : e.getMessage());
+                    setConnected(0);
+                    failPending(socket.isClosed() ? "Socket closed" : e.getMessage());
                     return;
                 }
             }
@@ -97,9 +195,140 @@ public class FTPClient {
         readThread.start();
     }
 
+    /**
+     * Completes request with given response. Response to request that nobody waits for is written to log.
+     *
+     * @param readObject Response
+     * @return {@code false} if server refused login, {@code true} otherwise
+     */
+    private boolean respond(FTPTransferObject readObject) {
+        CompletableFuture<FTPTransferObject> response = requests.remove(readObject.getRequestId());
+        if (response != null) {
+            response.complete(readObject);
+            return true;
+        }
+        listener.log("Server response: " + readObject.getResponseMessage() + "\n");
+        if (readObject.getResponseCode() == -1) {
+            // other failed requests don't close session, only failed login (response without request)
+            return readObject.getRequestId() != 0;
+        }
+        if (options != null) {
+            setConnected(1);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if response contains changes of tree. Responses to {@link FTPCommand#LIST}, {@link FTPCommand#SIGN} and
+     * {@link FTPCommand#HASH} contain their own data.
+     */
+    private boolean hasTreeDelta(FTPTransferObject readObject) {
+        return readObject.getAdditionalData() != null && !readObject.getCommand().equals(FTPCommand.LIST)
+                && !readObject.getCommand().equals(FTPCommand.SIGN) && !readObject.getCommand().equals(FTPCommand.HASH);
+    }
+
+    private boolean isDownload(FTPTransferObject readObject) {
+        return (readObject.getCommand().equals(FTPCommand.GET) || readObject.getCommand().equals(FTPCommand.MGET))
+                && readObject.getResponseCode() != -1 && readObject.getFileSize() > 0 && readObject.getPathServer() != null;
+    }
+
+    /**
+     * Starts download of file from response. File is received to partial file (continued from offset accepted by server) and
+     * renamed when whole file is received (see {@link PartialFile}), segment is only written to partial file at it's offset.
+     *
+     * @param readObject Response with file
+     * @throws IOException If chunk size is not valid or file cannot be completed
+     */
+    private void startDownload(FTPTransferObject readObject) throws IOException {
+        DownloadStream download = new DownloadStream(readObject, options.isEncryption() ? crypto : null,
+                options.acceptChunkSize(readObject.getChunkSize()), options.isCompression());
+        if (readObject.getOffset() > 0 && !download.isSegment()) {
+            listener.log("Continuing download of " + readObject.getName() + " from " + readObject.getOffset() + " bytes\n");
+        }
+        if (download.isComplete()) {
+            finishDownload(download);
+        } else {
+            downloads.put(readObject.getRequestId(), download);
+        }
+    }
+
+    /**
+     * Reads one frame of downloaded file. Frame is decrypted, or written directly from socket channel if it is sent without encryption.
+     * Written bytes are given back to server as credit, unless transfers are paused.
+     *
+     * @param stream Stream of frame
+     * @param length Length of frame body
+     * @throws IOException If there is no such download, frame is not valid or file cannot be written
+     */
+    private void readData(int stream, int length) throws IOException {
+        DownloadStream download = downloads.get(stream);
+        if (download == null) {
+            throw new IOException("Data of unknown stream " + stream);
+        }
+        long currentTime = System.currentTimeMillis();
+        if (options.isEncryption()) {
+            ByteBuffer frame = reader.readBody(BufferPool.acquire(length));
+            try {
+                download.receive(frame);
+            } finally {
+                BufferPool.release(frame);
+            }
+        } else {
+            long remaining = length;
+            while (remaining > 0) {
+                remaining -= download.receiveDirect(socket.getChannel(), remaining);
+            }
+        }
+        updateBar(download.getPosition(), download.getEnd(), length, currentTime);
+        if (download.isComplete()) {
+            finishDownload(download);
+            return;
+        }
+        download.addCredit(length);
+        if (!pause && download.getCredit() >= FrameCodec.STREAM_WINDOW / 2) {
+            sendCredit(download);
+        }
+    }
+
+    private void finishDownload(DownloadStream download) throws IOException {
+        downloads.remove(download.getResponse().getRequestId());
+        String report = download.finish();
+        updateBar(0, 0, 0, 0);
+        if (report != null) {
+            listener.log("Received " + download.getResponse().getName() + ": " + report + "\n");
+        }
+        respond(download.getResponse());
+    }
+
+    /**
+     * Gives server credit for sending more bytes of download ({@link FTPCommand#WINDOW}). Credit is sent by other thread,
+     * so reading thread never waits for write lock.
+     *
+     * @param download Download whose written bytes are given as credit
+     */
+    private void sendCredit(DownloadStream download) {
+        long credit = download.takeCredit();
+        if (credit == 0) {
+            return;
+        }
+        creditWriter.execute(() -> {
+            FTPTransferObject window = createObject(null, null, FTPCommand.WINDOW, null);
+            window.setRequestId(download.getResponse().getRequestId());
+            window.setOffset(credit);
+            try {
+                writeObjectToStream(window);
+            } catch (IOException e) {
+                // connection is closed, reading thread reports it
+            }
+        });
+    }
+
     /**
      * This method creates thread that is used for sending {@link FTPTransferObject} to server. After object, if required, encrypted file bytes are sent.
-     * It runs on command (unlike read thread which runs infinitely until connection is closed).
+     * It runs on command (unlike read thread which runs infinitely until connection is closed). Frames are written one at a time,
+     * so records are encrypted in the same order they are sent, but frames of different commands can be interleaved.
+     * File that server already stores is not uploaded (see {@link #linkStored(File, File)}), changed file is uploaded as delta if
+     * delta upload is enabled, and big file is uploaded in segments if more streams are set.
      *
      * @param pathClient Path from client (if file needs to be sent)
      * @param pathServer Path on server side (if file needs to be received or folder needs to be created)
@@ -108,13 +337,19 @@ public class FTPClient {
     public void writeToSocket(File pathClient, File pathServer, FTPCommand command) {
         Thread writeThread = new Thread(() -> {
             try {
-                writeObjectToStream(pathClient, pathServer, command);
-                writeFileToStream(pathClient, !command.equals(FTPCommand.PUT));
-                if (command.equals(FTPCommand.CLOSE)) {
-                    socket.close();
+                if (command.equals(FTPCommand.PUT) && isDedup(pathClient) && linkStored(pathClient, pathServer)) {
+                    return;
+                }
+                if (command.equals(FTPCommand.PUT) && delta && deltaUpload(pathClient, pathServer)) {
+                    return;
+                }
+                if (command.equals(FTPCommand.PUT) && SegmentedTransfer.isSegmented(pathClient.length(), streams)) {
+                    new SegmentedTransfer(this, streams).upload(pathClient, pathServer);
+                } else {
+                    transfer(pathClient, pathServer, command);
                 }
             } catch (IOException e) {
-                FTPClientUI.addToLog(e.getMessage());
+                listener.log(e.getMessage());
                 e.printStackTrace();
             }
 
@@ -125,7 +360,560 @@ public class FTPClient {
     }
 
     /**
-     * This method is used for sending object from server to client. Before sending, object length is sent first, represented as string maximum length of 16 bytes.
+     * Downloads file from server. Big file is downloaded in segments if more streams are set, otherwise it is same as
+     * {@link #writeToSocket(File, File, FTPCommand)} with {@link FTPCommand#GET}.
+     *
+     * @param pathServer Path of file on server side
+     * @param size       Size of file, as it is shown in server's tree
+     */
+    public void download(File pathServer, long size) {
+        if (!SegmentedTransfer.isSegmented(size, streams)) {
+            writeToSocket(null, pathServer, FTPCommand.GET);
+            return;
+        }
+        Thread writeThread = new Thread(() -> {
+            try {
+                new SegmentedTransfer(this, streams).download(pathServer, size);
+            } catch (IOException e) {
+                listener.log(e.getMessage());
+                e.printStackTrace();
+            }
+        });
+        writeThread.setPriority(Thread.MAX_PRIORITY);
+        writeThread.start();
+    }
+
+    /**
+     * Sends command and file (if there is any) in calling thread. Response is written to log when it arrives.
+     *
+     * @param pathClient Path from client (if file needs to be sent)
+     * @param pathServer Path on server side
+     * @param command    Command to be executed
+     * @throws IOException If command or file cannot be sent
+     */
+    void transfer(File pathClient, File pathServer, FTPCommand command) throws IOException {
+        FTPTransferObject objToSend = createObject(pathClient, pathServer, command, null);
+        if (command.equals(FTPCommand.GET) && pathServer != null) {
+            setDownloadOffset(objToSend, new File(pathServer.getName()));
+        } else if (command.equals(FTPCommand.PUT) && pathClient.length() >= RESUME_MIN_SIZE) {
+            objToSend.setOffset(uploadOffset(pathClient, pathServer));
+        }
+        writeObjectToStream(objToSend);
+        writeFileToStream(pathClient, !command.equals(FTPCommand.PUT), objToSend.getOffset(), objToSend.getRequestId());
+        if (command.equals(FTPCommand.CLOSE)) {
+            socket.close();
+        } else if (options != null && options.isLazyTree() && pathServer != null) {
+            // changed folder is listed again, server executes commands in order they are received so listing contains the change
+            if (command.equals(FTPCommand.PUT)) {
+                writeListing(pathServer, new ListOptions(), null);
+            } else if (command.equals(FTPCommand.MKDIR) || command.equals(FTPCommand.RMDIR)) {
+                writeListing(pathServer.getParentFile(), new ListOptions(), null);
+            }
+        }
+    }
+
+    /**
+     * Sends request to server in calling thread and returns response to it. Other requests can be sent and executed while calling
+     * thread waits for response. Response to {@link FTPCommand#GET} is completed when whole file is received, and file of
+     * {@link FTPCommand#PUT} is sent (whole, in this session) before method returns.
+     *
+     * @param pathClient     Client's file path (if file needs to be sent)
+     * @param pathServer     Server's file/folder path
+     * @param command        Command to be executed
+     * @param additionalData Additional data for server
+     * @return Response of server, completed exceptionally if connection is closed before response
+     * @throws IOException If request or file cannot be sent
+     */
+    public CompletableFuture<FTPTransferObject> request(File pathClient, File pathServer, FTPCommand command, byte[] additionalData) throws IOException {
+        FTPTransferObject objToSend = createObject(pathClient, pathServer, command, additionalData);
+        if (command.equals(FTPCommand.GET) && pathServer != null) {
+            setDownloadOffset(objToSend, new File(pathServer.getName()));
+        }
+        CompletableFuture<FTPTransferObject> response = send(objToSend);
+        writeFileToStream(pathClient, !command.equals(FTPCommand.PUT), 0, objToSend.getRequestId());
+        return response;
+    }
+
+    /**
+     * Asks server for hash of range of it's file ({@link FTPCommand#HASH}), so transferred file can be checked without downloading
+     * it again. Hash is in additional data of response.
+     *
+     * @param pathServer Server's file
+     * @param algorithm  {@link FileHash#SHA256} or {@link FileHash#CRC32C}
+     * @param offset     Start of range
+     * @param length     Length of range, {@code 0} for range to the end of file
+     * @return Response of server
+     * @throws IOException If request cannot be sent
+     */
+    public CompletableFuture<FTPTransferObject> hash(File pathServer, String algorithm, long offset, long length) throws IOException {
+        FTPTransferObject request = createObject(null, pathServer, FTPCommand.HASH, algorithm.getBytes(StandardCharsets.UTF_8));
+        request.setOffset(offset);
+        request.setSegmentLength(length);
+        return send(request);
+    }
+
+    /**
+     * Sends object to server and returns response to it.
+     *
+     * @param objToSend Object with request id
+     * @return Response of server
+     * @throws IOException If object cannot be sent
+     */
+    private CompletableFuture<FTPTransferObject> send(FTPTransferObject objToSend) throws IOException {
+        CompletableFuture<FTPTransferObject> response = new CompletableFuture<>();
+        requests.put(objToSend.getRequestId(), response);
+        try {
+            writeObjectToStream(objToSend);
+        } catch (IOException e) {
+            requests.remove(objToSend.getRequestId());
+            throw e;
+        }
+        return response;
+    }
+
+    /**
+     * Opens new session with same credentials and options for transferring segments of file. Session doesn't load server's tree.
+     *
+     * @param progress Callback that gets number of transferred bytes, instead of progress bar
+     * @return Connected session
+     * @throws IOException If session cannot connect
+     */
+    FTPClient openSegmentSession(LongConsumer progress) throws IOException {
+        FTPClient session = new FTPClient(username, password, host, port);
+        SessionOptions sessionOptions = SessionOptions.fromBytes(requestedOptions.toBytes());
+        sessionOptions.setLazyTree(true);
+        session.setRequestedOptions(sessionOptions);
+        session.setChunkSize(chunkSize);
+        session.segmentSession = true;
+        session.progress = progress;
+        session.listener = listener;
+        if (!session.createSocket() || !session.checkConnected()) {
+            session.close();
+            throw new IOException("Segment session cannot connect to " + host + ":" + port);
+        }
+        return session;
+    }
+
+    /**
+     * Transfers one segment of file in this session, calling thread waits until segment is transferred. Downloaded segment is written
+     * to partial file at it's offset, uploaded segment is written to server's partial file (see {@link PartialFile#openSegment(File, long, long)}).
+     *
+     * @param pathClient File that is uploaded, {@code null} for download
+     * @param pathServer Server's folder for upload, or server's file for download
+     * @param command    {@link FTPCommand#PUT} or {@link FTPCommand#GET}
+     * @param offset     Offset of segment
+     * @param length     Length of segment
+     * @throws IOException If segment is not transferred
+     */
+    void transferSegment(File pathClient, File pathServer, FTPCommand command, long offset, long length) throws IOException {
+        FTPTransferObject objToSend = createObject(pathClient, pathServer, command, null);
+        objToSend.setOffset(offset);
+        objToSend.setSegmentLength(length);
+        CompletableFuture<FTPTransferObject> done = send(objToSend);
+        if (command.equals(FTPCommand.PUT)) {
+            writeFile(pathClient, offset, offset + length, objToSend.getRequestId());
+        }
+        FTPTransferObject response = await(done);
+        if (response.getResponseCode() == -1) {
+            throw new IOException(response.getResponseMessage());
+        }
+    }
+
+    private boolean isDedup(File pathClient) {
+        return options != null && options.isDedup() && pathClient.length() >= DEDUP_MIN_SIZE;
+    }
+
+    /**
+     * Announces SHA-256 of file before upload ({@link FTPCommand#LINK}). Server that already stores file with same content creates
+     * file from it, so file doesn't have to be uploaded.
+     *
+     * @param pathClient File that will be uploaded
+     * @param pathServer Server's folder
+     * @return Response of server, {@link FTPCommand#SUCCESS} if file is created
+     * @throws IOException If file cannot be read or request cannot be sent
+     */
+    private CompletableFuture<FTPTransferObject> announce(File pathClient, File pathServer) throws IOException {
+        FTPTransferObject request = createObject(null, pathServer, FTPCommand.LINK, FileHash.sha256(pathClient));
+        request.setName(pathClient.getName());
+        request.setOffset(pathClient.length());
+        return send(request);
+    }
+
+    /**
+     * Creates file on server from content that server already stores, calling thread waits for response (see {@link #announce(File, File)}).
+     *
+     * @param pathClient Uploaded file
+     * @param pathServer Server's folder
+     * @return {@code true} if server created file, {@code false} if file has to be uploaded
+     * @throws IOException If file cannot be read or request cannot be sent
+     */
+    private boolean linkStored(File pathClient, File pathServer) throws IOException {
+        FTPTransferObject response = await(announce(pathClient, pathServer));
+        if (response.getResponseCode() == -1) {
+            return false;
+        }
+        listener.log("Server response: " + response.getResponseMessage() + " (" + pathClient.getName() + ")\n");
+        if (options.isLazyTree()) {
+            writeListing(pathServer, new ListOptions(), null);
+        }
+        return true;
+    }
+
+    /**
+     * Uploads only changes of file that server already has (see {@link FileDelta}). Signature of server's file is requested with
+     * {@link FTPCommand#SIGN}, delta is written to temporary file and sent with {@link FTPCommand#DELTA}. Calling thread waits for responses.
+     * Whole file has to be uploaded if server doesn't have file, if more than half of file is changed or if server cannot rebuild file.
+     *
+     * @param pathClient Uploaded file
+     * @param pathServer Server's folder
+     * @return {@code true} if server rebuilt file from delta, {@code false} if whole file has to be uploaded
+     * @throws IOException If request cannot be sent or file cannot be read
+     */
+    private boolean deltaUpload(File pathClient, File pathServer) throws IOException {
+        if (pathClient.length() < DELTA_MIN_SIZE) {
+            return false;
+        }
+        FTPTransferObject request = createObject(null, pathServer, FTPCommand.SIGN, null);
+        request.setName(pathClient.getName());
+        FTPTransferObject response = await(send(request));
+        if (response.getResponseCode() == -1 || response.getAdditionalData() == null) {
+            return false;
+        }
+        FileDelta.Signature signature = FileDelta.Signature.decode(response.getAdditionalData());
+        File deltaFile = Files.createTempFile("upload", ".delta").toFile();
+        try {
+            FileDelta.Delta written;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(deltaFile), 1024 * 1024)) {
+                written = FileDelta.write(pathClient, signature, out, pathClient.length() / 2);
+            }
+            if (written == null) {
+                listener.log("More than half of " + pathClient.getName() + " is changed, whole file is sent\n");
+                return false;
+            }
+            FTPTransferObject objToSend = createObject(pathClient, pathServer, FTPCommand.DELTA, null);
+            objToSend.setFileSize(deltaFile.length());
+            objToSend.setChecksum(written.getChecksum());
+            listener.log("Sending delta of " + pathClient.getName() + ": " + deltaFile.length() + " of " + pathClient.length()
+                    + " bytes (" + written.getLiteralBytes() + " bytes changed)\n");
+            CompletableFuture<FTPTransferObject> rebuilt = send(objToSend);
+            writeFile(deltaFile, 0, deltaFile.length(), objToSend.getRequestId());
+            response = await(rebuilt);
+        } finally {
+            Files.deleteIfExists(deltaFile.toPath());
+        }
+        listener.log("Server response: " + response.getResponseMessage() + "\n");
+        if (response.getResponseCode() == -1) {
+            return false;
+        }
+        if (options.isLazyTree()) {
+            writeListing(pathServer, new ListOptions(), null);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for response to request.
+     *
+     * @param response Response of request
+     * @return Received response
+     * @throws IOException If connection is closed before response or waiting is interrupted
+     */
+    private FTPTransferObject await(CompletableFuture<FTPTransferObject> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Request was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Fails all requests that wait for response, and closes partial files of all downloads.
+     *
+     * @param message Reason of failure
+     */
+    private void failPending(String message) {
+        for (Integer id : requests.keySet()) {
+            CompletableFuture<FTPTransferObject> response = requests.remove(id);
+            if (response != null) {
+                response.completeExceptionally(new IOException(message));
+            }
+        }
+        for (Integer id : downloads.keySet()) {
+            DownloadStream download = downloads.remove(id);
+            try {
+                download.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            CompletableFuture<FTPTransferObject> response = requests.remove(id);
+            if (response != null) {
+                response.completeExceptionally(new IOException(message));
+            }
+        }
+    }
+
+    /**
+     * Downloads files from server in one batch. Requests for all files are sent at once and server sends files one after another,
+     * error of one file (for example file that doesn't exist) doesn't stop other files. Files are saved to client's folder, like
+     * with {@link FTPCommand#GET}, and interrupted download of file is continued.
+     *
+     * @param pathsServer Paths of files on server side
+     * @return Result that is completed when all files are received
+     */
+    public CompletableFuture<BatchResult> mget(List<File> pathsServer) {
+        BatchTransfer batch = new BatchTransfer(pathsServer, false);
+        Thread writeThread = new Thread(() -> {
+            try {
+                writeBatch(batch, null);
+            } catch (IOException e) {
+                listener.log(e.getMessage());
+                e.printStackTrace();
+                batch.complete(e.getMessage(), false);
+            }
+        });
+        writeThread.setPriority(Thread.MAX_PRIORITY);
+        writeThread.start();
+        return batch.getResult();
+    }
+
+    /**
+     * Uploads files to server's folder in one batch. Files are sent one after another without waiting for server, which responds
+     * to every file and stores all of them at the end of batch (see {@link FTPCommand#MPUT}). Error of one file doesn't stop
+     * other files. Folder is listed (or tree is updated) once, after whole batch.
+     *
+     * @param files      Files on client side
+     * @param pathServer Server's folder
+     * @return Result that is completed when server stores files
+     */
+    public CompletableFuture<BatchResult> mput(List<File> files, File pathServer) {
+        BatchTransfer batch = new BatchTransfer(files, true);
+        Thread writeThread = new Thread(() -> {
+            try {
+                writeBatch(batch, pathServer);
+            } catch (IOException e) {
+                listener.log(e.getMessage());
+                e.printStackTrace();
+                batch.complete(e.getMessage(), false);
+            }
+        });
+        writeThread.setPriority(Thread.MAX_PRIORITY);
+        writeThread.start();
+        return batch.getResult();
+    }
+
+    /**
+     * Uploads all files of client's folder (without subfolders) to server's folder in one batch, see {@link #mput(List, File)}.
+     *
+     * @param directory  Folder on client side
+     * @param pathServer Server's folder
+     * @return Result that is completed when server stores files
+     */
+    public CompletableFuture<BatchResult> mputDirectory(File directory, File pathServer) {
+        File[] files = directory.listFiles(File::isFile);
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files);
+        return mput(Arrays.asList(files), pathServer);
+    }
+
+    /**
+     * Sends all requests of batch in calling thread, every file has it's own request. Upload batch ends with {@link FTPCommand#MPUT}
+     * without file. Server keeps one upload batch per session, so upload batches are sent one at a time.
+     *
+     * @param batch      Batch to be sent
+     * @param pathServer Server's folder for upload, {@code null} for download
+     * @throws IOException If request or file cannot be sent
+     */
+    private void writeBatch(BatchTransfer batch, File pathServer) throws IOException {
+        if (pathServer == null) {
+            sendBatch(batch, null);
+            return;
+        }
+        synchronized (uploadBatchLock) {
+            sendBatch(batch, pathServer);
+        }
+    }
+
+    private void sendBatch(BatchTransfer batch, File pathServer) throws IOException {
+        boolean upload = pathServer != null;
+        boolean empty = true;
+        for (File file : batch.getFiles()) {
+            if (upload && (!file.isFile() || !file.canRead())) {
+                batch.fail(file, "File cannot be read");
+            } else {
+                empty = false;
+            }
+        }
+        if (empty) {
+            batch.complete(null, true);
+            return;
+        }
+        // hashes of all files are announced before files, so server checks them while first files are uploaded
+        Map<File, CompletableFuture<FTPTransferObject>> announced = new HashMap<>();
+        for (File file : batch.getFiles()) {
+            if (upload && file.isFile() && file.canRead() && isDedup(file)) {
+                announced.put(file, announce(file, pathServer));
+            }
+        }
+        for (File file : batch.getFiles()) {
+            if (upload && (!file.isFile() || !file.canRead())) {
+                continue;
+            }
+            if (announced.containsKey(file)) {
+                FTPTransferObject response = await(announced.get(file));
+                if (response.getResponseCode() != -1) {
+                    batch.expect(file, CompletableFuture.completedFuture(response));
+                    continue;
+                }
+            }
+            FTPTransferObject objToSend = createObject(upload ? file : null, upload ? pathServer : file, upload ? FTPCommand.MPUT : FTPCommand.MGET, null);
+            if (!upload) {
+                setDownloadOffset(objToSend, new File(file.getName()));
+            } else if (file.length() >= RESUME_MIN_SIZE) {
+                objToSend.setOffset(uploadOffset(file, pathServer));
+            }
+            batch.expect(file, send(objToSend));
+            writeFileToStream(upload ? file : null, !upload, objToSend.getOffset(), objToSend.getRequestId());
+        }
+        if (upload) {
+            batch.stored(send(createObject(null, pathServer, FTPCommand.MPUT, null)));
+            if (options != null && options.isLazyTree()) {
+                writeListing(pathServer, new ListOptions(), null);
+            }
+        }
+        batch.sent();
+    }
+
+    /**
+     * Closes session without waiting for server.
+     */
+    void close() {
+        if (socket == null || socket.isClosed()) {
+            return;
+        }
+        try {
+            if (connected == 1) {
+                writeObjectToStream(null, null, FTPCommand.CLOSE);
+            }
+        } catch (IOException e) {
+            // server already closed connection
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets offset from which download continues, if there is partial file from interrupted download. Server sends file from
+     * that offset only if it's beginning has same checksum.
+     *
+     * @param objToSend {@link FTPCommand#GET} request
+     * @param file      File where downloaded file is saved
+     * @throws IOException If partial file cannot be read
+     */
+    private void setDownloadOffset(FTPTransferObject objToSend, File file) throws IOException {
+        File part = PartialFile.of(file);
+        if (part.isFile() && part.length() > 0) {
+            objToSend.setOffset(part.length());
+            objToSend.setChecksum(PartialFile.checksum(part, part.length()));
+        }
+    }
+
+    /**
+     * Asks server for partial file of upload with {@link FTPCommand#REST} and checks if it has same beginning as uploaded file.
+     * Calling thread waits for response.
+     *
+     * @param pathClient Uploaded file
+     * @param pathServer Server's folder
+     * @return Offset from which upload continues, {@code 0} if whole file is sent
+     * @throws IOException If request cannot be sent or file cannot be read
+     */
+    private long uploadOffset(File pathClient, File pathServer) throws IOException {
+        FTPTransferObject request = createObject(null, pathServer, FTPCommand.REST, null);
+        request.setName(pathClient.getName());
+        CompletableFuture<FTPTransferObject> restart = send(request);
+        FTPTransferObject response;
+        try {
+            response = restart.get(RESTART_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            requests.remove(request.getRequestId());
+            listener.log("Server didn't respond to restart request, whole file is sent\n");
+            return 0;
+        }
+        long offset = response.getOffset();
+        if (offset <= 0 || offset > pathClient.length() || PartialFile.checksum(pathClient, offset) != response.getChecksum()) {
+            return 0;
+        }
+        listener.log("Continuing upload of " + pathClient.getName() + " from " + offset + " bytes\n");
+        return offset;
+    }
+
+    /**
+     * Requests page of server's folder with {@link FTPCommand#LIST}. Received page is applied to tree and given to callback on thread
+     * chosen by client's {@link ClientListener}.
+     *
+     * @param directory Server's folder, {@code null} for root folder
+     * @param options   Sort, filter, page size and cursor
+     * @param callback  Callback that gets received page, or {@code null} if folder cannot be listed (can be {@code null})
+     */
+    public void list(File directory, ListOptions options, Consumer<DirectoryPage> callback) {
+        Thread writeThread = new Thread(() -> {
+            try {
+                writeListing(directory, options, callback);
+            } catch (IOException e) {
+                listener.log(e.getMessage());
+                e.printStackTrace();
+            }
+        });
+        writeThread.setPriority(Thread.MAX_PRIORITY);
+        writeThread.start();
+    }
+
+    private void writeListing(File directory, ListOptions options, Consumer<DirectoryPage> callback) throws IOException {
+        send(createObject(null, directory, FTPCommand.LIST, options.toBytes())).thenAccept(readObject -> readListing(readObject, options, callback));
+    }
+
+    /**
+     * Reads response to {@link FTPCommand#LIST} and applies it to tree.
+     *
+     * @param readObject Response
+     * @param options    Options of listing
+     * @param callback   Callback that gets received page (can be {@code null})
+     */
+    private void readListing(FTPTransferObject readObject, ListOptions options, Consumer<DirectoryPage> callback) {
+        DirectoryPage page = null;
+        if (readObject.getResponseCode() != -1 && readObject.getAdditionalData() != null) {
+            try {
+                page = DirectoryPage.decode(readObject.getAdditionalData());
+            } catch (IOException e) {
+                listener.log("Invalid listing: " + e.getMessage() + "\n");
+            }
+        }
+        if (page == null) {
+            listener.log("Server response: " + readObject.getResponseMessage() + "\n");
+        }
+        DirectoryPage received = page;
+        listener.updateTree(() -> {
+            if (received != null) {
+                boolean created = tree.getRoot() == null;
+                tree.apply(options, received);
+                if (created) {
+                    listener.log("Server response: " + readObject.getResponseMessage() + "\n");
+                }
+            }
+            if (callback != null) {
+                callback.accept(received);
+            }
+        });
+    }
+
+    /**
+     * This method is used for sending object from client to server. Before sending, frame header with object length is sent first (see {@link FrameCodec}).
      * Object represent {@link FTPTransferObject} with command, credentials for authentication, paths, file size...
      *
      * @param pathClient Client's file path
@@ -134,160 +922,222 @@ public class FTPClient {
      * @throws IOException If there is problem with object, if there is socket or stream problem
      */
     public void writeObjectToStream(File pathClient, File pathServer, FTPCommand command) throws IOException {
-        FTPTransferObject objToSend = new FTPTransferObject(username, password, command, 0, null, null);
+        writeObjectToStream(pathClient, pathServer, command, null);
+    }
+
+    /**
+     * This method is used for sending object with additional data to server.
+     *
+     * @param pathClient     Client's file path
+     * @param pathServer     Server's file/folder path
+     * @param command        Command to be executed
+     * @param additionalData Additional data for server (for example requested session options)
+     * @throws IOException If there is problem with object, if there is socket or stream problem
+     */
+    public void writeObjectToStream(File pathClient, File pathServer, FTPCommand command, byte[] additionalData) throws IOException {
+        writeObjectToStream(createObject(pathClient, pathServer, command, additionalData));
+    }
+
+    /**
+     * Creates object for sending to server.
+     *
+     * @param pathClient     Client's file path
+     * @param pathServer     Server's file/folder path
+     * @param command        Command to be executed
+     * @param additionalData Additional data for server
+     * @return Object with new request id, current tree version and chunk size for transfers
+     */
+    private FTPTransferObject createObject(File pathClient, File pathServer, FTPCommand command, byte[] additionalData) {
+        FTPTransferObject objToSend = new FTPTransferObject(username, password, command, 0, null, additionalData);
         objToSend.setPathServer(pathServer);
         objToSend.setPathClient(pathClient);
+        objToSend.setTreeVersion(tree.getVersion());
+        objToSend.setRequestId(nextRequest.incrementAndGet());
         if (pathClient != null) {
             objToSend.setName(pathClient.getName());
         }
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutput out = new ObjectOutputStream(bos);
         if (pathClient == null)
             objToSend.setFileSize(0);
         else
             objToSend.setFileSize(pathClient.length());
-        out.writeObject(objToSend);
-        byte[] objBytes = AES.encrypt(bos.toByteArray(), key);
-        assert objBytes != null;
-        outStream.write(Arrays.copyOf((objBytes.length + "").getBytes(StandardCharsets.UTF_8), 16), 0, 16);
-        int sendObjectSize = 0;
-        while (objBytes.length - sendObjectSize > 0) {
-            byte[] tmpArray = Arrays.copyOfRange(objBytes, sendObjectSize, sendObjectSize + Math.min(objBytes.length - sendObjectSize, 512));
-            outStream.write(tmpArray, 0, tmpArray.length);
-            sendObjectSize += 512;
+        if (command.equals(FTPCommand.PUT) || command.equals(FTPCommand.GET) || command.equals(FTPCommand.MPUT) || command.equals(FTPCommand.MGET)) {
+            objToSend.setChunkSize(getChunkSize());
+        }
+        return objToSend;
+    }
+
+    /**
+     * This method sends object to server. Object is encrypted and sent after frame header (see {@link FrameCodec}).
+     *
+     * @param objToSend Object to be sent
+     * @throws IOException If there is socket or stream problem
+     */
+    private void writeObjectToStream(FTPTransferObject objToSend) throws IOException {
+        byte[] plain = FrameCodec.encode(objToSend);
+        synchronized (writeLock) {
+            byte[] objBytes = crypto.seal(plain, 0, plain.length);
+            outStream.write(FrameCodec.header(objBytes.length));
+            outStream.write(objBytes);
+            outStream.flush();
         }
-        outStream.flush();
 
     }
 
     /**
-     * This method send file as encrypted bytes to server (if required). File size was already sent in object.
-     * Method uses {@link BufferedInputStream} for reading file by chunks, each chunk is 512 bytes length, and writes them directly to stream.
+     * This method sends file as encrypted frames of request's stream to server (if required). File size was already sent in object.
+     * File is sent from given offset, for continuing interrupted upload (see {@link PartialFile}).
      *
      * @param pathClient Path from client's file that needs to be sent
-     * @param empty      If there is no need for file to be sent, this flag is set to {@code true} and synchronization byte is sent
+     * @param empty      If there is no need for file to be sent
+     * @param offset     Offset from which file is sent
+     * @param stream     Id of request
      * @throws IOException If there is problem with file, or stream
      */
-    public void writeFileToStream(File pathClient, boolean empty) throws IOException {
+    private void writeFileToStream(File pathClient, boolean empty, long offset, int stream) throws IOException {
         if (empty || pathClient == null) {
             return;
         }
-        byte[] myBuffer = new byte[512];
-        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(pathClient));
-        long currentTimeSeconds;
-        int read = 0;
-        while (true) {
-            currentTimeSeconds = System.currentTimeMillis() / 1000;
-            int bytesRead = bis.read(myBuffer, 0, 512);
-            if (bytesRead == -1) break;
-            byte[] encrypted = AES.encrypt(myBuffer, key);
-            assert encrypted != null;
-            outStream.write(encrypted, 0, 528);
-            read += 528;
-            FTPClientUI.updateBar(((double) read - 1) / (double) pathClient.length(), 528 / (((double) System.currentTimeMillis() / 1000) - currentTimeSeconds));
-            while (pause) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        writeFile(pathClient, offset, pathClient.length(), stream);
+    }
+
+    /**
+     * This method sends part of file between given offsets. File is read by chunks, each chunk is one record of negotiated size
+     * (last chunk contains only remaining bytes) sent in it's own frame, so frames of other requests can be sent between them.
+     * In sessions with compression chunks are compressed before encryption. Chunk is read and frame is built in buffers taken from
+     * {@link BufferPool}, record is encrypted directly after frame header and whole frame is written at once.
+     *
+     * @param pathClient Path from client's file that needs to be sent
+     * @param offset     Offset from which file is sent
+     * @param size       Offset where sending stops
+     * @param stream     Id of request
+     * @throws IOException If there is problem with file, or stream
+     */
+    private void writeFile(File pathClient, long offset, long size, int stream) throws IOException {
+        if (options != null && !options.isEncryption()) {
+            writeFileDirect(pathClient, offset, size, stream);
+            return;
+        }
+        int chunk = getChunkSize();
+        int chunkLength = (int) Math.min(chunk, Math.max(size - offset, 1));
+        ChunkCompressor compressor = options != null && options.isCompression() && size > offset ? new ChunkCompressor() : null;
+        ByteBuffer buffer = BufferPool.acquire(chunkLength);
+        ByteBuffer record = compressor == null ? null : BufferPool.acquire(ChunkCompressor.maxRecordLength(chunkLength));
+        ByteBuffer frame = BufferPool.acquire(FrameCodec.HEADER_LENGTH + crypto.sealedLength(ChunkCompressor.maxRecordLength(chunkLength)));
+        try (FileChannel file = FileChannel.open(pathClient.toPath(), StandardOpenOption.READ)) {
+            long read = offset;
+            while (read < size) {
+                long currentTime = System.currentTimeMillis();
+                buffer.clear().limit((int) Math.min(chunk, size - read));
+                while (buffer.hasRemaining()) {
+                    if (file.read(buffer, read + buffer.position()) == -1) {
+                        throw new EOFException("File was truncated while sending");
+                    }
+                }
+                int bytesRead = buffer.position();
+                ByteBuffer data = buffer.flip();
+                if (compressor != null) {
+                    data = record.clear().limit(compressor.compress(buffer.array(), 0, bytesRead, record.array()));
+                }
+                synchronized (writeLock) {
+                    int sealedLength = crypto.sealedLength(data.remaining());
+                    FrameCodec.putHeader(frame.clear(), sealedLength, stream);
+                    crypto.seal(data, frame);
+                    outStream.write(frame.array(), 0, frame.position());
+                    outStream.flush();
                 }
+                read += bytesRead;
+                updateBar(read, size, bytesRead, currentTime);
+                waitIfPaused();
             }
+            updateBar(0, 0, 0, 0);
+            if (compressor != null) {
+                listener.log("Sent " + pathClient.getName() + ": " + compressor.sendReport() + "\n");
+            }
+        } finally {
+            if (compressor != null) {
+                compressor.close();
+            }
+            BufferPool.release(buffer);
+            BufferPool.release(record);
+            BufferPool.release(frame);
         }
-        FTPClientUI.updateBar(0, 0);
-        outStream.flush();
-        bis.close();
     }
 
     /**
-     * This method reads object from stream. First it reads object size that is sent from server, and then {@link FTPTransferObject}.
+     * This method sends file without encryption, directly from file to socket channel using {@link FileChannel#transferTo}.
+     * File is sent in frames of request's stream (header followed by at most {@link #DIRECT_PART} file bytes), so progress can be
+     * shown, transfer can be paused and frames of other requests can be sent between them.
      *
-     * @return Read object from stream
-     * @throws IOException            If object is not read correctly, or there is some stream problem (bytes not read correctly)
-     * @throws ClassNotFoundException If there is problem with class
+     * @param pathClient Path from client's file that needs to be sent
+     * @param offset     Offset from which file is sent
+     * @param size       Offset where sending stops
+     * @param stream     Id of request
+     * @throws IOException If there is problem with file, or channel
      */
-    public FTPTransferObject readObjectFromStream() throws IOException, ClassNotFoundException {
-        FTPTransferObject readObject;
-        byte[] objInputArray;
-        int num;
-        byte[] b = new byte[16];
-        num = inStream.read(b, 0, 16);
-        if (num == 0) return null;
-        int size = Integer.parseInt((new String(b, StandardCharsets.UTF_8)).trim());
-        objInputArray = new byte[size];
-        try {
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        int readBytes = 0;
-        while (size - readBytes > 0) {
-            while (inStream.available() < Math.min(size - readBytes, 512)) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+    private void writeFileDirect(File pathClient, long offset, long size, int stream) throws IOException {
+        try (FileChannel file = FileChannel.open(pathClient.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            while (position < size) {
+                long currentTime = System.currentTimeMillis();
+                int length = (int) Math.min(DIRECT_PART, size - position);
+                long frameEnd = position + length;
+                synchronized (writeLock) {
+                    outStream.write(FrameCodec.header(length, stream));
+                    outStream.flush();
+                    while (position < frameEnd) {
+                        long num = file.transferTo(position, frameEnd - position, socket.getChannel());
+                        if (num == 0 && position >= file.size()) {
+                            // frame header promised more bytes, so stream cannot be continued
+                            socket.close();
+                            throw new EOFException("File was truncated while sending");
+                        }
+                        position += num;
+                    }
                 }
+                updateBar(position, size, length, currentTime);
+                waitIfPaused();
             }
-            byte[] tmpArray = new byte[Math.min(size - readBytes, 512)];
-            inStream.read(tmpArray, 0, Math.min(size - readBytes, 512));
-            System.arraycopy(tmpArray, 0, objInputArray, readBytes, tmpArray.length);
-            readBytes += 512;
         }
+        updateBar(0, 0, 0, 0);
+    }
 
-        ByteArrayInputStream bis = new ByteArrayInputStream(Objects.requireNonNull(AES.decrypt(objInputArray, key)));
-        ObjectInput in = new ObjectInputStream(bis);
-        readObject = (FTPTransferObject) in.readObject();
-        return readObject;
+    /**
+     * Decrypts and decodes object from frame body (see {@link FrameCodec}).
+     *
+     * @param body Frame body
+     * @return Read object
+     * @throws IOException If object is not valid
+     */
+    private FTPTransferObject decodeObject(byte[] body) throws IOException {
+        byte[] decrypted = crypto.open(body, 0, body.length);
+        return FrameCodec.decode(decrypted, 0, decrypted.length);
     }
 
     /**
-     * This method reads file from stream and stores it in client's directory.
-     * From given {@link FTPTransferObject} file size is read, and then, with 512 bytes buffer, file is read and stored.
+     * Shows progress of transfer. Segment sessions report transferred bytes to {@link SegmentedTransfer}, which shows progress of whole file.
      *
-     * @param readObject Read object from stream before reading file
-     * @throws IOException If there is problem with file or stream
+     * @param position  Current position in file, {@code 0} when transfer is finished
+     * @param size      Offset where transfer stops
+     * @param bytes     Bytes transferred since last call
+     * @param startTime Time when those bytes started transferring
      */
-    public void readFileFromStream(FTPTransferObject readObject) throws IOException {
-        if (readObject.getFileSize() == 0) {
-            return;
+    private void updateBar(long position, long size, long bytes, long startTime) {
+        if (progress != null) {
+            progress.accept(bytes);
+        } else if (size == 0) {
+            listener.progress(0, 0);
+        } else {
+            listener.progress((double) position / size, bytes * 1000.0 / Math.max(1, System.currentTimeMillis() - startTime));
         }
-        if (readObject.getPathServer() != null) {
-            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(new File(readObject.getName())));
-
-            byte[] readBuffer = new byte[528];
-            long fileSizeEnc = ((readObject.getFileSize() / 512) + 1) * 528;
-            long fileSize = readObject.getFileSize();
-            long read = 0;
-            long currentTimeSeconds;
-            while (fileSizeEnc > 0) {
-                while (inStream.available() < 528) {
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                currentTimeSeconds = System.currentTimeMillis() / 1000;
-                int num = inStream.read(readBuffer, 0, 528);
-                if (num <= 0) break;
-                byte[] decrypted = AES.decrypt(readBuffer, key);
-                assert decrypted != null;
-                bos.write(decrypted, 0, fileSize < 512 ? (int) fileSize : decrypted.length);
-                read += 512;
-                fileSizeEnc -= 528;
-                fileSize -= 512;
-                FTPClientUI.updateBar(((double) read - 1) / ((double) fileSize), 512 / (((double) System.currentTimeMillis() / 1000) - currentTimeSeconds));
-                while (pause) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+    }
+
+    private void waitIfPaused() {
+        while (pause) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
-            FTPClientUI.updateBar(0, 0);
-            bos.flush();
-            bos.close();
         }
     }
 
@@ -297,15 +1147,28 @@ public class FTPClient {
     public void generateKey() {
         KeyGenerator keyGenerator = new KeyGenerator(new Random().nextInt() + 10);
         try {
-            byte[] received = new byte[32];
-            inStream.read(received, 0, 32);
-            keyGenerator.setReceivedCode(Long.parseLong(new String(received, StandardCharsets.US_ASCII).trim()));
+            keyGenerator.setReceivedCode(Long.parseLong(new String(reader.readNext(16), StandardCharsets.US_ASCII).trim()));
             outStream.write(Arrays.copyOf(String.valueOf(keyGenerator.getCodeToSend()).getBytes(StandardCharsets.US_ASCII), 16));
             outStream.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
         this.key = String.valueOf(keyGenerator.getFinalCode());
+        this.crypto = new CryptoContext(key, true);
+    }
+
+    /**
+     * Sets listener that shows log messages and progress of transfers and applies changes of tree. It should be set before
+     * {@link #createSocket()}, client without user interface writes log to standard output.
+     *
+     * @param listener Listener of client
+     */
+    public void setListener(ClientListener listener) {
+        this.listener = listener;
+    }
+
+    ClientListener getListener() {
+        return listener;
     }
 
     public String getUsername() {
@@ -317,30 +1180,140 @@ public class FTPClient {
     }
 
     public TreeItem<FTPFile> getTree() {
+        return tree.getRoot();
+    }
+
+    /**
+     * Returns client's copy of server's tree. It should be used on thread where listener applies changes of tree (see {@link ClientListener#updateTree(Runnable)}).
+     *
+     * @return Remote tree
+     */
+    public RemoteTree getRemoteTree() {
         return tree;
     }
 
+    /**
+     * Waits until server responds to login and options ({@link FTPCommand#OPTS}), connection is closed or {@link #CONNECT_TIMEOUT} passes.
+     *
+     * @return {@code true} if client is connected
+     */
     public boolean checkConnected() {
-        int iter = 0;
-        while (connected == 0) {
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            if (connected == -1) return false;
-            if (connected == 1) return true;
-            if (iter > 20) break;
-            iter++;
+        try {
+            return connection.get(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
         }
-        return false;
+    }
+
+    /**
+     * Changes state of connection, client that waits in {@link #checkConnected()} gets result when client is connected or when
+     * login fails or connection is closed.
+     *
+     * @param state {@code 1} if connected, {@code -1} if login failed, {@code 0} if connection is closed
+     */
+    private void setConnected(int state) {
+        connected = state;
+        connection.complete(state == 1);
+    }
+
+    /**
+     * Sets options that will be requested from server on connecting. Server can refuse some of them (for example disabling encryption).
+     *
+     * @param requestedOptions Requested options
+     */
+    public void setRequestedOptions(SessionOptions requestedOptions) {
+        this.requestedOptions = requestedOptions;
+    }
+
+    /**
+     * Returns size of chunks in which files are sent and received. It is size set with {@link #setChunkSize(int)}
+     * or size granted by server, limited to server's maximum chunk size.
+     *
+     * @return Chunk size in bytes
+     */
+    public int getChunkSize() {
+        if (options == null) {
+            return chunkSize == 0 ? requestedOptions.getChunkSize() : chunkSize;
+        }
+        return options.limitChunkSize(chunkSize == 0 ? options.getChunkSize() : chunkSize);
+    }
+
+    /**
+     * Changes size of chunks for next transfers. It can be changed at any time, size is sent to server with every
+     * {@link FTPCommand#PUT} and {@link FTPCommand#GET} command, so there is no need for new negotiation.
+     *
+     * @param chunkSize Chunk size in bytes, or {@code 0} for size granted by server
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns options granted by server.
+     *
+     * @return Session options or {@code null} if server didn't respond yet
+     */
+    public SessionOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns number of sessions used for transferring big files.
+     *
+     * @return Number of streams
+     */
+    public int getStreams() {
+        return streams;
+    }
+
+    /**
+     * Sets number of sessions used for transferring big files (see {@link SegmentedTransfer}). With {@code 1} every file is
+     * transferred through this session only.
+     *
+     * @param streams Number of streams
+     */
+    public void setStreams(int streams) {
+        this.streams = Math.max(1, streams);
+    }
+
+    /**
+     * Checks if changed files are uploaded as delta.
+     *
+     * @return {@code true} if delta upload is enabled
+     */
+    public boolean getDelta() {
+        return delta;
+    }
+
+    /**
+     * Enables delta upload (see {@link FileDelta}). Server reads whole old file for signature and client reads whole file for delta,
+     * so it is useful for big files with small changes, when network is slower than disks.
+     *
+     * @param delta {@code true} for delta upload
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
     }
 
     public boolean getPause() {
         return pause;
     }
 
+    /**
+     * Pauses or continues transfers. Paused uploads wait between chunks, and paused downloads stop giving credit to server
+     * (see {@link FTPCommand#WINDOW}), so server stops sending them when credit is spent. Other requests are executed while paused.
+     *
+     * @param p {@code true} for pause
+     */
     public void setPause(boolean p) {
         pause = p;
+        if (!p) {
+            for (DownloadStream download : downloads.values()) {
+                sendCredit(download);
+            }
+        }
     }
 }
\ No newline at end of file
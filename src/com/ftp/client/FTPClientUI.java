@@ -2,6 +2,8 @@ package com.ftp.client;
 
 import com.ftp.file.FTPCommand;
 import com.ftp.file.FTPFile;
+import com.ftp.file.ListOptions;
+import com.ftp.file.SessionOptions;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
@@ -48,6 +50,12 @@ public class FTPClientUI extends Application {
     private static final TextArea log = new TextArea();
     private static TerminalEmulator te;
     private static final TreeView<FTPFile> treeView = new TreeView<>(null);
+    private static String plaintext = "0";
+    private static String chunk = "";
+    private static String streams = "1";
+    private static String tree = "lazy";
+    private static String compression = "0";
+    private static String delta = "0";
 
     @Override
     public void start(Stage primaryStage) throws Exception {
@@ -89,6 +97,12 @@ public class FTPClientUI extends Application {
         FileReader reader = new FileReader("connect.properties");
         Properties props = new Properties();
         props.load(reader);
+        plaintext = props.getProperty("plaintext", "0");
+        chunk = props.getProperty("chunk", "");
+        streams = props.getProperty("streams", "1");
+        tree = props.getProperty("tree", "lazy");
+        compression = props.getProperty("compression", "0");
+        delta = props.getProperty("delta", "0");
         if (Integer.parseInt(props.get("remember").toString()) == 1) {
             username.setText(props.get("username").toString());
             password.setText(props.get("password").toString());
@@ -132,6 +146,12 @@ public class FTPClientUI extends Application {
                 p.setProperty("password", password.getText());
                 p.setProperty("host", host.getText());
                 p.setProperty("port", port.getText());
+                p.setProperty("plaintext", plaintext);
+                p.setProperty("chunk", chunk);
+                p.setProperty("streams", streams);
+                p.setProperty("tree", tree);
+                p.setProperty("compression", compression);
+                p.setProperty("delta", delta);
                 try {
                     p.store(new FileWriter("connect.properties"), "Client connection credentials");
                 } catch (IOException ioException) {
@@ -140,6 +160,12 @@ public class FTPClientUI extends Application {
             } else {
                 try {
                     p.setProperty("remember", "0");
+                    p.setProperty("plaintext", plaintext);
+                    p.setProperty("chunk", chunk);
+                    p.setProperty("streams", streams);
+                    p.setProperty("tree", tree);
+                    p.setProperty("compression", compression);
+                    p.setProperty("delta", delta);
                     p.store(new FileWriter("connect.properties"), "Client connection credentials");
                 } catch (IOException ioException) {
                     ioException.printStackTrace();
@@ -148,6 +174,10 @@ public class FTPClientUI extends Application {
             if (!connected) {
                 addToLog("Connecting...\n");
                 client = new FTPClient(username.getText(), password.getText(), host.getText(), Integer.parseInt(port.getText()));
+                client.setListener(listener());
+                client.setRequestedOptions(requestedOptions());
+                client.setStreams(requestedStreams());
+                client.setDelta(requestedDelta());
                 boolean success = client.createSocket();
                 if (success) {
                     checkConnected(client, console, connect);
@@ -269,6 +299,7 @@ public class FTPClientUI extends Application {
         MenuItem deleteItem = new MenuItem("Delete");
         MenuItem detailsItem = new MenuItem("Details");
         MenuItem refreshItem = new MenuItem("Refresh");
+        MenuItem moreItem = new MenuItem("Load more");
         downloadItem.setOnAction(e -> {
             if (selected == null) {
                 Alert a = new Alert(Alert.AlertType.WARNING);
@@ -276,7 +307,7 @@ public class FTPClientUI extends Application {
                 a.show();
             } else {
                 addToLog("Downloading " + selected.getName() + "...\n");
-                client.writeToSocket(null, new File(selected.getAbsolutePath()), FTPCommand.GET);
+                client.download(new File(selected.getAbsolutePath()), selected.length());
             }
         });
         deleteItem.setOnAction(e -> {
@@ -296,14 +327,29 @@ public class FTPClientUI extends Application {
             a.show();
         });
         refreshItem.setOnAction(e -> {
-            client.writeToSocket(null, null, FTPCommand.TREE);
+            if (client.getOptions() != null && client.getOptions().isLazyTree()) {
+                client.list(selectedFolder == null ? null : new File(selectedFolder.getValue().getAbsolutePath()), new ListOptions(), null);
+            } else {
+                client.writeToSocket(null, null, FTPCommand.TREE);
+            }
             addToLog("Refreshing tree view...\n");
         });
+        moreItem.setOnAction(e -> {
+            ListOptions next = selectedFolder == null ? null : client.getRemoteTree().nextPage(selectedFolder);
+            if (next == null) {
+                Alert a = new Alert(Alert.AlertType.INFORMATION);
+                a.setContentText("All files of selected folder are loaded.");
+                a.show();
+            } else {
+                client.list(new File(selectedFolder.getValue().getAbsolutePath()), next, null);
+            }
+        });
         ContextMenu rootContextMenu = new ContextMenu();
         rootContextMenu.getItems().add(downloadItem);
         rootContextMenu.getItems().add(deleteItem);
         rootContextMenu.getItems().add(detailsItem);
         rootContextMenu.getItems().add(refreshItem);
+        rootContextMenu.getItems().add(moreItem);
 
         treeView.setContextMenu(rootContextMenu);
         bar.setMinWidth(scene.getWidth() - 170 - newFolder.getWidth());
@@ -362,6 +408,73 @@ public class FTPClientUI extends Application {
         });
     }
 
+    /**
+     * Returns options that client requests from server. Encryption is disabled if {@code plaintext=1} is set in {@code connect.properties}
+     * (server allows it only on trusted networks). Chunk size can be requested with {@code chunk} (for example {@code chunk=4M}).
+     * Folders are loaded on demand, unless {@code tree=full} is set (whole tree is sent after logging in).
+     * Encrypted file chunks are compressed if {@code compression=1} is set and server allows it. Client always asks for deduplication,
+     * so files that server already stores are not uploaded.
+     *
+     * @return Requested session options
+     */
+    public static SessionOptions requestedOptions() {
+        SessionOptions options = new SessionOptions();
+        options.setEncryption(!plaintext.trim().equals("1"));
+        options.setChunkSize(SessionOptions.parseSize(chunk, SessionOptions.DEFAULT_CHUNK_SIZE));
+        options.setLazyTree(!tree.trim().equals("full"));
+        options.setCompression(compression.trim().equals("1"));
+        options.setDedup(true);
+        return options;
+    }
+
+    /**
+     * Returns number of sessions used for transferring big files, set with {@code streams} in {@code connect.properties}
+     * (see {@link FTPClient#setStreams(int)}).
+     *
+     * @return Number of streams, {@code 1} if it is not set
+     */
+    public static int requestedStreams() {
+        try {
+            return Integer.parseInt(streams.trim());
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Checks if changed files are uploaded as delta, set with {@code delta=1} in {@code connect.properties}
+     * (see {@link FTPClient#setDelta(boolean)}).
+     *
+     * @return {@code true} if delta upload is enabled
+     */
+    public static boolean requestedDelta() {
+        return delta.trim().equals("1");
+    }
+
+    /**
+     * Returns listener that shows log and progress of client in this window and applies changes of tree on JavaFX application thread.
+     *
+     * @return Listener for {@link FTPClient#setListener(ClientListener)}
+     */
+    public static ClientListener listener() {
+        return new ClientListener() {
+            @Override
+            public void log(String message) {
+                addToLog(message);
+            }
+
+            @Override
+            public void progress(double percentage, double speed) {
+                updateBar(percentage, speed);
+            }
+
+            @Override
+            public void updateTree(Runnable change) {
+                Platform.runLater(change);
+            }
+        };
+    }
+
     public static void setClient(FTPClient client) {
         FTPClientUI.client = client;
     }
@@ -0,0 +1,132 @@
+package com.ftp.client;
+
+import com.ftp.file.FTPCommand;
+import com.ftp.file.PartialFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class transfers one big file in segments over several sessions at once, so transfer is not limited to one connection (one TCP
+ * window and one thread that encrypts records). File is split into equal segments and every segment is transferred by it's own
+ * session, receiving side writes it to partial file at segment's offset (see {@link PartialFile#openSegment(File, long, long)}).
+ * <p>
+ * After all segments are transferred, file is completed in main session by normal transfer that continues partial file. Both sides
+ * compare checksum of whole partial file, so if all segments are correct nothing more is sent and partial file is only renamed,
+ * otherwise whole file is transferred again.
+ */
+class SegmentedTransfer {
+    static final long MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private final FTPClient client;
+    private final int streams;
+    private final AtomicLong transferred = new AtomicLong();
+    private long size;
+    private long startTime;
+
+    SegmentedTransfer(FTPClient client, int streams) {
+        this.client = client;
+        this.streams = streams;
+    }
+
+    /**
+     * Checks if file is big enough to be transferred in segments.
+     *
+     * @param size    File size
+     * @param streams Number of streams set in client
+     * @return {@code true} if there are at least two segments of {@link #MIN_SEGMENT_SIZE}
+     */
+    static boolean isSegmented(long size, int streams) {
+        return streams > 1 && size >= 2 * MIN_SEGMENT_SIZE;
+    }
+
+    /**
+     * Uploads file in segments and completes it in main session.
+     *
+     * @param pathClient File that is uploaded
+     * @param pathServer Server's folder
+     * @throws IOException If segment is not transferred or file cannot be completed
+     */
+    void upload(File pathClient, File pathServer) throws IOException {
+        transferSegments(pathClient, pathServer, FTPCommand.PUT, pathClient.length());
+        client.transfer(pathClient, pathServer, FTPCommand.PUT);
+    }
+
+    /**
+     * Downloads file in segments and completes it in main session. Partial file that is longer than file (left by other download)
+     * is shortened first, otherwise it couldn't be completed.
+     *
+     * @param pathServer Server's file
+     * @param size       File size
+     * @throws IOException If segment is not transferred or file cannot be completed
+     */
+    void download(File pathServer, long size) throws IOException {
+        File part = PartialFile.of(new File(pathServer.getName()));
+        if (part.length() > size) {
+            try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+            }
+        }
+        transferSegments(null, pathServer, FTPCommand.GET, size);
+        client.transfer(null, pathServer, FTPCommand.GET);
+    }
+
+    private void transferSegments(File pathClient, File pathServer, FTPCommand command, long size) throws IOException {
+        int count = (int) Math.min(streams, size / MIN_SEGMENT_SIZE);
+        long segmentLength = (size + count - 1) / count;
+        this.size = size;
+        this.startTime = System.currentTimeMillis();
+        client.getListener().log("Transferring " + (pathClient == null ? pathServer : pathClient).getName() + " in " + count + " segments...\n");
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                long offset = i * segmentLength;
+                long length = Math.min(segmentLength, size - offset);
+                futures.add(executor.submit(() -> {
+                    FTPClient session = client.openSegmentSession(this::progress);
+                    try {
+                        session.transferSegment(pathClient, pathServer, command, offset, length);
+                    } finally {
+                        session.close();
+                    }
+                    return null;
+                }));
+            }
+            IOException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Segmented transfer was interrupted");
+        } finally {
+            executor.shutdown();
+            client.getListener().progress(0, 0);
+        }
+        long time = Math.max(1, System.currentTimeMillis() - startTime);
+        client.getListener().log("Transferred " + count + " segments in " + time + " ms (" + size * 1000 / time + " B/s)\n");
+    }
+
+    private void progress(long bytes) {
+        long done = transferred.addAndGet(bytes);
+        client.getListener().progress((double) done / size, done * 1000.0 / Math.max(1, System.currentTimeMillis() - startTime));
+    }
+}
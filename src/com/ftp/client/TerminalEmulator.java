@@ -2,6 +2,9 @@ package com.ftp.client;
 
 import com.ftp.file.FTPCommand;
 import com.ftp.file.FTPFile;
+import com.ftp.file.FileHash;
+import com.ftp.file.ListOptions;
+import com.ftp.file.SessionOptions;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TreeItem;
 
@@ -11,12 +14,14 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 /**
  * Old style linux terminal emulator used for directly executing basic commands to remote FTP server. Also supports basic terminal commands like
- * cd, pwd, ls...
+ * cd, pwd, ls... If client loads folders on demand, {@code ls} and {@code cd} list folders from server with {@link FTPCommand#LIST}
+ * and print their output when response is received.
  *
  * @author Stefan
  */
@@ -27,6 +32,8 @@ public class TerminalEmulator {
     public static TreeItem<FTPFile> treeItem;
     private int caretPosition;
     private String lastCommand = "";
+    private File nextDirectory;
+    private ListOptions nextPage;
 
     public TerminalEmulator(FTPClient client, TextArea console) {
         this.client = client;
@@ -46,12 +53,16 @@ public class TerminalEmulator {
         }
         String command = console.getText().substring(console.getText().lastIndexOf("$") + 1, console.getCaretPosition()).trim();
         lastCommand = command;
-        if (command.equals("ls")) {
-            try {
-                listFiles();
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (command.equals("ls") || command.startsWith("ls ")) {
+            if (isLazy()) {
+                listFiles(command.substring(2).trim());
+                return;
+            }
+            List<FTPFile> files = new ArrayList<>();
+            for (TreeItem<FTPFile> item : treeItem.getChildren()) {
+                files.add(item.getValue());
             }
+            console.appendText(formatFiles(files));
         } else if (command.equals("pwd")) {
             console.appendText(client.getTree().getValue().getName());
         } else if (command.startsWith("cd")) {
@@ -72,6 +83,9 @@ public class TerminalEmulator {
                     }
                     if (found) {
                         pwd += "/" + folderName;
+                    } else if (isLazy() && (client.getRemoteTree().nextPage(treeItem) != null || !client.getRemoteTree().isLoaded(treeItem))) {
+                        changeDirectory(command, folderName);
+                        return;
                     } else {
                         console.appendText(command + ": No such file or directory");
                     }
@@ -82,7 +96,13 @@ public class TerminalEmulator {
             if (command.substring(3).trim().equals("--help")) {
                 console.appendText("Usage: get [remote_file]");
             } else {
-                client.writeToSocket(null, new File(file), FTPCommand.GET);
+                long size = 0;
+                for (TreeItem<FTPFile> item : treeItem.getChildren()) {
+                    if (item.getValue().getName().equals(command.substring(3).trim())) {
+                        size = item.getValue().length();
+                    }
+                }
+                client.download(new File(file), size);
                 FTPClientUI.addToLog("Downloading...\n");
             }
         } else if (command.startsWith("put")) {
@@ -93,6 +113,73 @@ public class TerminalEmulator {
                 FTPClientUI.addToLog("Uploading...\n");
                 client.writeToSocket(new File(file), new File(treeItem.getValue().getAbsolutePath()), FTPCommand.PUT);
             }
+        } else if (command.startsWith("mget")) {
+            String files = command.substring(4).trim();
+            if (files.isEmpty() || files.equals("--help")) {
+                console.appendText("Usage: mget [remote_file]...\n\tDownloads files from current folder in one batch.");
+            } else {
+                List<File> paths = new ArrayList<>();
+                for (String name : files.split("\\s+")) {
+                    paths.add(new File(treeItem.getValue().getAbsolutePath() + File.separator + name));
+                }
+                FTPClientUI.addToLog("Downloading " + paths.size() + " files...\n");
+                client.mget(paths).thenAccept(this::logBatch);
+            }
+        } else if (command.startsWith("mput")) {
+            String files = command.substring(4).trim();
+            if (files.isEmpty() || files.equals("--help")) {
+                console.appendText("Usage: mput [local_file]... | [local_folder]\n\tUploads files (or all files of folder) to current folder in one batch.");
+            } else {
+                List<File> paths = new ArrayList<>();
+                for (String name : files.split("\\s+")) {
+                    paths.add(new File(name));
+                }
+                File folder = new File(treeItem.getValue().getAbsolutePath());
+                FTPClientUI.addToLog("Uploading...\n");
+                if (paths.size() == 1 && paths.get(0).isDirectory()) {
+                    client.mputDirectory(paths.get(0), folder).thenAccept(this::logBatch);
+                } else {
+                    client.mput(paths, folder).thenAccept(this::logBatch);
+                }
+            }
+        } else if (command.startsWith("chunk")) {
+            String size = command.substring(5).trim();
+            if (size.equals("--help")) {
+                console.appendText("Usage: chunk [size]\n\tShows or changes size of file chunks (for example 256K, 4M). Size 0 restores size granted by server.");
+            } else if (size.isEmpty()) {
+                console.appendText("Chunk size: " + client.getChunkSize() + " bytes" + (client.getOptions() == null ? "" : " (max " + client.getOptions().getMaxChunkSize() + ")"));
+            } else {
+                client.setChunkSize(SessionOptions.parseSize(size, 0));
+                console.appendText("Chunk size: " + client.getChunkSize() + " bytes");
+            }
+        } else if (command.startsWith("streams")) {
+            String streams = command.substring(7).trim();
+            if (streams.equals("--help")) {
+                console.appendText("Usage: streams [number]\n\tShows or changes number of sessions used for transferring big files in segments. Number 1 disables segmented transfers.");
+            } else {
+                if (!streams.isEmpty()) {
+                    client.setStreams(Integer.parseInt(streams));
+                }
+                console.appendText("Streams: " + client.getStreams());
+            }
+        } else if (command.startsWith("delta")) {
+            String delta = command.substring(5).trim();
+            if (delta.equals("--help")) {
+                console.appendText("Usage: delta [on|off]\n\tShows or changes if only changes of files that server already has are uploaded.");
+            } else {
+                if (!delta.isEmpty()) {
+                    client.setDelta(delta.equals("on"));
+                }
+                console.appendText("Delta upload: " + (client.getDelta() ? "on" : "off"));
+            }
+        } else if (command.startsWith("hash")) {
+            String[] args = command.substring(4).trim().split("\\s+");
+            if (args[0].isEmpty() || args[0].equals("--help")) {
+                console.appendText("Usage: hash [sha256|crc32c] [remote_file] [offset] [length]\n\tShows hash of file (or of range of file) calculated on server,"
+                        + " and compares it with local file of same name.");
+            } else {
+                hashFile(args);
+            }
         } else if (command.startsWith("tree")) {
             FTPClientUI.addToLog("Refreshing tree view...\n");
             client.writeToSocket(null, null, FTPCommand.TREE);
@@ -141,6 +228,10 @@ public class TerminalEmulator {
                     if (client == null) {
                         FTPClientUI.addToLog("Connecting...\n");
                         this.client = new FTPClient(usr, pw, host, port);
+                        client.setListener(FTPClientUI.listener());
+                        client.setRequestedOptions(FTPClientUI.requestedOptions());
+                        client.setStreams(FTPClientUI.requestedStreams());
+                        client.setDelta(FTPClientUI.requestedDelta());
                         client.createSocket();
                         FTPClientUI.setClient(this.client);
                         FTPClientUI.connect();
@@ -156,24 +247,153 @@ public class TerminalEmulator {
                 e.printStackTrace();
             }
         }
+        printPrompt();
+    }
+
+    /**
+     * Requests hash of server's file and compares it with hash of local file of same name, if it exists. Local hash is calculated
+     * after response is received, in other thread.
+     *
+     * @param args Optional algorithm, file name, optional offset and length
+     */
+    private void hashFile(String[] args) {
+        int index = 0;
+        String algorithm = FileHash.SHA256;
+        if (args[0].equalsIgnoreCase("sha256") || args[0].equalsIgnoreCase("crc32c")) {
+            algorithm = args[0].equalsIgnoreCase("sha256") ? FileHash.SHA256 : FileHash.CRC32C;
+            index++;
+        }
+        if (index >= args.length) {
+            console.appendText("Type hash --help for usage.");
+            return;
+        }
+        String name = args[index];
+        try {
+            long offset = index + 1 < args.length ? Long.parseLong(args[index + 1]) : 0;
+            long length = index + 2 < args.length ? Long.parseLong(args[index + 2]) : 0;
+            String hashAlgorithm = algorithm;
+            client.hash(new File(treeItem.getValue().getAbsolutePath() + File.separator + name), algorithm, offset, length).thenAcceptAsync(response -> {
+                FTPClientUI.addToLog(name + ": " + response.getResponseMessage() + "\n");
+                File local = new File(name);
+                if (response.getResponseCode() == -1 || !local.isFile()) {
+                    return;
+                }
+                try {
+                    long size = response.getSegmentLength() > 0 ? response.getSegmentLength() : local.length() - offset;
+                    boolean same = Arrays.equals(response.getAdditionalData(), FileHash.hash(local, hashAlgorithm, offset, size, null));
+                    FTPClientUI.addToLog(name + (same ? " is same as local file\n" : " is different from local file\n"));
+                } catch (IOException e) {
+                    FTPClientUI.addToLog(name + " is different from local file (" + e.getMessage() + ")\n");
+                }
+            });
+        } catch (NumberFormatException e) {
+            console.appendText("Invalid offset or length. Type hash --help for usage.");
+        } catch (IOException e) {
+            console.appendText(e.getMessage());
+        }
+    }
+
+    private void logBatch(BatchResult result) {
+        result.getErrors().forEach((file, error) -> FTPClientUI.addToLog(file.getName() + ": " + error + "\n"));
+        FTPClientUI.addToLog("Batch done: " + result + "\n");
+    }
+
+    private void printPrompt() {
         console.appendText("\n" + (client == null ? System.getProperty("user.name") : client.getUsername()) + "@" + (client == null ? "localhost" : client.getHost()) + ":~" + pwd + "$ ");
         caretPosition = console.getCaretPosition();
     }
 
+    private boolean isLazy() {
+        return client != null && client.getOptions() != null && client.getOptions().isLazyTree();
+    }
+
+    /**
+     * Lists current folder from server. Options are {@code -S} (sort by size), {@code -t} (sort by modification time), {@code -r} (reverse order)
+     * and glob pattern for filtering files. {@code ls more} lists next page of previous listing.
+     *
+     * @param args Arguments of {@code ls} command
+     */
+    public void listFiles(String args) {
+        File directory = new File(treeItem.getValue().getAbsolutePath());
+        ListOptions options = new ListOptions();
+        if (args.equals("more")) {
+            if (nextPage == null) {
+                console.appendText("ls: no more files");
+                printPrompt();
+                return;
+            }
+            directory = nextDirectory;
+            options = nextPage;
+        } else {
+            boolean reverse = false;
+            for (String arg : args.split("\\s+")) {
+                if (arg.equals("-S")) {
+                    options.setSort(ListOptions.Sort.SIZE);
+                } else if (arg.equals("-t")) {
+                    options.setSort(ListOptions.Sort.MODIFIED);
+                } else if (arg.equals("-r")) {
+                    reverse = true;
+                } else if (!arg.isEmpty()) {
+                    options.setFilter(arg);
+                }
+            }
+            // largest and newest files are listed first, like in ls
+            options.setDescending(options.getSort() != ListOptions.Sort.NAME ^ reverse);
+        }
+        File listed = directory;
+        ListOptions request = options;
+        client.list(listed, request, page -> {
+            if (page == null) {
+                console.appendText("ls: cannot list " + listed.getName());
+            } else {
+                nextDirectory = listed;
+                nextPage = request.next(page);
+                console.appendText(formatFiles(page.getEntries()) + (page.isMore() ? "... more files, type 'ls more' for next page" : ""));
+            }
+            printPrompt();
+        });
+    }
+
+    /**
+     * Changes current folder to folder that is not loaded yet. Folder is found by listing current folder filtered by it's name.
+     *
+     * @param command    Entered command
+     * @param folderName Name of folder
+     */
+    private void changeDirectory(String command, String folderName) {
+        ListOptions options = new ListOptions();
+        options.setFilter(folderName.replaceAll("([*?\\[\\]{}\\\\])", "\\\\$1"));
+        options.setLimit(1);
+        client.list(new File(treeItem.getValue().getAbsolutePath()), options, page -> {
+            TreeItem<FTPFile> item = page == null || page.getEntries().isEmpty() ? null
+                    : client.getRemoteTree().find(page.getEntries().get(0).getAbsolutePath());
+            if (item != null && item.getValue().isDirectory()) {
+                treeItem = item;
+                pwd += "/" + folderName;
+            } else {
+                console.appendText(command + ": No such file or directory");
+            }
+            printPrompt();
+        });
+    }
+
     /**
      * Creates table with files listed with {@code ls} command.
+     *
+     * @param files Listed files
+     * @return Table
      */
-    public void listFiles() throws IOException {
+    public String formatFiles(List<FTPFile> files) {
         StringBuilder output = new StringBuilder();
-        for (TreeItem<FTPFile> item : treeItem.getChildren()) {
-            output.append(String.format("%-12s%-20s%-10s%-15s%-20s\n", posixFilePermissions(item.getValue()),
-                    item.getValue().getOwner().replace("(User)", "")
-                            .substring(item.getValue().getOwner().lastIndexOf("\\") + 1),
-                    (item.getValue().isDirectory() && item.getValue().length() == 0 ? "4096" : item.getValue().length()),
-                    (new SimpleDateFormat("MMM dd yyyy")).format(item.getValue().lastModified()),
-                    item.getValue().getName()));
+        for (FTPFile file : files) {
+            output.append(String.format("%-12s%-20s%-10s%-15s%-20s\n", posixFilePermissions(file),
+                    file.getOwner().replace("(User)", "")
+                            .substring(file.getOwner().lastIndexOf("\\") + 1),
+                    (file.isDirectory() && file.length() == 0 ? "4096" : file.length()),
+                    (new SimpleDateFormat("MMM dd yyyy")).format(file.lastModified()),
+                    file.getName()));
         }
-        console.appendText(output.toString());
+        return output.toString();
     }
 
     /**
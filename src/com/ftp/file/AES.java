@@ -10,26 +10,26 @@ import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Class is used for encrypting and decrypting bytes that needs to be sent. It uses AES 128bit encryption algorithm.
+ * It is used only while logging in, before session's {@link CryptoContext} is created. Key is created on every call,
+ * so sessions that log in at the same time don't share it.
  */
 public class AES {
 
-    private static SecretKeySpec secretKey;
-
     /**
-     * Setting key for encryption.
+     * Creates key for encryption.
      *
      * @param myKey Key as string that is needed for creating {@link SecretKeySpec}
+     * @return Created key
      */
-    public static void setKey(String myKey) {
-        MessageDigest sha;
+    static SecretKeySpec createKey(String myKey) {
         try {
             byte[] key = myKey.getBytes(StandardCharsets.UTF_8);
-            sha = MessageDigest.getInstance("SHA-1");
+            MessageDigest sha = MessageDigest.getInstance("SHA-1");
             key = sha.digest(key);
             key = Arrays.copyOf(key, 16);
-            secretKey = new SecretKeySpec(key, "AES");
+            return new SecretKeySpec(key, "AES");
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            throw new IllegalStateException(e);
         }
     }
 
@@ -42,9 +42,8 @@ public class AES {
      */
     public static byte[] encrypt(byte[] arr, String secret) {
         try {
-            setKey(secret);
             Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+            cipher.init(Cipher.ENCRYPT_MODE, createKey(secret));
             return cipher.doFinal(arr);
         } catch (Exception e) {
             System.out.println("Error while encrypting: " + e.toString());
@@ -61,9 +60,8 @@ public class AES {
      */
     public static byte[] decrypt(byte[] arr, String secret) {
         try {
-            setKey(secret);
             Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
+            cipher.init(Cipher.DECRYPT_MODE, createKey(secret));
             return cipher.doFinal(arr);
         } catch (Exception e) {
             System.out.println("Error while decrypting: " + e.toString());
@@ -0,0 +1,109 @@
+package com.ftp.file;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of buffers used by transfer loops of server and client. Chunks of file are read, encrypted, decrypted and written through
+ * buffers taken from pool and given back after they are written, so transfer doesn't allocate new arrays for every chunk and record.
+ * <p>
+ * Buffers are kept in size classes of power of two (from {@link #MIN_SIZE} to {@link #MAX_SIZE} bytes) plus {@link #SLACK} bytes,
+ * so frame with header and authentication tag fits in same class as it's chunk. Buffer of smallest class that fits requested size
+ * is returned. Free buffers are kept up to {@link #MAX_RETAINED} bytes in total, buffers given back above that are left to garbage
+ * collector, and bigger buffers than {@link #MAX_SIZE} are not pooled. Free buffers of class are kept in fixed array, so taking and
+ * giving buffer back doesn't allocate anything.
+ * <p>
+ * Buffers are in heap, not direct: cipher encrypts and decrypts arrays faster than native memory and without copying them to
+ * temporary arrays of it's own. Data is copied to native memory only once, by channel or by batch buffer of writer.
+ */
+public class BufferPool {
+    public static final int MIN_SIZE = 4 * 1024;
+    public static final int MAX_SIZE = 16 * 1024 * 1024;
+    public static final int SLACK = 64;
+    public static final long MAX_RETAINED = 64 * 1024 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int MAX_SHIFT = Integer.numberOfTrailingZeros(MAX_SIZE);
+    private static final int MAX_CLASS_BUFFERS = 256;
+    private static final SizeClass[] CLASSES = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+    private static final AtomicLong retained = new AtomicLong();
+
+    static {
+        for (int i = 0; i < CLASSES.length; i++) {
+            int size = (MIN_SIZE << i) + SLACK;
+            CLASSES[i] = new SizeClass(size, (int) Math.max(2, Math.min(MAX_CLASS_BUFFERS, MAX_RETAINED / size)));
+        }
+    }
+
+    /**
+     * Takes buffer from pool. Buffer is cleared and it's limit is set to requested size, but it's capacity can be bigger.
+     *
+     * @param size Number of bytes
+     * @return Buffer backed by array that starts at offset {@code 0}
+     */
+    public static ByteBuffer acquire(int size) {
+        if (size > MAX_SIZE + SLACK) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = CLASSES[classOf(size)].take();
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Gives buffer back to pool. Buffer must not be used after it is released, and it must not be released twice.
+     * Buffers that were not taken from pool are ignored.
+     *
+     * @param buffer Buffer taken with {@link #acquire(int)}, can be {@code null}
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasArray() || buffer.arrayOffset() != 0) {
+            return;
+        }
+        int size = buffer.capacity() - SLACK;
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+            return;
+        }
+        if (retained.addAndGet(buffer.capacity()) > MAX_RETAINED || !CLASSES[Integer.numberOfTrailingZeros(size) - MIN_SHIFT].give(buffer)) {
+            retained.addAndGet(-buffer.capacity());
+        }
+    }
+
+    private static int classOf(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size - SLACK, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+
+    /**
+     * Free buffers of one size.
+     */
+    private static class SizeClass {
+        private final int size;
+        private final ByteBuffer[] free;
+        private int count = 0;
+
+        SizeClass(int size, int maxBuffers) {
+            this.size = size;
+            this.free = new ByteBuffer[maxBuffers];
+        }
+
+        ByteBuffer take() {
+            synchronized (this) {
+                if (count > 0) {
+                    ByteBuffer buffer = free[--count];
+                    free[count] = null;
+                    retained.addAndGet(-size);
+                    return buffer;
+                }
+            }
+            return ByteBuffer.allocate(size);
+        }
+
+        synchronized boolean give(ByteBuffer buffer) {
+            if (count == free.length) {
+                return false;
+            }
+            free[count++] = buffer;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.ftp.file;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class compresses file chunks before they are encrypted, in sessions with negotiated compression (see
+ * {@link SessionOptions#isCompression()}). Every chunk is compressed separately with {@link Deflater}, so it can be decompressed as soon
+ * as it's record is received, and record starts with one byte that tells if chunk is compressed. Records have different lengths,
+ * every record is sent in it's own frame, so it's length is in frame header (see {@link FrameCodec}).
+ * <p>
+ * Chunk that doesn't get at least 1/16 smaller (archives, images...) is sent as it is. Compression of such chunk is stopped as soon as
+ * output reaches that size, and next chunks are sent without trying (1, 2, 4... up to {@link #MAX_SKIP} chunks), so files that
+ * cannot be compressed cost little CPU time. Compressor is created for every transferred file, so files that are transferred at the same
+ * time are compressed independently, and it's deflater and inflater are reset for every chunk and released with {@link #close()}.
+ * Sizes and CPU time of file are counted for log ({@link #sendReport()}, {@link #receiveReport()}).
+ */
+public class ChunkCompressor {
+    private static final int MAX_SKIP = 16;
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final byte[] single = new byte[1];
+    private final Stats sent = new Stats();
+    private final Stats received = new Stats();
+    private int skip = 0;
+    private int backoff = 0;
+
+    /**
+     * Sizes and CPU time of one direction.
+     */
+    private static class Stats {
+        long chunks;
+        long rawChunks;
+        long bytes;
+        long recordBytes;
+        long cpuTime;
+    }
+
+    /**
+     * Returns length of largest record for given chunk size (chunk that is sent without compression).
+     *
+     * @param chunkSize Chunk size
+     * @return Record length before encryption
+     */
+    public static int maxRecordLength(int chunkSize) {
+        return chunkSize + 1;
+    }
+
+    /**
+     * Compresses chunk to record that is encrypted and sent.
+     *
+     * @param chunk  Array with chunk
+     * @param offset Start offset
+     * @param length Length of chunk
+     * @param record Array for record, at least {@link #maxRecordLength(int)} bytes long
+     * @return Length of record
+     */
+    public int compress(byte[] chunk, int offset, int length, byte[] record) {
+        long start = cpuTime();
+        int recordLength = 0;
+        if (skip > 0) {
+            skip--;
+        } else {
+            int limit = length - (length >> 4);
+            deflater.setInput(chunk, offset, length);
+            deflater.finish();
+            int written = 0;
+            while (!deflater.finished() && written < limit) {
+                written += deflater.deflate(record, 1 + written, limit - written);
+            }
+            if (deflater.finished()) {
+                record[0] = DEFLATED;
+                recordLength = 1 + written;
+                backoff = 0;
+            } else {
+                backoff = Math.min(Math.max(1, backoff * 2), MAX_SKIP);
+                skip = backoff;
+            }
+            deflater.reset();
+        }
+        if (recordLength == 0) {
+            record[0] = RAW;
+            System.arraycopy(chunk, offset, record, 1, length);
+            recordLength = 1 + length;
+            sent.rawChunks++;
+        }
+        sent.chunks++;
+        sent.bytes += length;
+        sent.recordBytes += recordLength;
+        sent.cpuTime += cpuTime() - start;
+        return recordLength;
+    }
+
+    /**
+     * Decompresses received record.
+     *
+     * @param record Array with decrypted record
+     * @param offset Start offset
+     * @param length Length of record
+     * @param chunk  Array for chunk, chunk cannot be longer than array
+     * @return Length of chunk
+     * @throws IOException If record is not valid
+     */
+    public int decompress(byte[] record, int offset, int length, byte[] chunk) throws IOException {
+        long start = cpuTime();
+        if (length < 1) {
+            throw new IOException("Empty record");
+        }
+        int chunkLength;
+        if (record[offset] == RAW) {
+            chunkLength = length - 1;
+            if (chunkLength > chunk.length) {
+                throw new IOException("Chunk is bigger than " + chunk.length + " bytes");
+            }
+            System.arraycopy(record, offset + 1, chunk, 0, chunkLength);
+        } else if (record[offset] == DEFLATED) {
+            chunkLength = inflate(record, offset + 1, length - 1, chunk);
+        } else {
+            throw new IOException("Unknown chunk encoding: " + record[offset]);
+        }
+        received.chunks++;
+        if (record[offset] == RAW) {
+            received.rawChunks++;
+        }
+        received.bytes += chunkLength;
+        received.recordBytes += length;
+        received.cpuTime += cpuTime() - start;
+        return chunkLength;
+    }
+
+    private int inflate(byte[] data, int offset, int length, byte[] chunk) throws IOException {
+        inflater.setInput(data, offset, length);
+        try {
+            int read = 0;
+            while (!inflater.finished() && read < chunk.length) {
+                int num = inflater.inflate(chunk, read, chunk.length - read);
+                if (num == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed chunk is truncated");
+                }
+                read += num;
+            }
+            // inflater can notice end of data only after output is full, so one more byte is requested
+            if (!inflater.finished() && inflater.inflate(single) != 0 || !inflater.finished()) {
+                throw new IOException("Chunk is bigger than " + chunk.length + " bytes");
+            }
+            return read;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed chunk: " + e.getMessage(), e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Returns compression ratio and CPU time of last sent file.
+     *
+     * @return Report for log
+     */
+    public String sendReport() {
+        return "compressed " + sent.bytes + " to " + sent.recordBytes + " bytes (ratio " + ratio(sent) + "), "
+                + sent.rawChunks + " of " + sent.chunks + " chunks sent uncompressed, CPU " + sent.cpuTime / 1000000 + " ms";
+    }
+
+    /**
+     * Returns compression ratio and CPU time of last received file.
+     *
+     * @return Report for log
+     */
+    public String receiveReport() {
+        return "decompressed " + received.recordBytes + " to " + received.bytes + " bytes (ratio " + ratio(received) + "), "
+                + received.rawChunks + " of " + received.chunks + " chunks received uncompressed, CPU " + received.cpuTime / 1000000 + " ms";
+    }
+
+    /**
+     * Releases memory of deflater and inflater. Compressor cannot be used after that.
+     */
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+
+    private static String ratio(Stats stats) {
+        return stats.recordBytes == 0 ? "1.00" : String.format("%.2f", (double) stats.bytes / stats.recordBytes);
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
@@ -0,0 +1,244 @@
+package com.ftp.file;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * This class is used for encrypting and decrypting objects and files of one session. It is created once, after key is generated,
+ * and keeps key and initialized {@link Cipher} instances for the whole session. Each direction (sending and receiving) has it's own cipher,
+ * which starts as {@link #AES_ECB} and can be switched to {@link #AES_GCM} after it is negotiated (see {@link SessionOptions}).
+ * <p>
+ * In {@link #AES_GCM} mode every object and every file chunk is one authenticated record. Records are encrypted with key of the
+ * session, derived with HKDF-SHA256 from generated key and random bytes that client and server sent in their options
+ * ({@link #deriveSessionKey(byte[], byte[])}). Nonce of each record is direction (4 bytes) and record counter (8 bytes), so nonces
+ * are never sent, and pair of key and nonce is not reused, because counters start from 0 only with new key. Because of that records
+ * must be encrypted in the same order they are sent, and decrypted in the same order they are received.
+ */
+public class CryptoContext {
+    public static final String AES_ECB = "AES-ECB";
+    public static final String AES_GCM = "AES-GCM";
+    public static final int TAG_LENGTH = 16;
+    private static final int CLIENT_TO_SERVER = 1;
+    private static final int SERVER_TO_CLIENT = 2;
+
+    private static final byte[] SESSION_KEY_INFO = "ftp session aes-gcm".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] secret;
+    private final SecretKeySpec secretKey;
+    private volatile SecretKeySpec sessionKey;
+    private final Direction send;
+    private final Direction receive;
+
+    /**
+     * Creates context from key generated with Diffie Hellman algorithm.
+     *
+     * @param secret Generated key
+     * @param client {@code true} if context is used by client, {@code false} if it is used by server
+     */
+    public CryptoContext(String secret, boolean client) {
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.secretKey = AES.createKey(secret);
+        this.send = new Direction(client ? CLIENT_TO_SERVER : SERVER_TO_CLIENT, Cipher.ENCRYPT_MODE);
+        this.receive = new Direction(client ? SERVER_TO_CLIENT : CLIENT_TO_SERVER, Cipher.DECRYPT_MODE);
+    }
+
+    /**
+     * Derives key of {@link #AES_GCM} records from generated key and random bytes of both sides (see {@link SessionOptions#getRandom()}),
+     * using HKDF-SHA256 (RFC 5869). Random bytes are salt, so key is different in every session even if generated key is the same.
+     * Must be called before cipher is switched to {@link #AES_GCM}.
+     *
+     * @param clientRandom Random bytes sent by client, empty if client didn't send them
+     * @param serverRandom Random bytes sent by server
+     * @throws IOException If key cannot be derived
+     */
+    public void deriveSessionKey(byte[] clientRandom, byte[] serverRandom) throws IOException {
+        byte[] salt = new byte[clientRandom.length + serverRandom.length];
+        System.arraycopy(clientRandom, 0, salt, 0, clientRandom.length);
+        System.arraycopy(serverRandom, 0, salt, clientRandom.length, serverRandom.length);
+        try {
+            Mac hmac = Mac.getInstance("HmacSHA256");
+            hmac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            byte[] pseudoRandomKey = hmac.doFinal(secret);
+            hmac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+            hmac.update(SESSION_KEY_INFO);
+            hmac.update((byte) 1);
+            sessionKey = new SecretKeySpec(Arrays.copyOf(hmac.doFinal(), 16), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Session key cannot be derived: " + e, e);
+        }
+    }
+
+    /**
+     * Switches cipher used for sending. Must be called by thread that sends data, between two records.
+     *
+     * @param cipher {@link #AES_ECB} or {@link #AES_GCM}
+     */
+    public void setSendCipher(String cipher) {
+        send.setCipher(cipher);
+    }
+
+    /**
+     * Switches cipher used for receiving. Must be called by thread that receives data, between two records.
+     *
+     * @param cipher {@link #AES_ECB} or {@link #AES_GCM}
+     */
+    public void setReceiveCipher(String cipher) {
+        receive.setCipher(cipher);
+    }
+
+    /**
+     * Encrypts bytes as one record.
+     *
+     * @param arr    Array with bytes to be encrypted
+     * @param offset Start offset
+     * @param length Number of bytes
+     * @return Encrypted record
+     * @throws IOException If bytes cannot be encrypted
+     */
+    public byte[] seal(byte[] arr, int offset, int length) throws IOException {
+        return send.process(arr, offset, length);
+    }
+
+    /**
+     * Encrypts remaining bytes of buffer as one record and writes record to output buffer. Bytes are read directly from buffer,
+     * so it can be memory mapped file.
+     *
+     * @param data Bytes to be encrypted, buffer's position is moved to it's limit
+     * @param out  Buffer for record, with at least {@link #sealedLength(int)} bytes remaining
+     * @return Record length
+     * @throws IOException If bytes cannot be encrypted
+     */
+    public int seal(ByteBuffer data, ByteBuffer out) throws IOException {
+        return send.process(data, out);
+    }
+
+    /**
+     * Decrypts one record.
+     *
+     * @param arr    Array with record
+     * @param offset Start offset
+     * @param length Record length
+     * @return Decrypted bytes
+     * @throws IOException If record cannot be decrypted or it's authentication failed
+     */
+    public byte[] open(byte[] arr, int offset, int length) throws IOException {
+        return receive.process(arr, offset, length);
+    }
+
+    /**
+     * Decrypts remaining bytes of buffer as one record and writes decrypted bytes to output buffer, so record can be decrypted
+     * to pooled buffer without allocating array for every record.
+     *
+     * @param record Record, buffer's position is moved to it's limit
+     * @param out    Buffer for decrypted bytes, with at least as many bytes remaining as record has
+     * @return Number of decrypted bytes
+     * @throws IOException If record cannot be decrypted or it's authentication failed
+     */
+    public int open(ByteBuffer record, ByteBuffer out) throws IOException {
+        return receive.process(record, out);
+    }
+
+    /**
+     * Returns length of record that will be sent for given number of bytes.
+     *
+     * @param length Number of bytes before encryption
+     * @return Record length
+     */
+    public int sealedLength(int length) {
+        return send.sealedLength(length);
+    }
+
+    /**
+     * Returns length of record that will be received for given number of bytes.
+     *
+     * @param length Number of bytes before encryption
+     * @return Record length
+     */
+    public int openedRecordLength(int length) {
+        return receive.sealedLength(length);
+    }
+
+    /**
+     * One direction of the session, with it's own cipher and record counter.
+     */
+    private class Direction {
+        private final int direction;
+        private final int mode;
+        private String cipherName = AES_ECB;
+        private Cipher ecb;
+        private Cipher gcm;
+        private final byte[] nonce = new byte[12];
+        private final ByteBuffer nonceBuffer = ByteBuffer.wrap(nonce);
+        private long counter = 0;
+
+        Direction(int direction, int mode) {
+            this.direction = direction;
+            this.mode = mode;
+        }
+
+        void setCipher(String cipher) {
+            if (!AES_ECB.equals(cipher) && !AES_GCM.equals(cipher)) {
+                throw new IllegalArgumentException("Unsupported cipher: " + cipher);
+            }
+            this.cipherName = cipher;
+        }
+
+        int sealedLength(int length) {
+            return AES_GCM.equals(cipherName) ? length + TAG_LENGTH : (length / 16 + 1) * 16;
+        }
+
+        byte[] process(byte[] arr, int offset, int length) throws IOException {
+            try {
+                return cipher().doFinal(arr, offset, length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException((mode == Cipher.ENCRYPT_MODE ? "Encryption" : "Decryption") + " failed: " + e, e);
+            }
+        }
+
+        int process(ByteBuffer data, ByteBuffer out) throws IOException {
+            try {
+                if (data.hasArray() && out.hasArray()) {
+                    // cipher processes arrays faster than heap buffers, so arrays of pooled buffers are used directly
+                    int length = cipher().doFinal(data.array(), data.arrayOffset() + data.position(), data.remaining(),
+                            out.array(), out.arrayOffset() + out.position());
+                    data.position(data.limit());
+                    out.position(out.position() + length);
+                    return length;
+                }
+                return cipher().doFinal(data, out);
+            } catch (GeneralSecurityException e) {
+                throw new IOException((mode == Cipher.ENCRYPT_MODE ? "Encryption" : "Decryption") + " failed: " + e, e);
+            }
+        }
+
+        /**
+         * Returns cipher for next record, GCM cipher is initialized with nonce of next record.
+         */
+        private Cipher cipher() throws GeneralSecurityException {
+            if (AES_GCM.equals(cipherName)) {
+                if (gcm == null) {
+                    gcm = Cipher.getInstance("AES/GCM/NoPadding");
+                }
+                if (sessionKey == null) {
+                    throw new GeneralSecurityException("Session key is not derived");
+                }
+                nonceBuffer.clear();
+                nonceBuffer.putInt(direction).putLong(counter++);
+                gcm.init(mode, sessionKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+                return gcm;
+            }
+            if (ecb == null) {
+                ecb = Cipher.getInstance("AES/ECB/PKCS5Padding");
+                ecb.init(mode, secretKey);
+            }
+            return ecb;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.ftp.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains one page of folder listed with {@link FTPCommand#LIST}: listed folder and it's entries in requested order
+ * (see {@link ListOptions}). If there are more entries, page contains cursor (name and sort key of last entry) that is used for
+ * requesting next page.
+ * <p>
+ * Page is sent in additional data of {@link FTPTransferObject}: folder, flags, number of entries, entries (see {@link FTPFile#write}) and cursor.
+ */
+public class DirectoryPage {
+    private static final int MORE = 1;
+    private final FTPFile directory;
+    private final List<FTPFile> entries;
+    private final boolean more;
+    private final String nextName;
+    private final long nextKey;
+
+    public DirectoryPage(FTPFile directory, List<FTPFile> entries, boolean more, String nextName, long nextKey) {
+        this.directory = directory;
+        this.entries = entries;
+        this.more = more;
+        this.nextName = nextName;
+        this.nextKey = nextKey;
+    }
+
+    public FTPFile getDirectory() {
+        return directory;
+    }
+
+    public List<FTPFile> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Checks if there are entries after this page.
+     *
+     * @return {@code true} if there are more entries
+     */
+    public boolean isMore() {
+        return more;
+    }
+
+    public String getNextName() {
+        return nextName;
+    }
+
+    public long getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * Encodes page to bytes.
+     *
+     * @return Encoded page
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + entries.size() * 96);
+        directory.write(out);
+        out.write(more ? MORE : 0);
+        VarInt.write(out, entries.size());
+        for (FTPFile entry : entries) {
+            entry.write(out);
+        }
+        if (more) {
+            VarInt.writeString(out, nextName);
+            VarInt.writeSigned(out, nextKey);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes page from bytes.
+     *
+     * @param bytes Encoded page
+     * @return Decoded page
+     * @throws IOException If page is not valid
+     */
+    public static DirectoryPage decode(byte[] bytes) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        FTPFile directory = FTPFile.read(in);
+        if (!in.hasRemaining()) {
+            throw new IOException("Truncated directory page");
+        }
+        boolean more = (in.get() & MORE) != 0;
+        int count = VarInt.readInt(in);
+        List<FTPFile> entries = new ArrayList<>(Math.min(count, in.remaining()));
+        for (int i = 0; i < count; i++) {
+            entries.add(FTPFile.read(in));
+        }
+        String nextName = more ? VarInt.readString(in) : null;
+        long nextKey = more ? VarInt.readSigned(in) : 0;
+        return new DirectoryPage(directory, entries, more, nextName, nextKey);
+    }
+}
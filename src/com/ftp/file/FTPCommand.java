@@ -4,7 +4,8 @@ package com.ftp.file;
  * This enum contains basic FTP commands used to communicate between remote server and client. Commands {@link FTPCommand#SUCCESS}
  * and {@link FTPCommand#FAILURE} are only server's command and they are used as response on given command from client. Some commands
  * are excluded like OPEN because connection opens on connecting client to server and authenticating with server is done
- * immediately after connecting to it by default (on connecting credentials are sent automatically as ASCII code)
+ * immediately after connecting to it by default (on connecting credentials are sent automatically as ASCII code).
+ * Commands are sent as their position in this enum (see {@link FrameCodec}), so new commands must be added at the end.
  *
  * @author Stefan
  */
@@ -35,6 +36,12 @@ public enum FTPCommand {
      */
     TREE,
 
+    /**
+     * Negotiate session options (see {@link SessionOptions}). It is sent by client after logging in, and server responds
+     * with same command containing granted options
+     */
+    OPTS,
+
     /**
      * Server command. Given command was executed successfully
      */
@@ -48,5 +55,62 @@ public enum FTPCommand {
     /**
      * Closing connection between client and server
      */
-    CLOSE
+    CLOSE,
+
+    /**
+     * List one level of server's folder, one page at a time (see {@link ListOptions} and {@link DirectoryPage}). Server responds
+     * with same command
+     */
+    LIST,
+
+    /**
+     * Ask for offset from which upload of file can be continued (see {@link PartialFile}). Server responds with same command
+     * containing length of partial file and it's checksum
+     */
+    REST,
+
+    /**
+     * Get one file of batch. Requests are sent one after another without waiting for responses, server responds to each with same
+     * command, followed by file, or with error if file cannot be read
+     */
+    MGET,
+
+    /**
+     * Send one file of batch, files are sent one after another without waiting for responses. Server responds to each file with
+     * same command, and batch ends with this command without file, after which server stores all received files and responds
+     * once more
+     */
+    MPUT,
+
+    /**
+     * Give server credit for sending more file data of one download (see {@link FrameCodec#STREAM_WINDOW}). Request id is id of
+     * download and offset is number of bytes that client has written. Server doesn't respond to it
+     */
+    WINDOW,
+
+    /**
+     * Ask for signature of server's file before delta upload (see {@link FileDelta}). Server responds with same command containing
+     * signature, or with error if there is no such file
+     */
+    SIGN,
+
+    /**
+     * Send delta of changed file instead of whole file (see {@link FileDelta}). Delta is sent as file of request, checksum is CRC32C
+     * of new file. Server rebuilds file and responds with {@link #SUCCESS}, or with {@link #FAILURE} if rebuilt file is not same
+     */
+    DELTA,
+
+    /**
+     * Announce SHA-256 of file before upload (see {@link FileHash}), offset is size of file. If server stores files by content and
+     * already has file with same content, it creates file from it and responds with {@link #SUCCESS}, so file is not uploaded.
+     * Otherwise server responds with same command and error, and client uploads file
+     */
+    LINK,
+
+    /**
+     * Ask for hash of server's file, so transferred file can be checked without downloading it again (see {@link FileHash}).
+     * Additional data is algorithm name ({@link FileHash#SHA256} if it is empty), offset and segment length are range of file
+     * (whole file if length is {@code 0}). Server responds with same command containing hash bytes
+     */
+    HASH
 }
@@ -1,8 +1,10 @@
 package com.ftp.file;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -11,6 +13,11 @@ import java.nio.file.Path;
  * because Java's {@link File} doesn't keep field values after deserializing.
  */
 public class FTPFile implements Serializable {
+    private static final int DIRECTORY = 1;
+    private static final int CAN_READ = 1 << 1;
+    private static final int CAN_WRITE = 1 << 2;
+    private static final int CAN_EXECUTE = 1 << 3;
+    private static final int SYM_LINK = 1 << 4;
 
     public File file;
     public String absolutePath;
@@ -62,6 +69,53 @@ public class FTPFile implements Serializable {
         }
     }
 
+    FTPFile() {
+    }
+
+    /**
+     * Writes file properties (see {@link VarInt}). Properties are written as they are, file is not read again.
+     *
+     * @param out Output
+     */
+    public void write(ByteArrayOutputStream out) {
+        VarInt.writeString(out, absolutePath);
+        VarInt.writeString(out, path);
+        VarInt.writeString(out, name);
+        out.write((directory ? DIRECTORY : 0) | (canRead ? CAN_READ : 0) | (canWrite ? CAN_WRITE : 0)
+                | (canExecute ? CAN_EXECUTE : 0) | (symLink ? SYM_LINK : 0));
+        VarInt.write(out, Math.max(0, length));
+        VarInt.write(out, Math.max(0, lastModified));
+        VarInt.writeString(out, owner == null ? "" : owner);
+    }
+
+    /**
+     * Reads file properties written with {@link #write(ByteArrayOutputStream)}. File is not accessed, because it is usually on other side.
+     *
+     * @param in Input
+     * @return Read file
+     * @throws IOException If properties are not valid
+     */
+    public static FTPFile read(ByteBuffer in) throws IOException {
+        FTPFile file = new FTPFile();
+        file.absolutePath = VarInt.readString(in);
+        file.path = VarInt.readString(in);
+        file.name = VarInt.readString(in);
+        if (!in.hasRemaining()) {
+            throw new IOException("Truncated file properties");
+        }
+        int flags = in.get() & 0xFF;
+        file.directory = (flags & DIRECTORY) != 0;
+        file.canRead = (flags & CAN_READ) != 0;
+        file.canWrite = (flags & CAN_WRITE) != 0;
+        file.canExecute = (flags & CAN_EXECUTE) != 0;
+        file.symLink = (flags & SYM_LINK) != 0;
+        file.length = VarInt.read(in);
+        file.lastModified = VarInt.read(in);
+        file.owner = VarInt.readString(in);
+        file.file = new File(file.path);
+        return file;
+    }
+
     public String getAbsolutePath() {
         return absolutePath;
     }
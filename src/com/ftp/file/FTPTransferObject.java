@@ -18,6 +18,12 @@ public class FTPTransferObject implements Serializable {
     private final Integer responseCode;
     private final String responseMessage;
     private long fileSize;
+    private int chunkSize;
+    private long treeVersion;
+    private long offset;
+    private long checksum;
+    private long segmentLength;
+    private int requestId;
     private String name;
     private File pathClient;
     private File pathServer;
@@ -48,6 +54,88 @@ public class FTPTransferObject implements Serializable {
         this.fileSize = fileSize;
     }
 
+    /**
+     * Returns size of chunks in which file is sent. In {@link FTPCommand#GET} request it is chunk size that client wants to receive.
+     *
+     * @return Chunk size in bytes, or {@code 0} if default chunk size of session is used
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns version of server's directory tree that client has (see {@link RemoteTree}). Server sends changes since that version.
+     *
+     * @return Tree version, {@code 0} if client has no tree
+     */
+    public long getTreeVersion() {
+        return treeVersion;
+    }
+
+    public void setTreeVersion(long treeVersion) {
+        this.treeVersion = treeVersion;
+    }
+
+    /**
+     * Returns offset from which file is sent, for continuing interrupted transfer (see {@link PartialFile}). In {@link FTPCommand#GET}
+     * request it is length of client's partial file, and in response offset that server accepted ({@code 0} if whole file is sent).
+     * File size is always size of whole file.
+     *
+     * @return Offset in bytes
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * Returns CRC32C of file bytes before {@link #getOffset()}, so other side can check that it has same beginning of file.
+     *
+     * @return Checksum, {@code 0} if offset is {@code 0}
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * Returns length of segment when file is transferred in segments over several sessions (see {@link PartialFile#openSegment(File, long, long)}).
+     * Segment starts at {@link #getOffset()}, it is written to partial file at that position and partial file is not renamed after it.
+     *
+     * @return Length of segment in bytes, {@code 0} if file is sent from offset to it's end
+     */
+    public long getSegmentLength() {
+        return segmentLength;
+    }
+
+    public void setSegmentLength(long segmentLength) {
+        this.segmentLength = segmentLength;
+    }
+
+    /**
+     * Returns id of request, chosen by client. Server sends same id in response to request, and file data of response is sent in frames
+     * of stream with that id (see {@link FrameCodec}), so client can match responses with requests and many requests can be executed at once.
+     *
+     * @return Request id, {@code 0} for objects that are not response to any request (for example login response)
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(int requestId) {
+        this.requestId = requestId;
+    }
+
     public String getName() {
         return name;
     }
@@ -0,0 +1,458 @@
+package com.ftp.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * This class contains static methods for delta upload of changed file (same idea as rsync). Server sends {@link Signature} of it's
+ * copy of file with {@link FTPCommand#SIGN}: file is split in blocks, and every block has weak rolling checksum and strong hash (MD5).
+ * Client moves window of block size over it's file byte by byte, and where rolling checksum and then hash of window are same as
+ * of some server's block, it sends only reference to that block. Other bytes are sent as literal data. Delta is uploaded as file of
+ * {@link FTPCommand#DELTA}, server rebuilds file from it's old copy and delta in partial file (see {@link PartialFile}) and replaces
+ * old file only if CRC32C of rebuilt file is same as client's.
+ * <p>
+ * Delta contains header (block size, length of server's file and length of new file) and instructions: copy of consecutive blocks
+ * (first block and number of blocks) or literal data (length and bytes).
+ */
+public class FileDelta {
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+    private static final int STRONG_LENGTH = 16;
+    private static final int COPY = 0;
+    private static final int LITERAL = 1;
+    private static final int LITERAL_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Blocks of server's file. Last part of file that is shorter than block is not in signature, it is always sent as literal data.
+     */
+    public static class Signature {
+        private final int blockSize;
+        private final long length;
+        private final int[] weak;
+        private final byte[] strong;
+
+        public Signature(int blockSize, long length, int[] weak, byte[] strong) {
+            this.blockSize = blockSize;
+            this.length = length;
+            this.weak = weak;
+            this.strong = strong;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getBlocks() {
+            return weak.length;
+        }
+
+        /**
+         * Encodes signature to bytes: block size and file length as variable length integers, and after that rolling checksum
+         * (4 bytes) and hash (16 bytes) of every block.
+         *
+         * @return Encoded signature
+         */
+        public byte[] encode() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 + weak.length * (4 + STRONG_LENGTH));
+            VarInt.write(out, blockSize);
+            VarInt.write(out, length);
+            ByteBuffer block = ByteBuffer.allocate(4 + STRONG_LENGTH);
+            for (int i = 0; i < weak.length; i++) {
+                block.clear();
+                block.putInt(weak[i]).put(strong, i * STRONG_LENGTH, STRONG_LENGTH);
+                out.write(block.array(), 0, block.capacity());
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * Decodes signature from bytes.
+         *
+         * @param bytes Encoded signature
+         * @return Signature
+         * @throws IOException If signature is not valid
+         */
+        public static Signature decode(byte[] bytes) throws IOException {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            int blockSize = VarInt.readInt(in);
+            long length = VarInt.read(in);
+            if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || length / blockSize != in.remaining() / (4 + STRONG_LENGTH)
+                    || in.remaining() % (4 + STRONG_LENGTH) != 0) {
+                throw new IOException("Invalid signature of " + bytes.length + " bytes");
+            }
+            int blocks = (int) (length / blockSize);
+            int[] weak = new int[blocks];
+            byte[] strong = new byte[blocks * STRONG_LENGTH];
+            for (int i = 0; i < blocks; i++) {
+                weak[i] = in.getInt();
+                in.get(strong, i * STRONG_LENGTH, STRONG_LENGTH);
+            }
+            return new Signature(blockSize, length, weak, strong);
+        }
+    }
+
+    /**
+     * Result of writing delta.
+     */
+    public static class Delta {
+        private final long literalBytes;
+        private final long checksum;
+
+        Delta(long literalBytes, long checksum) {
+            this.literalBytes = literalBytes;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Returns number of file bytes that are not found in server's file.
+         *
+         * @return Length of all literal data
+         */
+        public long getLiteralBytes() {
+            return literalBytes;
+        }
+
+        /**
+         * Returns CRC32C of whole new file (see {@link PartialFile#checksum(File, long)}).
+         *
+         * @return Checksum
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * Chooses block size for file, square root of file length (rounded to 1K), so number of blocks and block size grow together.
+     *
+     * @param length File length
+     * @return Block size
+     */
+    public static int blockSize(long length) {
+        long size = (long) Math.sqrt((double) length) & ~1023L;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * Calculates signature of file, file is read once.
+     *
+     * @param file File
+     * @return Signature of all whole blocks
+     * @throws IOException If file cannot be read
+     */
+    public static Signature sign(File file) throws IOException {
+        long length = file.length();
+        int blockSize = blockSize(length);
+        int blocks = (int) (length / blockSize);
+        int[] weak = new int[blocks];
+        byte[] strong = new byte[blocks * STRONG_LENGTH];
+        MessageDigest md5 = md5();
+        byte[] block = new byte[blockSize];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            for (int i = 0; i < blocks; i++) {
+                if (in.readNBytes(block, 0, blockSize) != blockSize) {
+                    throw new EOFException(file + " was truncated while reading");
+                }
+                weak[i] = weak(block, 0, blockSize);
+                md5.update(block, 0, blockSize);
+                System.arraycopy(md5.digest(), 0, strong, i * STRONG_LENGTH, STRONG_LENGTH);
+            }
+        }
+        return new Signature(blockSize, length, weak, strong);
+    }
+
+    /**
+     * Writes delta of file against server's signature. Writing stops if literal data is longer than given limit, because then
+     * it is cheaper to send whole file.
+     *
+     * @param file         Client's file
+     * @param signature    Signature of server's file
+     * @param out          Output for delta
+     * @param maxLiteral   Maximum length of literal data
+     * @return Result with length of literal data and checksum of file, or {@code null} if literal data is longer than limit
+     * @throws IOException If file cannot be read or delta cannot be written
+     */
+    public static Delta write(File file, Signature signature, OutputStream out, long maxLiteral) throws IOException {
+        int blockSize = signature.blockSize;
+        Map<Integer, Integer> blocks = new HashMap<>(signature.getBlocks() * 2);
+        int[] next = new int[signature.getBlocks()];
+        // one bit for every 16-bit tag of rolling checksum, most windows without match are rejected without map lookup
+        long[] tags = new long[1 << 10];
+        for (int i = signature.getBlocks() - 1; i >= 0; i--) {
+            Integer first = blocks.put(signature.weak[i], i);
+            next[i] = first == null ? -1 : first;
+            int tag = tag(signature.weak[i]);
+            tags[tag >>> 6] |= 1L << tag;
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(blockSize);
+        data.writeLong(signature.length);
+        data.writeLong(file.length());
+        MessageDigest md5 = md5();
+        CRC32C crc = new CRC32C();
+        byte[] window = new byte[Math.max(BUFFER_SIZE, 4 * blockSize)];
+        byte[] literal = new byte[LITERAL_SIZE];
+        int literalLength = 0;
+        long literalBytes = 0;
+        int copyStart = -1;
+        int copyCount = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int start = 0;
+            int end = 0;
+            boolean eof = false;
+            boolean rolling = false;
+            int a = 0;
+            int b = 0;
+            while (true) {
+                if (end - start < blockSize && !eof) {
+                    // window doesn't fit in buffer, remaining bytes are moved to start of buffer
+                    System.arraycopy(window, start, window, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int num = in.readNBytes(window, end, window.length - end);
+                    eof = end + num < window.length;
+                    end += num;
+                }
+                if (end - start < blockSize || signature.getBlocks() == 0) {
+                    break;
+                }
+                if (!rolling) {
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        a += window[start + i] & 0xFF;
+                        b += (blockSize - i) * (window[start + i] & 0xFF);
+                    }
+                    rolling = true;
+                }
+                int weak = (b << 16) | (a & 0xFFFF);
+                int tag = tag(weak);
+                int match = (tags[tag >>> 6] & (1L << tag)) == 0 ? -1
+                        : find(signature, blocks, next, weak, window, start, md5, copyStart < 0 ? -1 : copyStart + copyCount);
+                if (match >= 0) {
+                    if (literalLength > 0) {
+                        writeLiteral(data, literal, literalLength);
+                        literalLength = 0;
+                    }
+                    if (copyStart >= 0 && match == copyStart + copyCount) {
+                        copyCount++;
+                    } else {
+                        writeCopy(data, copyStart, copyCount);
+                        copyStart = match;
+                        copyCount = 1;
+                    }
+                    crc.update(window, start, blockSize);
+                    start += blockSize;
+                    rolling = false;
+                    continue;
+                }
+                writeCopy(data, copyStart, copyCount);
+                copyStart = -1;
+                copyCount = 0;
+                int out0 = window[start] & 0xFF;
+                literal[literalLength++] = window[start];
+                crc.update(out0);
+                if (++literalBytes > maxLiteral) {
+                    return null;
+                }
+                if (literalLength == literal.length) {
+                    writeLiteral(data, literal, literalLength);
+                    literalLength = 0;
+                }
+                start++;
+                if (end - start >= blockSize) {
+                    int in0 = window[start + blockSize - 1] & 0xFF;
+                    a = (a - out0 + in0) & 0xFFFF;
+                    b = (b - blockSize * out0 + a) & 0xFFFF;
+                } else {
+                    rolling = false;
+                }
+            }
+            writeCopy(data, copyStart, copyCount);
+            // last bytes (shorter than block) are always literal
+            while (start < end || !eof) {
+                if (start == end) {
+                    start = 0;
+                    end = in.readNBytes(window, 0, window.length);
+                    eof = end < window.length;
+                    continue;
+                }
+                int num = Math.min(end - start, literal.length - literalLength);
+                System.arraycopy(window, start, literal, literalLength, num);
+                crc.update(window, start, num);
+                literalLength += num;
+                literalBytes += num;
+                start += num;
+                if (literalBytes > maxLiteral) {
+                    return null;
+                }
+                if (literalLength == literal.length) {
+                    writeLiteral(data, literal, literalLength);
+                    literalLength = 0;
+                }
+            }
+        }
+        if (literalLength > 0) {
+            writeLiteral(data, literal, literalLength);
+        }
+        data.flush();
+        return new Delta(literalBytes, crc.getValue());
+    }
+
+    /**
+     * Rebuilds new file from old file and delta. Delta is checked while reading, so invalid delta cannot read outside of old file or
+     * write more bytes than new file has.
+     *
+     * @param basis Old file, same that was signed
+     * @param delta Delta written by {@link #write(File, Signature, OutputStream, long)}
+     * @param out   Channel of new file
+     * @return CRC32C of new file
+     * @throws IOException If delta is not valid, old file was changed after signing or files cannot be read or written
+     */
+    public static long apply(File basis, InputStream delta, FileChannel out) throws IOException {
+        DataInputStream in = new DataInputStream(delta);
+        int blockSize = in.readInt();
+        long basisLength = in.readLong();
+        long length = in.readLong();
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || length < 0) {
+            throw new IOException("Invalid delta header");
+        }
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[Math.max(LITERAL_SIZE, blockSize)];
+        long written = 0;
+        try (FileChannel old = FileChannel.open(basis.toPath(), StandardOpenOption.READ)) {
+            if (old.size() != basisLength) {
+                throw new IOException(basis.getName() + " was changed after signing");
+            }
+            long blocks = basisLength / blockSize;
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type == COPY) {
+                    long first = in.readInt() & 0xFFFFFFFFL;
+                    long count = in.readInt() & 0xFFFFFFFFL;
+                    if (count == 0 || first + count > blocks || written + count * blockSize > length) {
+                        throw new IOException("Invalid copy of " + count + " blocks from block " + first);
+                    }
+                    long position = first * blockSize;
+                    long copyEnd = position + count * blockSize;
+                    while (position < copyEnd) {
+                        ByteBuffer part = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, copyEnd - position));
+                        while (part.hasRemaining()) {
+                            if (old.read(part, position + part.position()) == -1) {
+                                throw new EOFException(basis.getName() + " was truncated while rebuilding");
+                            }
+                        }
+                        crc.update(buffer, 0, part.limit());
+                        out.write(part.flip());
+                        position += part.limit();
+                    }
+                    written += count * blockSize;
+                } else if (type == LITERAL) {
+                    int num = in.readInt();
+                    if (num <= 0 || num > LITERAL_SIZE || written + num > length) {
+                        throw new IOException("Invalid literal of " + num + " bytes");
+                    }
+                    in.readFully(buffer, 0, num);
+                    crc.update(buffer, 0, num);
+                    out.write(ByteBuffer.wrap(buffer, 0, num));
+                    written += num;
+                } else {
+                    throw new IOException("Invalid delta instruction: " + type);
+                }
+            }
+        }
+        if (written != length) {
+            throw new EOFException("Delta has " + written + " of " + length + " bytes");
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Finds server's block with same rolling checksum and hash as window. Block after last copied block is checked first, so
+     * unchanged parts of file are sent as one copy.
+     */
+    private static int find(Signature signature, Map<Integer, Integer> blocks, int[] next, int weak, byte[] window, int start,
+                            MessageDigest md5, int expected) {
+        Integer first = blocks.get(weak);
+        if (first == null) {
+            return -1;
+        }
+        md5.update(window, start, signature.blockSize);
+        byte[] hash = md5.digest();
+        if (expected >= 0 && expected < signature.getBlocks() && signature.weak[expected] == weak && sameHash(signature, expected, hash)) {
+            return expected;
+        }
+        for (int i = first; i >= 0; i = next[i]) {
+            if (sameHash(signature, i, hash)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameHash(Signature signature, int block, byte[] hash) {
+        return Arrays.equals(signature.strong, block * STRONG_LENGTH, (block + 1) * STRONG_LENGTH, hash, 0, STRONG_LENGTH);
+    }
+
+    /**
+     * Calculates rolling checksum of block: sum of bytes in lower 16 bits, and sum of bytes weighted by their distance from end of
+     * block in upper 16 bits. Both can be updated when window moves by one byte, without reading whole window again.
+     */
+    private static int weak(byte[] block, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            a += block[offset + i] & 0xFF;
+            b += (length - i) * (block[offset + i] & 0xFF);
+        }
+        return (b << 16) | (a & 0xFFFF);
+    }
+
+    private static int tag(int weak) {
+        return (weak ^ (weak >>> 16)) & 0xFFFF;
+    }
+
+    private static void writeCopy(DataOutputStream out, int first, int count) throws IOException {
+        if (count > 0) {
+            out.write(COPY);
+            out.writeInt(first);
+            out.writeInt(count);
+        }
+    }
+
+    private static void writeLiteral(DataOutputStream out, byte[] literal, int length) throws IOException {
+        out.write(LITERAL);
+        out.writeInt(length);
+        out.write(literal, 0, length);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
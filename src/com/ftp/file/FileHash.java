@@ -0,0 +1,218 @@
+package com.ftp.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * This class contains static methods for content hash of file. Hash is used by both sides: client announces hash of file before upload
+ * with {@link FTPCommand#LINK}, server stores files by their hash when deduplication is enabled, and client can check transferred file
+ * by asking server for hash of it's file ({@link FTPCommand#HASH}) instead of downloading it again.
+ * <p>
+ * File is read through memory mapped windows of {@link #MAP_WINDOW} bytes, so bytes are hashed directly from page cache without
+ * copying them to Java heap. SHA-256 has to be calculated from the beginning to the end, but CRC32C of big range is calculated in
+ * parallel segments whose checksums are combined to checksum of whole range.
+ */
+public class FileHash {
+    public static final String SHA256 = "SHA-256";
+    public static final String CRC32C = "CRC32C";
+    public static final int SHA256_LENGTH = 32;
+    public static final int CRC32C_LENGTH = 4;
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+    private static final long SEGMENT_MIN_SIZE = 32 * 1024 * 1024;
+    private static final int CRC32C_POLYNOMIAL = 0x82F63B78;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Calculates SHA-256 of whole file.
+     *
+     * @param file File
+     * @return Hash of {@link #SHA256_LENGTH} bytes
+     * @throws IOException If file cannot be read
+     */
+    public static byte[] sha256(File file) throws IOException {
+        return hash(file, SHA256, 0, file.length(), null);
+    }
+
+    /**
+     * Checks if hash algorithm can be requested with {@link FTPCommand#HASH}.
+     *
+     * @param algorithm Algorithm name
+     * @return {@code true} for {@link #SHA256} and {@link #CRC32C}
+     */
+    public static boolean isSupported(String algorithm) {
+        return SHA256.equals(algorithm) || CRC32C.equals(algorithm);
+    }
+
+    /**
+     * Calculates hash of range of file. CRC32C is returned as 4 bytes in big endian order.
+     *
+     * @param file      File
+     * @param algorithm {@link #SHA256} or {@link #CRC32C}
+     * @param offset    Start of range
+     * @param length    Length of range
+     * @param executor  Executor for parallel segments of CRC32C, {@code null} if whole range is hashed in calling thread
+     * @return Hash bytes
+     * @throws IOException If file cannot be read, range is outside of file or algorithm is not supported
+     */
+    public static byte[] hash(File file, String algorithm, long offset, long length, Executor executor) throws IOException {
+        if (!isSupported(algorithm)) {
+            throw new IOException("Unsupported hash algorithm: " + algorithm);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (offset < 0 || length < 0 || offset > channel.size() || length > channel.size() - offset) {
+                throw new IOException("Range " + offset + "+" + length + " is outside of file of " + channel.size() + " bytes");
+            }
+            if (SHA256.equals(algorithm)) {
+                MessageDigest digest = sha256();
+                map(channel, offset, length, digest::update);
+                return digest.digest();
+            }
+            int crc = executor == null || length < 2 * SEGMENT_MIN_SIZE ? crc32c(channel, offset, length) : crc32c(channel, offset, length, executor);
+            return ByteBuffer.allocate(CRC32C_LENGTH).putInt(crc).array();
+        }
+    }
+
+    private static int crc32c(FileChannel channel, long offset, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        map(channel, offset, length, crc::update);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Calculates CRC32C of segments in parallel and combines them in order.
+     */
+    private static int crc32c(FileChannel channel, long offset, long length, Executor executor) throws IOException {
+        int segments = (int) Math.min(Runtime.getRuntime().availableProcessors(), length / SEGMENT_MIN_SIZE);
+        long segmentLength = (length + segments - 1) / segments;
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (long start = offset; start < offset + length; start += segmentLength) {
+            long from = start;
+            long size = Math.min(segmentLength, offset + length - start);
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return crc32c(channel, from, size);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        int crc = 0;
+        long remaining = length;
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                long size = Math.min(segmentLength, remaining);
+                crc = i == 0 ? results.get(i).get() : combine(crc, results.get(i).get(), size);
+                remaining -= size;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Hashing was interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        return crc;
+    }
+
+    /**
+     * Maps range of file window by window and passes every window to consumer. Windows are unmapped by garbage collector.
+     */
+    private static void map(FileChannel channel, long offset, long length, Consumer<ByteBuffer> consumer) throws IOException {
+        for (long position = offset; position < offset + length; position += MAP_WINDOW) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, offset + length - position));
+            consumer.accept(window);
+        }
+    }
+
+    /**
+     * Combines CRC32C of two consecutive ranges to CRC32C of both ranges (same method as {@code crc32_combine} of zlib): CRC of
+     * first range is shifted over length of second range with powers of CRC polynomial matrix.
+     *
+     * @param crc1    CRC32C of first range
+     * @param crc2    CRC32C of second range
+     * @param length2 Length of second range
+     * @return CRC32C of both ranges
+     */
+    public static int combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        int[] even = new int[32];
+        int[] odd = new int[32];
+        odd[0] = CRC32C_POLYNOMIAL;
+        for (int n = 1, row = 1; n < 32; n++, row <<= 1) {
+            odd[n] = row;
+        }
+        // operators for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * Converts hash to lowercase hexadecimal string.
+     *
+     * @param hash Hash bytes
+     * @return Hexadecimal string
+     */
+    public static String toHex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,52 +1,333 @@
 package com.ftp.file;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import javafx.scene.control.TreeItem;
 
 /**
  * This class provides tree representation of remote repository folders and files
+ * <p>
+ * Tree is created once and kept in memory. It is updated incrementally by server after it changes files ({@link #update(File)},
+ * {@link #remove(File)}) and by changes reported by {@link WatchService} after {@link #watch()} is called, so tree is not scanned again
+ * for every reply. If watch service loses events (overflow), whole tree is scanned again. Every item is indexed by it's path,
+ * and all methods are synchronized because tree is changed by client sessions and watching thread.
+ * <p>
+ * Every change increases version of tree and is kept in log of last {@link #MAX_CHANGES} changes, so clients get only changes since
+ * version they have ({@link #since(long)}). Client with older version, or version from before rescan, gets whole tree.
  *
  * @author Stefan
  */
 public class FolderTreeView {
+    public static final int MAX_CHANGES = 10000;
     private final FTPFile rootFolder;
+    private final Path rootPath;
+    private final Map<Path, TreeItem<FTPFile>> items = new HashMap<>();
+    private final Map<WatchKey, Path> watchKeys = new HashMap<>();
+    private final TreeScanner scanner = new TreeScanner();
+    private WatchService watchService;
+    private byte[] serialized;
+    private final ArrayDeque<TreeChange> changes = new ArrayDeque<>();
+    private long version = 0;
+    private long oldestVersion = 0;
+    private boolean recording = false;
     TreeItem<FTPFile> treeItem;
 
     public FolderTreeView(FTPFile path) {
         this.rootFolder = path;
-        treeItem = new TreeItem<>(rootFolder);
-        createTree(treeItem);
+        this.rootPath = Paths.get(path.getAbsolutePath()).normalize();
+        rescan();
     }
 
     /**
-     * Method creates tree from given root folder recursively
+     * Method creates tree from given root folder recursively. Folders are scanned in parallel (see {@link TreeScanner}),
+     * and scanned items are indexed after that.
      *
      * @param rootItem Root folder
      */
     public void createTree(TreeItem<FTPFile> rootItem) {
-        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(Paths.get(rootItem.getValue().getAbsolutePath()))) {
-            for (Path path : directoryStream) {
-                TreeItem<FTPFile> newItem = new TreeItem<>(new FTPFile(path.toFile()));
-                newItem.setExpanded(false);
-                rootItem.getChildren().add(newItem);
-                if (Files.isDirectory(path)) {
-                    createTree(newItem);
-                }
+        scanner.scan(rootItem);
+        index(rootItem);
+    }
+
+    private void index(TreeItem<FTPFile> folder) {
+        for (TreeItem<FTPFile> item : folder.getChildren()) {
+            Path path = item.getValue().toPath();
+            items.put(path, item);
+            record(TreeChange.Type.ADD, item);
+            if (item.getValue().isDirectory()) {
+                register(path);
+                index(item);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
-    public TreeItem<FTPFile> getTreeItem() {
+    /**
+     * Returns tree that is kept in memory. Returned tree is changed when files change, so it should be used only while holding
+     * lock of this object (use {@link #serialize()} for sending it).
+     *
+     * @return Root of the tree
+     */
+    public synchronized TreeItem<FTPFile> getTreeItem() {
+        return treeItem;
+    }
+
+    /**
+     * Encodes tree (see {@link TreeCodec}). Encoded tree is cached until next change.
+     *
+     * @return Encoded tree
+     */
+    public synchronized byte[] serialize() {
+        if (serialized == null) {
+            serialized = TreeCodec.encode(treeItem);
+        }
+        return serialized;
+    }
+
+    /**
+     * Returns path of root folder.
+     *
+     * @return Absolute normalized path
+     */
+    public Path getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * Returns current version of tree.
+     *
+     * @return Version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns changes since given version, or whole tree if changes are not in log anymore.
+     *
+     * @param clientVersion Version of tree that client has ({@code 0} if it has no tree)
+     * @return Delta that brings client to current version
+     */
+    public synchronized TreeDelta since(long clientVersion) {
+        if (clientVersion < oldestVersion || clientVersion > version) {
+            return TreeDelta.snapshot(version, serialize());
+        }
+        List<TreeChange> list = new ArrayList<>((int) (version - clientVersion));
+        for (Iterator<TreeChange> it = changes.descendingIterator(); it.hasNext(); ) {
+            TreeChange change = it.next();
+            if (change.getVersion() <= clientVersion) {
+                break;
+            }
+            list.add(change);
+        }
+        Collections.reverse(list);
+        return TreeDelta.changes(version, list);
+    }
+
+    /**
+     * Starts watching of root folder and all it's subfolders in new daemon thread. If watch service is not available tree is
+     * changed only by server operations.
+     */
+    public synchronized void watch() {
+        if (watchService != null) {
+            return;
+        }
+        try {
+            watchService = rootPath.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Watching of " + rootPath + " is not available: " + e.getMessage());
+            return;
+        }
+        for (Map.Entry<Path, TreeItem<FTPFile>> entry : items.entrySet()) {
+            if (entry.getValue().getValue().isDirectory()) {
+                register(entry.getKey());
+            }
+        }
+        Thread watcher = new Thread(this::processEvents, "FolderTreeWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Adds file (or folder with it's content) to tree, or refreshes it's properties if it is already in tree.
+     * Files outside of root folder are ignored.
+     *
+     * @param file File that was created or changed
+     */
+    public synchronized void update(File file) {
+        update(file.toPath().toAbsolutePath().normalize());
+    }
+
+    /**
+     * Removes file (or folder with it's content) from tree.
+     *
+     * @param file File that was deleted
+     */
+    public synchronized void remove(File file) {
+        remove(file.toPath().toAbsolutePath().normalize());
+    }
+
+    /**
+     * Creates whole tree again from root folder.
+     */
+    public synchronized void rescan() {
+        recording = false;
+        items.clear();
+        cancelWatchKeys();
         treeItem = new TreeItem<>(rootFolder);
+        items.put(rootPath, treeItem);
+        register(rootPath);
         createTree(treeItem);
-        return treeItem;
+        serialized = null;
+        changes.clear();
+        version++;
+        oldestVersion = version;
+        recording = true;
+    }
+
+    private void update(Path path) {
+        if (!path.startsWith(rootPath) || path.equals(rootPath)) {
+            return;
+        }
+        TreeItem<FTPFile> parent = items.get(path.getParent());
+        if (parent == null) {
+            // parent is not in tree yet, it is added with it's whole content
+            update(path.getParent());
+            return;
+        }
+        TreeItem<FTPFile> item = items.get(path);
+        FTPFile file;
+        try {
+            file = Files.exists(path) ? scanner.read(path) : null;
+        } catch (IOException e) {
+            file = null;
+        }
+        if (file == null) {
+            if (item != null) {
+                remove(path);
+            }
+            return;
+        }
+        if (item == null) {
+            item = new TreeItem<>(file);
+            item.setExpanded(false);
+            parent.getChildren().add(item);
+            items.put(path, item);
+            record(TreeChange.Type.ADD, item);
+            if (file.isDirectory()) {
+                register(path);
+                createTree(item);
+            }
+        } else if (item.getValue().isDirectory() != file.isDirectory()) {
+            remove(path);
+            update(path);
+            return;
+        } else {
+            item.setValue(file);
+            record(TreeChange.Type.MODIFY, item);
+        }
+        serialized = null;
+    }
+
+    private void remove(Path path) {
+        if (path.equals(rootPath)) {
+            return;
+        }
+        TreeItem<FTPFile> item = items.remove(path);
+        if (item == null) {
+            return;
+        }
+        if (item.getParent() != null) {
+            item.getParent().getChildren().remove(item);
+        }
+        // only content of removed folder is removed from index, instead of checking every indexed path
+        ArrayDeque<TreeItem<FTPFile>> content = new ArrayDeque<>(item.getChildren());
+        while (!content.isEmpty()) {
+            TreeItem<FTPFile> child = content.pop();
+            items.remove(child.getValue().toPath());
+            content.addAll(child.getChildren());
+        }
+        record(TreeChange.Type.REMOVE, item);
+        serialized = null;
+    }
+
+    private void record(TreeChange.Type type, TreeItem<FTPFile> item) {
+        if (!recording) {
+            return;
+        }
+        version++;
+        String parent = type == TreeChange.Type.ADD ? item.getParent().getValue().getAbsolutePath() : null;
+        changes.addLast(new TreeChange(version, type, item.getValue().getAbsolutePath(), parent, type == TreeChange.Type.REMOVE ? null : item.getValue()));
+        if (changes.size() > MAX_CHANGES) {
+            oldestVersion = changes.removeFirst().getVersion();
+        }
+    }
+
+    private void register(Path dir) {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchKeys.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        } catch (IOException e) {
+            System.err.println("Failed to watch " + dir + ": " + e.getMessage());
+        }
     }
 
-}
\ No newline at end of file
+    private void cancelWatchKeys() {
+        for (Iterator<WatchKey> it = watchKeys.keySet().iterator(); it.hasNext(); ) {
+            it.next().cancel();
+            it.remove();
+        }
+    }
+
+    /**
+     * Takes events from watch service and applies them to tree until watch service is closed.
+     */
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            synchronized (this) {
+                Path dir = watchKeys.get(key);
+                if (dir != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            rescan();
+                            break;
+                        }
+                        Path path = dir.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            remove(path);
+                        } else {
+                            update(path);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    watchKeys.remove(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.ftp.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class encodes and decodes {@link FTPTransferObject} sent between client and server. It is used by both sides instead of Java
+ * serialization, so frames contain only values of fields (no class descriptors) and nothing is created by reflection.
+ * <p>
+ * Frame starts with fixed header of {@link #HEADER_LENGTH} bytes: protocol version (1 byte), length of frame body (4 bytes) and stream (4 bytes).
+ * Frame of stream {@code 0} contains encrypted object, other frames contain file data of request whose id is stream
+ * (see {@link FTPTransferObject#getRequestId()}): one encrypted record (compressed record in sessions with compression, see {@link ChunkCompressor}),
+ * or plain file bytes in sessions without encryption. Files are sent in many frames, so frames of different files and objects can be
+ * interleaved and small response is not waiting behind big file. Server sends file data only while download has credit, client gives
+ * {@link #STREAM_WINDOW} bytes at start and more with {@link FTPCommand#WINDOW} as it writes received data.
+ * <p>
+ * Object (before encryption) contains command (1 byte), flags (1 byte) that mark which of optional fields are present, response code,
+ * file size, chunk size, tree version, offset, checksum, segment length and request id as variable length integers (see {@link VarInt}), and after that present optional fields (response message,
+ * file name, client path, server path and additional data) written with their length. Credentials are not sent in frames, client
+ * is authenticated once, while logging in.
+ */
+public class FrameCodec {
+    public static final int VERSION = 7;
+    public static final int HEADER_LENGTH = 9;
+    public static final int STREAM_WINDOW = 8 * 1024 * 1024;
+    private static final int HAS_MESSAGE = 1;
+    private static final int HAS_NAME = 1 << 1;
+    private static final int HAS_PATH_CLIENT = 1 << 2;
+    private static final int HAS_PATH_SERVER = 1 << 3;
+    private static final int HAS_DATA = 1 << 4;
+    private static final FTPCommand[] COMMANDS = FTPCommand.values();
+
+    /**
+     * Creates header of frame with object.
+     *
+     * @param length Length of encrypted object
+     * @return Header bytes
+     */
+    public static byte[] header(int length) {
+        return header(length, 0);
+    }
+
+    /**
+     * Creates frame header.
+     *
+     * @param length Length of frame body
+     * @param stream Id of request whose file data is in frame, {@code 0} for object
+     * @return Header bytes
+     */
+    public static byte[] header(int length, int stream) {
+        return ByteBuffer.allocate(HEADER_LENGTH).put((byte) VERSION).putInt(length).putInt(stream).array();
+    }
+
+    /**
+     * Writes frame header to buffer at it's position, so frame can be built in one buffer without allocating header.
+     *
+     * @param buffer Buffer with at least {@link #HEADER_LENGTH} bytes remaining
+     * @param length Length of frame body
+     * @param stream Id of request whose file data is in frame, {@code 0} for object
+     * @return Given buffer
+     */
+    public static ByteBuffer putHeader(ByteBuffer buffer, int length, int stream) {
+        return buffer.put((byte) VERSION).putInt(length).putInt(stream);
+    }
+
+    /**
+     * Reads length of frame body from frame header.
+     *
+     * @param header Header bytes
+     * @return Length of frame body
+     * @throws IOException If version is not supported or length is invalid
+     */
+    public static int parseHeader(byte[] header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        int version = buffer.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version: " + version);
+        }
+        int length = buffer.getInt();
+        if (length < 0 || length > FrameReader.MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame size: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads stream of frame from frame header. Header must be checked with {@link #parseHeader(byte[])} first.
+     *
+     * @param header Header bytes
+     * @return Id of request whose file data is in frame, {@code 0} for object
+     * @throws IOException If stream is invalid
+     */
+    public static int parseStream(byte[] header) throws IOException {
+        int stream = ByteBuffer.wrap(header, 5, 4).getInt();
+        if (stream < 0) {
+            throw new IOException("Invalid stream: " + stream);
+        }
+        return stream;
+    }
+
+    /**
+     * Encodes object to bytes.
+     *
+     * @param object Object to be encoded
+     * @return Encoded object
+     */
+    public static byte[] encode(FTPTransferObject object) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + (object.getAdditionalData() == null ? 0 : object.getAdditionalData().length));
+        int flags = (object.getResponseMessage() != null ? HAS_MESSAGE : 0)
+                | (object.getName() != null ? HAS_NAME : 0)
+                | (object.getPathClient() != null ? HAS_PATH_CLIENT : 0)
+                | (object.getPathServer() != null ? HAS_PATH_SERVER : 0)
+                | (object.getAdditionalData() != null ? HAS_DATA : 0);
+        out.write(object.getCommand().ordinal());
+        out.write(flags);
+        VarInt.writeSigned(out, object.getResponseCode() == null ? 0 : object.getResponseCode());
+        VarInt.write(out, object.getFileSize());
+        VarInt.write(out, object.getChunkSize());
+        VarInt.write(out, object.getTreeVersion());
+        VarInt.write(out, object.getOffset());
+        VarInt.write(out, object.getChecksum());
+        VarInt.write(out, object.getSegmentLength());
+        VarInt.write(out, object.getRequestId());
+        if (object.getResponseMessage() != null) {
+            VarInt.writeString(out, object.getResponseMessage());
+        }
+        if (object.getName() != null) {
+            VarInt.writeString(out, object.getName());
+        }
+        if (object.getPathClient() != null) {
+            VarInt.writeString(out, object.getPathClient().getPath());
+        }
+        if (object.getPathServer() != null) {
+            VarInt.writeString(out, object.getPathServer().getPath());
+        }
+        if (object.getAdditionalData() != null) {
+            VarInt.writeBytes(out, object.getAdditionalData());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes object from bytes.
+     *
+     * @param bytes  Array with encoded object
+     * @param offset Start offset
+     * @param length Length of encoded object
+     * @return Decoded object
+     * @throws IOException If object is not valid
+     */
+    public static FTPTransferObject decode(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes, offset, length);
+        if (in.remaining() < 2) {
+            throw new IOException("Frame is too short");
+        }
+        int command = in.get() & 0xFF;
+        if (command >= COMMANDS.length) {
+            throw new IOException("Unknown command: " + command);
+        }
+        int flags = in.get() & 0xFF;
+        int responseCode = (int) VarInt.readSigned(in);
+        long fileSize = VarInt.read(in);
+        int chunkSize = VarInt.readInt(in);
+        long treeVersion = VarInt.read(in);
+        long fileOffset = VarInt.read(in);
+        long checksum = VarInt.read(in);
+        long segmentLength = VarInt.read(in);
+        int requestId = VarInt.readInt(in);
+        String responseMessage = (flags & HAS_MESSAGE) != 0 ? VarInt.readString(in) : null;
+        String name = (flags & HAS_NAME) != 0 ? VarInt.readString(in) : null;
+        File pathClient = (flags & HAS_PATH_CLIENT) != 0 ? new File(VarInt.readString(in)) : null;
+        File pathServer = (flags & HAS_PATH_SERVER) != 0 ? new File(VarInt.readString(in)) : null;
+        byte[] additionalData = (flags & HAS_DATA) != 0 ? VarInt.readBytes(in) : null;
+        if (in.hasRemaining()) {
+            throw new IOException("Unexpected " + in.remaining() + " bytes at the end of frame");
+        }
+        if (fileSize < 0 || fileOffset < 0 || segmentLength < 0 || fileOffset + segmentLength > fileSize && fileSize > 0) {
+            throw new IOException("Invalid file size: " + fileSize + ", offset " + fileOffset + ", segment " + segmentLength);
+        }
+        FTPTransferObject object = new FTPTransferObject(null, null, COMMANDS[command], responseCode, responseMessage, additionalData);
+        object.setFileSize(fileSize);
+        object.setChunkSize(chunkSize);
+        object.setTreeVersion(treeVersion);
+        object.setOffset(fileOffset);
+        object.setChecksum(checksum);
+        object.setSegmentLength(segmentLength);
+        object.setRequestId(requestId);
+        object.setName(name);
+        object.setPathClient(pathClient);
+        object.setPathServer(pathServer);
+        return object;
+    }
+}
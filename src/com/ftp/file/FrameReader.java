@@ -0,0 +1,165 @@
+package com.ftp.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is used by server and client for reading frames and file chunks from socket. Every read is exact: method blocks until
+ * all requested bytes are received (there is no polling of available bytes), and fails if connection is closed before that.
+ * <p>
+ * Reader has two timeouts: idle timeout is used while waiting for the first byte of the next frame (other side can have nothing to send),
+ * and read timeout is used while rest of the frame or file is being received. Zero means no timeout.
+ */
+public class FrameReader {
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+    public static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+    /**
+     * Limit of encrypted credentials, they are read before client is authenticated, so unknown client cannot make server allocate big frame
+     */
+    public static final int MAX_CREDENTIALS_SIZE = 4096;
+
+    private final InputStream in;
+    private final Socket socket;
+    private int idleTimeout;
+    private int readTimeout;
+
+    public FrameReader(Socket socket, int idleTimeout, int readTimeout) throws IOException {
+        this.socket = socket;
+        this.in = socket.getInputStream();
+        this.idleTimeout = idleTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sets timeouts of reader.
+     *
+     * @param idleTimeout Timeout in milliseconds for waiting for next frame
+     * @param readTimeout Timeout in milliseconds for receiving started frame or file
+     */
+    public void setTimeouts(int idleTimeout, int readTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Reads exactly {@code length} bytes.
+     *
+     * @param b      Buffer for read bytes
+     * @param offset Start offset in buffer
+     * @param length Number of bytes to read
+     * @throws EOFException           If connection is closed before all bytes are read
+     * @throws SocketTimeoutException If bytes are not received in read timeout
+     */
+    public void readFully(byte[] b, int offset, int length) throws IOException {
+        socket.setSoTimeout(readTimeout);
+        while (length > 0) {
+            int num = in.read(b, offset, length);
+            if (num == -1) {
+                throw new EOFException("Connection closed, " + length + " bytes missing");
+            }
+            offset += num;
+            length -= num;
+        }
+    }
+
+    /**
+     * Reads exactly {@code length} bytes, waiting for the first byte with idle timeout.
+     *
+     * @param length Number of bytes to read
+     * @return Read bytes
+     * @throws IdleTimeoutException If first byte is not received in idle timeout
+     * @throws IOException            If connection is closed or timeout expired
+     */
+    public byte[] readNext(int length) throws IOException {
+        byte[] b = new byte[length];
+        socket.setSoTimeout(idleTimeout);
+        int first;
+        try {
+            first = in.read();
+        } catch (SocketTimeoutException e) {
+            throw new IdleTimeoutException("Nothing received in " + idleTimeout + " ms");
+        }
+        if (first == -1) {
+            throw new EOFException("Connection closed");
+        }
+        b[0] = (byte) first;
+        readFully(b, 1, length - 1);
+        return b;
+    }
+
+    /**
+     * Reads size of object represented as {@link String} with given length, followed by object with that size.
+     *
+     * @param sizeLength Length of size field (32 bytes for credentials)
+     * @param maxSize    Largest accepted size (see {@link #MAX_CREDENTIALS_SIZE})
+     * @return Read object bytes
+     * @throws IOException If connection is closed, timeout expired or size is invalid
+     */
+    public byte[] readFrame(int sizeLength, int maxSize) throws IOException {
+        int size = parseSize(readNext(sizeLength), maxSize);
+        byte[] frame = new byte[size];
+        readFully(frame, 0, size);
+        return frame;
+    }
+
+    /**
+     * Reads header of next frame (see {@link FrameCodec}), waiting for it with idle timeout.
+     *
+     * @return Header bytes
+     * @throws IOException If connection is closed or timeout expired
+     */
+    public byte[] readHeader() throws IOException {
+        return readNext(FrameCodec.HEADER_LENGTH);
+    }
+
+    /**
+     * Reads body of frame whose header was read.
+     *
+     * @param length Length of frame body (see {@link FrameCodec#parseHeader(byte[])})
+     * @return Read body bytes
+     * @throws IOException If connection is closed or timeout expired
+     */
+    public byte[] readBody(int length) throws IOException {
+        byte[] frame = new byte[length];
+        readFully(frame, 0, length);
+        return frame;
+    }
+
+    /**
+     * Reads body of frame whose header was read to buffer, so body of file frame can be read to pooled buffer.
+     *
+     * @param buffer Buffer backed by array, {@link ByteBuffer#remaining()} bytes are read and buffer is flipped
+     * @return Given buffer
+     * @throws IOException If connection is closed or timeout expired
+     */
+    public ByteBuffer readBody(ByteBuffer buffer) throws IOException {
+        readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        return buffer.position(buffer.limit()).flip();
+    }
+
+    /**
+     * Parses size sent as {@link String} padded with zeros.
+     *
+     * @param b       Size bytes
+     * @param maxSize Largest accepted size
+     * @return Size
+     * @throws IOException If size is not valid
+     */
+    public static int parseSize(byte[] b, int maxSize) throws IOException {
+        int size;
+        try {
+            size = Integer.parseInt(new String(b, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid frame size", e);
+        }
+        if (size < 0 || size > maxSize) {
+            throw new IOException("Invalid frame size: " + size);
+        }
+        return size;
+    }
+}
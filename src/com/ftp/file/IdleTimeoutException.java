@@ -0,0 +1,15 @@
+package com.ftp.file;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown by {@link FrameReader} when next frame doesn't start in idle timeout. Nothing of the frame is read, so reading can be
+ * continued, unlike timeout while frame is received.
+ */
+public class IdleTimeoutException extends SocketTimeoutException {
+    private static final long serialVersionUID = 1L;
+
+    public IdleTimeoutException(String message) {
+        super(message);
+    }
+}
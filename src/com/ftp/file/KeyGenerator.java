@@ -1,5 +1,8 @@
 package com.ftp.file;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 /**
  * This class is used for generating key between server and client using Diffie Hellman algorithm.
  * Numbers are generated randomly.
@@ -32,6 +35,21 @@ public class KeyGenerator {
         finalCode = (long) Math.pow(code, a);
     }
 
+    /**
+     * Parses code received from other side, sent as {@link String} padded with zeros.
+     *
+     * @param b Code bytes
+     * @return Code
+     * @throws IOException If code is not valid
+     */
+    public static long parseCode(byte[] b) throws IOException {
+        try {
+            return Long.parseLong(new String(b, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid key exchange code", e);
+        }
+    }
+
     /**
      * Returns created key
      *
@@ -0,0 +1,186 @@
+package com.ftp.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class contains options of {@link FTPCommand#LIST} request: how entries are sorted, which entries are listed (glob filter, for example
+ * {@code *.txt}) and maximum number of entries in one page. Pages are continued with cursor: next page contains entries that come after
+ * last entry of previous page ({@link #next(DirectoryPage)}), so server doesn't keep any state between pages.
+ * <p>
+ * Options are sent in additional data of {@link FTPTransferObject} as variable length integers and strings (see {@link VarInt}).
+ */
+public class ListOptions {
+    public static final int DEFAULT_LIMIT = 500;
+    public static final int MAX_LIMIT = 10000;
+    private static final int DESCENDING = 1;
+    private static final int HAS_CURSOR = 1 << 1;
+    private static final int HAS_FILTER = 1 << 2;
+
+    /**
+     * Order of entries
+     */
+    public enum Sort {
+        /**
+         * By name
+         */
+        NAME,
+
+        /**
+         * By size, entries with same size by name
+         */
+        SIZE,
+
+        /**
+         * By last modification time, entries with same time by name
+         */
+        MODIFIED
+    }
+
+    private static final Sort[] SORTS = Sort.values();
+    private Sort sort = Sort.NAME;
+    private boolean descending = false;
+    private String filter;
+    private int limit = DEFAULT_LIMIT;
+    private String afterName;
+    private long afterKey;
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public void setSort(Sort sort) {
+        this.sort = sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public void setDescending(boolean descending) {
+        this.descending = descending;
+    }
+
+    /**
+     * Returns glob pattern that names of listed entries must match.
+     *
+     * @return Glob pattern, or {@code null} if all entries are listed
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets maximum number of entries in page, limited to {@link #MAX_LIMIT}.
+     *
+     * @param limit Maximum number of entries
+     */
+    public void setLimit(int limit) {
+        this.limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    /**
+     * Returns name of last entry of previous page.
+     *
+     * @return Name, or {@code null} for first page
+     */
+    public String getAfterName() {
+        return afterName;
+    }
+
+    /**
+     * Returns sort key (size or modification time) of last entry of previous page.
+     *
+     * @return Sort key, not used if entries are sorted by name
+     */
+    public long getAfterKey() {
+        return afterKey;
+    }
+
+    public boolean isFirstPage() {
+        return afterName == null;
+    }
+
+    /**
+     * Creates options for page that follows given page.
+     *
+     * @param page Received page
+     * @return Options for next page, or {@code null} if given page is the last one
+     */
+    public ListOptions next(DirectoryPage page) {
+        if (!page.isMore()) {
+            return null;
+        }
+        ListOptions next = new ListOptions();
+        next.sort = sort;
+        next.descending = descending;
+        next.filter = filter;
+        next.limit = limit;
+        next.afterName = page.getNextName();
+        next.afterKey = page.getNextKey();
+        return next;
+    }
+
+    /**
+     * Converts options to bytes that are sent in {@link FTPTransferObject}.
+     *
+     * @return Options as bytes
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        out.write(sort.ordinal());
+        out.write((descending ? DESCENDING : 0) | (afterName != null ? HAS_CURSOR : 0) | (filter != null ? HAS_FILTER : 0));
+        VarInt.write(out, limit);
+        if (afterName != null) {
+            VarInt.writeString(out, afterName);
+            VarInt.writeSigned(out, afterKey);
+        }
+        if (filter != null) {
+            VarInt.writeString(out, filter);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads options from bytes. If there are no bytes, first page with default options is listed.
+     *
+     * @param bytes Options as bytes
+     * @return Read options
+     * @throws IOException If options are not valid
+     */
+    public static ListOptions fromBytes(byte[] bytes) throws IOException {
+        ListOptions options = new ListOptions();
+        if (bytes == null || bytes.length == 0) {
+            return options;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.remaining() < 2) {
+            throw new IOException("Invalid list options");
+        }
+        int sort = in.get() & 0xFF;
+        if (sort >= SORTS.length) {
+            throw new IOException("Unknown sort: " + sort);
+        }
+        options.sort = SORTS[sort];
+        int flags = in.get() & 0xFF;
+        options.descending = (flags & DESCENDING) != 0;
+        options.setLimit(VarInt.readInt(in));
+        if ((flags & HAS_CURSOR) != 0) {
+            options.afterName = VarInt.readString(in);
+            options.afterKey = VarInt.readSigned(in);
+        }
+        if ((flags & HAS_FILTER) != 0) {
+            options.filter = VarInt.readString(in);
+        }
+        return options;
+    }
+}
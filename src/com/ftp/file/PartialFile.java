@@ -0,0 +1,127 @@
+package com.ftp.file;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * This class contains static methods for resumable transfers. Received file is written to partial file (file name with {@link #SUFFIX})
+ * and renamed to real name only when it is received whole, so interrupted transfer leaves partial file that stays on disk after
+ * reconnect. Next transfer of same file continues from end of partial file if it's beginning is same as beginning of sent file,
+ * which is checked by {@link #checksum(File, long)} of that beginning on both sides (see {@link FTPTransferObject#getOffset()}).
+ * <p>
+ * Big file can also be transferred in segments over several sessions at once. Every segment is written to same partial file at it's
+ * own position ({@link #openSegment(File, long, long)}), and after all segments are transferred file is completed by normal transfer,
+ * which finds that whole partial file has same checksum and only renames it.
+ */
+public class PartialFile {
+    public static final String SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Returns partial file of given file.
+     *
+     * @param file Real file
+     * @return Partial file in same folder
+     */
+    public static File of(File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    /**
+     * Calculates CRC32C of beginning of file.
+     *
+     * @param file   File
+     * @param length Number of bytes from start of file
+     * @return Checksum
+     * @throws IOException If file cannot be read or it is shorter than given length
+     */
+    public static long checksum(File file, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(length, 1)));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+                int num = channel.read(buffer, position);
+                if (num == -1) {
+                    throw new EOFException(file + " is shorter than " + length + " bytes");
+                }
+                buffer.flip();
+                crc.update(buffer);
+                position += num;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Opens partial file for writing from given offset. Bytes after offset are removed, so partial file can be continued.
+     *
+     * @param part   Partial file
+     * @param offset Offset from which file is written, {@code 0} for new file
+     * @return Channel positioned at offset
+     * @throws IOException If partial file cannot be opened or it is shorter than offset
+     */
+    public static FileChannel open(File part, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < offset) {
+                throw new EOFException(part + " is shorter than " + offset + " bytes");
+            }
+            channel.truncate(offset);
+            channel.position(offset);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens partial file for writing one segment of file. Other bytes of partial file are not changed, so segments can be written
+     * at the same time by different sessions, each with it's own channel. Partial file is extended to the end of segment (by writing
+     * last byte of segment), because {@link FileChannel#transferFrom} doesn't write after end of file.
+     *
+     * @param part   Partial file
+     * @param offset Offset of segment
+     * @param length Length of segment
+     * @return Channel positioned at offset
+     * @throws IOException If partial file cannot be opened
+     */
+    public static FileChannel openSegment(File part, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (length > 0 && channel.size() < offset + length) {
+                channel.write(ByteBuffer.allocate(1), offset + length - 1);
+            }
+            channel.position(offset);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Renames received partial file to real file. Existing file is replaced.
+     *
+     * @param part Partial file
+     * @param file Real file
+     * @throws IOException If file cannot be renamed
+     */
+    public static void complete(File part, File file) throws IOException {
+        try {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.ftp.file;
+
+import javafx.scene.control.TreeItem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * This class is client's copy of server's directory tree. It starts without tree (version {@code 0}), client reports it's version
+ * to server in every {@link FTPTransferObject}, and server responds with {@link TreeDelta}. Changes are applied to existing
+ * {@link TreeItem} structure in place, so expanded and selected items stay the same. Changes that are already applied
+ * (with version not greater than version of tree) are skipped.
+ * <p>
+ * If client loads folders on demand ({@link SessionOptions#isLazyTree()}), tree is built from {@link DirectoryPage}s instead. Folder is
+ * listed by loader when it is expanded for the first time, and page with cursor for next page is remembered.
+ * <p>
+ * Tree is shown in UI, so deltas and pages should be applied on JavaFX application thread.
+ */
+public class RemoteTree {
+    private final Map<String, TreeItem<FTPFile>> items = new HashMap<>();
+    private TreeItem<FTPFile> root;
+    private volatile long version = 0;
+    private Consumer<TreeItem<FTPFile>> loader;
+
+    /**
+     * Item of folder loaded on demand. Folder looks like folder (not leaf) before it's entries are loaded.
+     */
+    private class LazyItem extends TreeItem<FTPFile> {
+        private boolean loaded = false;
+        private ListOptions next;
+
+        LazyItem(FTPFile file) {
+            super(file);
+            expandedProperty().addListener((observable, wasExpanded, expanded) -> {
+                if (expanded && !loaded && loader != null) {
+                    loaded = true;
+                    loader.accept(this);
+                }
+            });
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return !getValue().isDirectory();
+        }
+    }
+
+    public TreeItem<FTPFile> getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns version of tree that client has.
+     *
+     * @return Version, {@code 0} if there is no tree yet
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Applies delta received from server.
+     *
+     * @param delta Delta
+     */
+    public void apply(TreeDelta delta) {
+        if (delta.isSnapshot()) {
+            root = delta.getTree();
+            items.clear();
+            index(root);
+            version = delta.getVersion();
+            return;
+        }
+        if (root == null) {
+            return;
+        }
+        for (TreeChange change : delta.getChanges()) {
+            if (change.getVersion() > version) {
+                apply(change);
+            }
+        }
+        version = Math.max(version, delta.getVersion());
+    }
+
+    private void apply(TreeChange change) {
+        TreeItem<FTPFile> item = items.get(change.getPath());
+        switch (change.getType()) {
+            case ADD:
+                TreeItem<FTPFile> parent = items.get(change.getParent());
+                if (parent == null) {
+                    break;
+                }
+                if (item != null) {
+                    remove(item);
+                }
+                item = new TreeItem<>(change.getFile());
+                item.setExpanded(false);
+                parent.getChildren().add(item);
+                items.put(change.getPath(), item);
+                break;
+            case REMOVE:
+                if (item != null && item != root) {
+                    remove(item);
+                }
+                break;
+            case MODIFY:
+                if (item != null) {
+                    item.setValue(change.getFile());
+                }
+                break;
+        }
+        version = change.getVersion();
+    }
+
+    /**
+     * Sets loader that lists folder when it is expanded for the first time.
+     *
+     * @param loader Loader that requests first page of given folder
+     */
+    public void setLoader(Consumer<TreeItem<FTPFile>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Finds item with given absolute path on server.
+     *
+     * @param path Absolute path
+     * @return Item, or {@code null} if it is not in tree
+     */
+    public TreeItem<FTPFile> find(String path) {
+        return items.get(path);
+    }
+
+    /**
+     * Checks if entries of folder were loaded (or are being loaded).
+     *
+     * @param item Folder
+     * @return {@code true} if folder was listed
+     */
+    public boolean isLoaded(TreeItem<FTPFile> item) {
+        return !(item instanceof LazyItem) || ((LazyItem) item).loaded;
+    }
+
+    /**
+     * Returns options for next page of folder.
+     *
+     * @param item Folder
+     * @return Options, or {@code null} if all entries are loaded
+     */
+    public ListOptions nextPage(TreeItem<FTPFile> item) {
+        return item instanceof LazyItem ? ((LazyItem) item).next : null;
+    }
+
+    /**
+     * Applies page of folder listed on demand. First page replaces entries of folder (entries that are still present keep their
+     * items, so expanded folders stay expanded), next pages and filtered pages are added to loaded entries. Page of root folder
+     * creates tree, pages of folders that are not in tree are ignored.
+     *
+     * @param request Options that page was requested with
+     * @param page    Received page
+     */
+    public void apply(ListOptions request, DirectoryPage page) {
+        String path = page.getDirectory().getAbsolutePath();
+        TreeItem<FTPFile> item = items.get(path);
+        if (item == null) {
+            if (root != null) {
+                return;
+            }
+            root = item = new LazyItem(page.getDirectory());
+            items.put(path, root);
+        } else {
+            item.setValue(page.getDirectory());
+        }
+        boolean replace = request.isFirstPage() && request.getFilter() == null;
+        Map<String, TreeItem<FTPFile>> existing = new HashMap<>();
+        for (TreeItem<FTPFile> child : item.getChildren()) {
+            existing.put(child.getValue().getAbsolutePath(), child);
+        }
+        List<TreeItem<FTPFile>> added = new ArrayList<>(page.getEntries().size());
+        List<TreeItem<FTPFile>> children = new ArrayList<>(page.getEntries().size());
+        for (FTPFile entry : page.getEntries()) {
+            TreeItem<FTPFile> child = existing.remove(entry.getAbsolutePath());
+            if (child == null) {
+                child = new LazyItem(entry);
+                items.put(entry.getAbsolutePath(), child);
+                added.add(child);
+            } else {
+                child.setValue(entry);
+            }
+            children.add(child);
+        }
+        if (replace) {
+            for (TreeItem<FTPFile> child : existing.values()) {
+                unindex(child);
+            }
+            item.getChildren().setAll(children);
+        } else {
+            item.getChildren().addAll(added);
+        }
+        if (item instanceof LazyItem && request.getFilter() == null) {
+            ((LazyItem) item).loaded = true;
+            ((LazyItem) item).next = request.next(page);
+        }
+    }
+
+    private void remove(TreeItem<FTPFile> item) {
+        if (item.getParent() != null) {
+            item.getParent().getChildren().remove(item);
+        }
+        unindex(item);
+    }
+
+    private void index(TreeItem<FTPFile> item) {
+        items.put(item.getValue().getAbsolutePath(), item);
+        for (TreeItem<FTPFile> child : item.getChildren()) {
+            index(child);
+        }
+    }
+
+    private void unindex(TreeItem<FTPFile> item) {
+        items.remove(item.getValue().getAbsolutePath());
+        for (TreeItem<FTPFile> child : item.getChildren()) {
+            unindex(child);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.ftp.file;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Properties;
+
+/**
+ * This class contains options of one session between client and server. After logging in, client sends options it wants to use with
+ * {@link FTPCommand#OPTS} command, and server responds with options that are granted by server policy. Options are sent as
+ * {@code key=value} lines in additional data of {@link FTPTransferObject}.
+ * <p>
+ * Files are sent in chunks, each chunk is encrypted as one record. Client requests chunk size and server responds with granted size and
+ * it's maximum chunk size. Chunk size can be changed during session without new negotiation: sender of a file writes chunk size it uses in
+ * {@link FTPTransferObject#getChunkSize()}, and receiver accepts any size between {@link #MIN_CHUNK_SIZE} and maximum chunk size.
+ * In sessions with compression chunks are compressed before encryption (see {@link ChunkCompressor}).
+ * <p>
+ * Client and server send fresh random bytes in their options ({@link #getRandom()}), and key of {@link CryptoContext#AES_GCM} records
+ * is derived from them (see {@link CryptoContext#deriveSessionKey(byte[], byte[])}), so every session has it's own key.
+ */
+public class SessionOptions {
+    public static final int MIN_CHUNK_SIZE = 4 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int RANDOM_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private boolean encryption = true;
+    private String cipher = CryptoContext.AES_GCM;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxChunkSize = DEFAULT_MAX_CHUNK_SIZE;
+    private boolean lazyTree = false;
+    private boolean compression = false;
+    private boolean dedup = false;
+    private byte[] random;
+
+    /**
+     * Checks if files are encrypted. Sessions without encryption are allowed only on trusted networks, and in those sessions
+     * files are sent directly between file and socket (zero-copy). Objects are always encrypted.
+     *
+     * @return {@code true} if files are encrypted
+     */
+    public boolean isEncryption() {
+        return encryption;
+    }
+
+    public void setEncryption(boolean encryption) {
+        this.encryption = encryption;
+    }
+
+    /**
+     * Returns cipher used for objects and files after options are negotiated ({@link CryptoContext#AES_GCM} or {@link CryptoContext#AES_ECB}).
+     *
+     * @return Cipher name
+     */
+    public String getCipher() {
+        return cipher;
+    }
+
+    public void setCipher(String cipher) {
+        this.cipher = cipher;
+    }
+
+    /**
+     * Returns size of file chunk that is used if sender didn't choose other size.
+     *
+     * @return Chunk size in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns maximum size of file chunk that server accepts (and sends) in this session.
+     *
+     * @return Maximum chunk size in bytes
+     */
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * Checks if client loads folders on demand with {@link FTPCommand#LIST}. Server doesn't send directory tree to those clients.
+     *
+     * @return {@code true} if tree is loaded on demand, {@code false} if whole tree is sent after logging in
+     */
+    public boolean isLazyTree() {
+        return lazyTree;
+    }
+
+    public void setLazyTree(boolean lazyTree) {
+        this.lazyTree = lazyTree;
+    }
+
+    /**
+     * Checks if file chunks are compressed before encryption (see {@link ChunkCompressor}). Compression is used only in sessions
+     * with encryption, files in sessions without encryption are sent directly from file to socket.
+     *
+     * @return {@code true} if chunks are compressed
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Checks if server stores files by content, so client can announce hash of file before upload ({@link FTPCommand#LINK})
+     * and skip upload of file that server already has.
+     *
+     * @return {@code true} if server stores files by content
+     */
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * Returns random bytes of side that sent options, used for deriving key of session. Every session must use new random bytes.
+     *
+     * @return Random bytes, {@code null} if they were not sent
+     */
+    public byte[] getRandom() {
+        return random;
+    }
+
+    public void setRandom(byte[] random) {
+        this.random = random;
+    }
+
+    /**
+     * Creates new random bytes for options of session (see {@link #getRandom()}).
+     *
+     * @return {@link #RANDOM_LENGTH} random bytes
+     */
+    public static byte[] newRandom() {
+        byte[] random = new byte[RANDOM_LENGTH];
+        RANDOM.nextBytes(random);
+        return random;
+    }
+
+    /**
+     * Limits chunk size to sizes allowed in this session.
+     *
+     * @param size Wanted chunk size
+     * @return Nearest allowed chunk size
+     */
+    public int limitChunkSize(int size) {
+        return Math.max(MIN_CHUNK_SIZE, Math.min(size, maxChunkSize));
+    }
+
+    /**
+     * Checks chunk size of received file. Size {@code 0} means that sender used default chunk size of session.
+     *
+     * @param size Chunk size sent in {@link FTPTransferObject}
+     * @return Chunk size that is used for reading file
+     * @throws IOException If chunk size is not allowed in this session
+     */
+    public int acceptChunkSize(int size) throws IOException {
+        if (size == 0) {
+            return chunkSize;
+        }
+        if (size < MIN_CHUNK_SIZE || size > maxChunkSize) {
+            throw new IOException("Invalid chunk size: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Converts options to bytes that are sent in {@link FTPTransferObject}.
+     *
+     * @return Options as bytes
+     */
+    public byte[] toBytes() {
+        return ("encryption=" + (encryption ? 1 : 0) + "\n"
+                + "cipher=" + cipher + "\n"
+                + "chunk=" + chunkSize + "\n"
+                + "chunk.max=" + maxChunkSize + "\n"
+                + "tree=" + (lazyTree ? "lazy" : "full") + "\n"
+                + "compression=" + (compression ? 1 : 0) + "\n"
+                + "dedup=" + (dedup ? 1 : 0) + "\n"
+                + (random == null ? "" : "random=" + FileHash.toHex(random) + "\n")).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads options from bytes. Options that are not present keep default values.
+     *
+     * @param bytes Options as bytes
+     * @return Read options
+     */
+    public static SessionOptions fromBytes(byte[] bytes) {
+        SessionOptions options = new SessionOptions();
+        if (bytes == null) {
+            return options;
+        }
+        Properties props = new Properties();
+        try {
+            props.load(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        options.setEncryption(!"0".equals(props.getProperty("encryption", "1").trim()));
+        options.setCipher(props.getProperty("cipher", options.getCipher()).trim());
+        options.setChunkSize(parseSize(props.getProperty("chunk"), DEFAULT_CHUNK_SIZE));
+        options.setMaxChunkSize(parseSize(props.getProperty("chunk.max"), DEFAULT_MAX_CHUNK_SIZE));
+        options.setLazyTree("lazy".equals(props.getProperty("tree", "full").trim()));
+        options.setCompression("1".equals(props.getProperty("compression", "0").trim()));
+        options.setDedup("1".equals(props.getProperty("dedup", "0").trim()));
+        options.setRandom(parseRandom(props.getProperty("random")));
+        return options;
+    }
+
+    private static byte[] parseRandom(String value) {
+        if (value == null || value.trim().length() != RANDOM_LENGTH * 2) {
+            return null;
+        }
+        byte[] random = new byte[RANDOM_LENGTH];
+        for (int i = 0; i < random.length; i++) {
+            int high = Character.digit(value.trim().charAt(2 * i), 16);
+            int low = Character.digit(value.trim().charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            random[i] = (byte) (high << 4 | low);
+        }
+        return random;
+    }
+
+    /**
+     * Parses size given in bytes, or with {@code K}/{@code M} suffix (for example {@code 256K}, {@code 4M}).
+     *
+     * @param value        Size as string
+     * @param defaultValue Value returned if size is missing or invalid
+     * @return Size in bytes
+     */
+    public static int parseSize(String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        String size = value.trim().toUpperCase();
+        int multiplier = 1;
+        if (size.endsWith("K")) {
+            multiplier = 1024;
+        } else if (size.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        }
+        try {
+            return Math.toIntExact(Long.parseLong(multiplier == 1 ? size : size.substring(0, size.length() - 1).trim()) * multiplier);
+        } catch (NumberFormatException | ArithmeticException e) {
+            return defaultValue;
+        }
+    }
+}
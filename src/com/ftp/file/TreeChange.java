@@ -0,0 +1,119 @@
+package com.ftp.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents one change of server's directory tree (see {@link FolderTreeView}). Every change increases version of tree by one.
+ * Items are identified by absolute path on server.
+ */
+public class TreeChange {
+
+    /**
+     * Type of change
+     */
+    public enum Type {
+        /**
+         * File or folder is added to parent folder (as last child)
+         */
+        ADD,
+
+        /**
+         * File or folder (with it's content) is removed
+         */
+        REMOVE,
+
+        /**
+         * Properties of file or folder are changed
+         */
+        MODIFY
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private final long version;
+    private final Type type;
+    private final String path;
+    private final String parent;
+    private final FTPFile file;
+
+    public TreeChange(long version, Type type, String path, String parent, FTPFile file) {
+        this.version = version;
+        this.type = type;
+        this.path = path;
+        this.parent = parent;
+        this.file = file;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns absolute path of parent folder.
+     *
+     * @return Parent path for {@link Type#ADD}, {@code null} otherwise
+     */
+    public String getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns new properties of file.
+     *
+     * @return File for {@link Type#ADD} and {@link Type#MODIFY}, {@code null} for {@link Type#REMOVE}
+     */
+    public FTPFile getFile() {
+        return file;
+    }
+
+    /**
+     * Writes change (see {@link VarInt}).
+     *
+     * @param out Output
+     */
+    public void write(ByteArrayOutputStream out) {
+        out.write(type.ordinal());
+        VarInt.write(out, version);
+        if (type == Type.REMOVE) {
+            VarInt.writeString(out, path);
+            return;
+        }
+        if (type == Type.ADD) {
+            VarInt.writeString(out, parent);
+        }
+        file.write(out);
+    }
+
+    /**
+     * Reads change written with {@link #write(ByteArrayOutputStream)}.
+     *
+     * @param in Input
+     * @return Read change
+     * @throws IOException If change is not valid
+     */
+    public static TreeChange read(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            throw new IOException("Truncated tree change");
+        }
+        int type = in.get() & 0xFF;
+        if (type >= TYPES.length) {
+            throw new IOException("Unknown tree change: " + type);
+        }
+        long version = VarInt.read(in);
+        if (TYPES[type] == Type.REMOVE) {
+            return new TreeChange(version, Type.REMOVE, VarInt.readString(in), null, null);
+        }
+        String parent = TYPES[type] == Type.ADD ? VarInt.readString(in) : null;
+        FTPFile file = FTPFile.read(in);
+        return new TreeChange(version, TYPES[type], file.getAbsolutePath(), parent, file);
+    }
+}
@@ -0,0 +1,191 @@
+package com.ftp.file;
+
+import javafx.scene.control.TreeItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class encodes and decodes directory tree sent to client (see {@link TreeDelta}). It replaces Java serialization of
+ * {@link TreeItem}, which wrote whole {@link FTPFile} with it's {@link File} and all paths for every item.
+ * <p>
+ * Tree starts with path separator of server and root file (see {@link FTPFile#write}). Other items are written in pre-order, every
+ * item only with it's name, because paths are created from paths of parent folder. Flags are packed in one byte, owner is written
+ * as index in table of owners (new owner is written once, after index equal to table size), and modification time as difference
+ * from previous item, because files in same folder usually have similar times. Folders are followed by number of their children.
+ * <p>
+ * Decoded children are added to their folder at once, after all of them are read, so {@link TreeItem} doesn't send event
+ * to all parents for every added item.
+ */
+public class TreeCodec {
+    private static final int DIRECTORY = 1;
+    private static final int CAN_READ = 1 << 1;
+    private static final int CAN_WRITE = 1 << 2;
+    private static final int CAN_EXECUTE = 1 << 3;
+    private static final int SYM_LINK = 1 << 4;
+
+    /**
+     * Output without synchronization, tree is encoded by one thread.
+     */
+    private static class Output extends ByteArrayOutputStream {
+        Output(int size) {
+            super(size);
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Folder which children are being decoded.
+     */
+    private static class Folder {
+        final TreeItem<FTPFile> item;
+        final List<TreeItem<FTPFile>> children;
+        int remaining;
+
+        Folder(TreeItem<FTPFile> item, int remaining) {
+            this.item = item;
+            this.remaining = remaining;
+            children = new ArrayList<>(Math.min(remaining, 1024));
+        }
+    }
+
+    /**
+     * Encodes tree.
+     *
+     * @param root Root of the tree
+     * @return Encoded tree
+     */
+    public static byte[] encode(TreeItem<FTPFile> root) {
+        Output out = new Output(4096);
+        VarInt.writeString(out, File.separator);
+        root.getValue().write(out);
+        Map<String, Integer> owners = new HashMap<>();
+        long lastModified = 0;
+        ArrayDeque<TreeItem<FTPFile>> stack = new ArrayDeque<>();
+        VarInt.write(out, root.getChildren().size());
+        pushChildren(stack, root);
+        while (!stack.isEmpty()) {
+            TreeItem<FTPFile> item = stack.pop();
+            FTPFile file = item.getValue();
+            VarInt.writeString(out, file.getName());
+            out.write((file.isDirectory() ? DIRECTORY : 0) | (file.canRead() ? CAN_READ : 0) | (file.canWrite() ? CAN_WRITE : 0)
+                    | (file.canExecute() ? CAN_EXECUTE : 0) | (file.isSymbolicLink() ? SYM_LINK : 0));
+            VarInt.write(out, Math.max(0, file.length()));
+            VarInt.writeSigned(out, file.lastModified() - lastModified);
+            lastModified = file.lastModified();
+            String owner = file.getOwner() == null ? "" : file.getOwner();
+            Integer index = owners.get(owner);
+            if (index == null) {
+                VarInt.write(out, owners.size());
+                VarInt.writeString(out, owner);
+                owners.put(owner, owners.size());
+            } else {
+                VarInt.write(out, index);
+            }
+            if (file.isDirectory()) {
+                VarInt.write(out, item.getChildren().size());
+                pushChildren(stack, item);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void pushChildren(ArrayDeque<TreeItem<FTPFile>> stack, TreeItem<FTPFile> item) {
+        List<TreeItem<FTPFile>> children = item.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            stack.push(children.get(i));
+        }
+    }
+
+    /**
+     * Decodes tree.
+     *
+     * @param bytes Encoded tree
+     * @return Root of the tree
+     * @throws IOException If tree is not valid
+     */
+    public static TreeItem<FTPFile> decode(byte[] bytes) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        String separator = VarInt.readString(in);
+        TreeItem<FTPFile> root = new TreeItem<>(FTPFile.read(in));
+        List<String> owners = new ArrayList<>();
+        long lastModified = 0;
+        // folders which children are not all read yet
+        ArrayDeque<Folder> folders = new ArrayDeque<>();
+        int count = VarInt.readInt(in);
+        if (count > 0) {
+            folders.push(new Folder(root, count));
+        }
+        while (!folders.isEmpty()) {
+            Folder folder = folders.peek();
+            TreeItem<FTPFile> parent = folder.item;
+            FTPFile file = new FTPFile();
+            file.name = VarInt.readString(in);
+            FTPFile folderFile = parent.getValue();
+            file.absolutePath = folderFile.getAbsolutePath() + separator + file.name;
+            // paths on server are usually absolute, so same string is used for both
+            file.path = folderFile.getPath().equals(folderFile.getAbsolutePath()) ? file.absolutePath
+                    : folderFile.getPath() + separator + file.name;
+            file.file = new File(file.path);
+            if (!in.hasRemaining()) {
+                throw new IOException("Truncated tree");
+            }
+            int flags = in.get() & 0xFF;
+            file.directory = (flags & DIRECTORY) != 0;
+            file.canRead = (flags & CAN_READ) != 0;
+            file.canWrite = (flags & CAN_WRITE) != 0;
+            file.canExecute = (flags & CAN_EXECUTE) != 0;
+            file.symLink = (flags & SYM_LINK) != 0;
+            file.length = VarInt.read(in);
+            lastModified += VarInt.readSigned(in);
+            file.lastModified = lastModified;
+            int index = VarInt.readInt(in);
+            if (index == owners.size()) {
+                owners.add(VarInt.readString(in));
+            } else if (index > owners.size()) {
+                throw new IOException("Invalid owner index: " + index);
+            }
+            file.owner = owners.get(index);
+            TreeItem<FTPFile> item = new TreeItem<>(file);
+            folder.children.add(item);
+            if (--folder.remaining == 0) {
+                folders.pop();
+                parent.getChildren().setAll(folder.children);
+            }
+            if (file.directory) {
+                int children = VarInt.readInt(in);
+                if (children > 0) {
+                    folders.push(new Folder(item, children));
+                }
+            }
+        }
+        if (in.hasRemaining()) {
+            throw new IOException("Unexpected " + in.remaining() + " bytes at the end of tree");
+        }
+        return root;
+    }
+}
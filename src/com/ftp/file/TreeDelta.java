@@ -0,0 +1,125 @@
+package com.ftp.file;
+
+import javafx.scene.control.TreeItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains directory tree sent from server in additional data of {@link FTPTransferObject}. It is either whole tree
+ * (snapshot, see {@link TreeCodec}) or list of {@link TreeChange} since version that client reported. Client applies it
+ * to it's {@link RemoteTree}.
+ * <p>
+ * Encoded delta starts with type (1 byte) and version of tree after applying it as variable length integer (see {@link VarInt}),
+ * followed by encoded tree with it's length, or number of changes and changes.
+ */
+public class TreeDelta {
+    private static final int SNAPSHOT = 0;
+    private static final int CHANGES = 1;
+    private final long version;
+    private final byte[] snapshot;
+    private final TreeItem<FTPFile> tree;
+    private final List<TreeChange> changes;
+
+    private TreeDelta(long version, byte[] snapshot, TreeItem<FTPFile> tree, List<TreeChange> changes) {
+        this.version = version;
+        this.snapshot = snapshot;
+        this.tree = tree;
+        this.changes = changes;
+    }
+
+    /**
+     * Creates delta with whole tree.
+     *
+     * @param version    Version of tree
+     * @param serialized Encoded tree (see {@link TreeCodec})
+     * @return Delta
+     */
+    public static TreeDelta snapshot(long version, byte[] serialized) {
+        return new TreeDelta(version, serialized, null, null);
+    }
+
+    /**
+     * Creates delta with changes.
+     *
+     * @param version Version of tree after applying changes
+     * @param changes Changes ordered by version
+     * @return Delta
+     */
+    public static TreeDelta changes(long version, List<TreeChange> changes) {
+        return new TreeDelta(version, null, null, changes);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isSnapshot() {
+        return changes == null;
+    }
+
+    /**
+     * Returns whole tree of decoded snapshot.
+     *
+     * @return Tree, or {@code null} if delta contains changes
+     */
+    public TreeItem<FTPFile> getTree() {
+        return tree;
+    }
+
+    public List<TreeChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Encodes delta to bytes.
+     *
+     * @return Encoded delta
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(isSnapshot() ? snapshot.length + 16 : 16 + changes.size() * 64);
+        out.write(isSnapshot() ? SNAPSHOT : CHANGES);
+        VarInt.write(out, version);
+        if (isSnapshot()) {
+            VarInt.writeBytes(out, snapshot);
+        } else {
+            VarInt.write(out, changes.size());
+            for (TreeChange change : changes) {
+                change.write(out);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes delta from bytes. Snapshot is decoded immediately, so it can be applied quickly.
+     *
+     * @param bytes Encoded delta
+     * @return Decoded delta
+     * @throws IOException If delta is not valid
+     */
+    public static TreeDelta decode(byte[] bytes) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (!in.hasRemaining()) {
+            throw new IOException("Empty tree delta");
+        }
+        int type = in.get() & 0xFF;
+        long version = VarInt.read(in);
+        if (type == SNAPSHOT) {
+            TreeItem<FTPFile> tree = TreeCodec.decode(VarInt.readBytes(in));
+            return new TreeDelta(version, null, tree, null);
+        }
+        if (type != CHANGES) {
+            throw new IOException("Unknown tree delta: " + type);
+        }
+        int count = VarInt.readInt(in);
+        List<TreeChange> changes = new ArrayList<>(Math.min(count, in.remaining()));
+        for (int i = 0; i < count; i++) {
+            changes.add(TreeChange.read(in));
+        }
+        return new TreeDelta(version, null, null, changes);
+    }
+}
@@ -0,0 +1,169 @@
+package com.ftp.file;
+
+import javafx.scene.control.TreeItem;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class scans folder with all it's subfolders for {@link FolderTreeView}. Every subfolder is scanned as separate task
+ * in {@link ForkJoinPool}, so big trees are scanned by all processors.
+ * <p>
+ * On Unix file systems all properties of entry are read with one call (size, times, type, permission bits and owner id), instead of
+ * separate call for every property of {@link FTPFile#FTPFile(java.io.File)}. Names of owners are looked up once for every user id,
+ * and access rights of server process are calculated from permission bits (file system is asked only if result depends on groups of
+ * server user). Symbolic links are followed like in {@link java.io.File}. On other file systems {@link FTPFile} reads it's properties
+ * as before.
+ */
+public class TreeScanner {
+    private static final String ATTRIBUTES = "unix:size,lastModifiedTime,isDirectory,isSymbolicLink,mode,uid";
+    private static final String USER = System.getProperty("user.name");
+    private static final boolean ROOT = "root".equals(USER);
+    private final boolean unix = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    private final Map<Integer, String> owners = new ConcurrentHashMap<>();
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates scanner that uses all available processors.
+     */
+    public TreeScanner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates scanner.
+     *
+     * @param parallelism Number of threads that scan folders
+     */
+    public TreeScanner(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Adds all entries of folder and it's subfolders to given item. Folders that cannot be read are left empty.
+     *
+     * @param folder Item of folder, which is not shown in UI
+     */
+    public void scan(TreeItem<FTPFile> folder) {
+        pool.invoke(new ScanTask(folder, Paths.get(folder.getValue().getAbsolutePath()).toAbsolutePath().normalize()));
+    }
+
+    /**
+     * Reads properties of file.
+     *
+     * @param path Absolute normalized path
+     * @return File with it's properties
+     * @throws IOException If file doesn't exist
+     */
+    public FTPFile read(Path path) throws IOException {
+        if (!unix) {
+            if (Files.notExists(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new NoSuchFileException(path.toString());
+            }
+            return new FTPFile(path.toFile());
+        }
+        Map<String, Object> attributes = Files.readAttributes(path, ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+        FTPFile file = new FTPFile();
+        file.file = path.toFile();
+        file.absolutePath = file.file.getPath();
+        file.path = file.absolutePath;
+        file.name = file.file.getName();
+        file.symLink = (Boolean) attributes.get("isSymbolicLink");
+        if (file.symLink) {
+            try {
+                attributes = Files.readAttributes(path, ATTRIBUTES);
+            } catch (IOException e) {
+                // target of link doesn't exist, link is shown as empty file
+                file.owner = owner(path, (Integer) attributes.get("uid"));
+                return file;
+            }
+        }
+        file.directory = (Boolean) attributes.get("isDirectory");
+        file.length = (Long) attributes.get("size");
+        file.lastModified = ((FileTime) attributes.get("lastModifiedTime")).toMillis();
+        file.owner = owner(path, (Integer) attributes.get("uid"));
+        int mode = (Integer) attributes.get("mode");
+        if (ROOT) {
+            file.canRead = true;
+            file.canWrite = true;
+            file.canExecute = file.directory || (mode & 0111) != 0;
+        } else if (USER.equals(file.owner)) {
+            file.canRead = (mode & 0400) != 0;
+            file.canWrite = (mode & 0200) != 0;
+            file.canExecute = (mode & 0100) != 0;
+        } else if ((mode >> 3 & 07) == (mode & 07)) {
+            file.canRead = (mode & 04) != 0;
+            file.canWrite = (mode & 02) != 0;
+            file.canExecute = (mode & 01) != 0;
+        } else {
+            file.canRead = Files.isReadable(path);
+            file.canWrite = Files.isWritable(path);
+            file.canExecute = Files.isExecutable(path);
+        }
+        return file;
+    }
+
+    private String owner(Path path, int uid) throws IOException {
+        String owner = owners.get(uid);
+        if (owner == null) {
+            owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName();
+            owners.put(uid, owner);
+        }
+        return owner;
+    }
+
+    /**
+     * Task that reads entries of one folder and scans it's subfolders in new tasks.
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final TreeItem<FTPFile> folder;
+        private final Path path;
+
+        ScanTask(TreeItem<FTPFile> folder, Path path) {
+            this.folder = folder;
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            List<TreeItem<FTPFile>> children = new ArrayList<>();
+            List<ScanTask> subfolders = new ArrayList<>();
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(path)) {
+                for (Path entry : directoryStream) {
+                    FTPFile file;
+                    try {
+                        file = read(entry);
+                    } catch (IOException e) {
+                        // entry was deleted while folder was scanned
+                        continue;
+                    }
+                    TreeItem<FTPFile> item = new TreeItem<>(file);
+                    item.setExpanded(false);
+                    children.add(item);
+                    if (file.isDirectory()) {
+                        subfolders.add(new ScanTask(item, entry));
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            // children are added after subfolders are scanned, so items are changed only by one thread
+            invokeAll(subfolders);
+            folder.getChildren().addAll(children);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.ftp.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class contains static methods for writing and reading numbers as variable length integers (7 bits per byte, highest bit
+ * means that more bytes follow), so small numbers take one byte. Signed numbers are zigzag encoded first, so small negative numbers
+ * are small too. Strings and byte arrays are written with their length as variable length integer.
+ */
+public class VarInt {
+
+    /**
+     * Writes non-negative number.
+     *
+     * @param out   Output
+     * @param value Number to be written
+     */
+    public static void write(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Writes signed number.
+     *
+     * @param out   Output
+     * @param value Number to be written
+     */
+    public static void writeSigned(ByteArrayOutputStream out, long value) {
+        write(out, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes byte array with it's length.
+     *
+     * @param out   Output
+     * @param bytes Bytes to be written
+     */
+    public static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        write(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes string as UTF-8 bytes with their length.
+     *
+     * @param out   Output
+     * @param value String to be written
+     */
+    public static void writeString(ByteArrayOutputStream out, String value) {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads non-negative number.
+     *
+     * @param in Input
+     * @return Read number
+     * @throws IOException If number is not complete or longer than 64 bits
+     */
+    public static long read(ByteBuffer in) throws IOException {
+        long value = 0;
+        try {
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated variable length integer");
+        }
+        throw new IOException("Variable length integer is too long");
+    }
+
+    /**
+     * Reads non-negative number that must fit in {@code int}.
+     *
+     * @param in Input
+     * @return Read number
+     * @throws IOException If number is not valid
+     */
+    public static int readInt(ByteBuffer in) throws IOException {
+        long value = read(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Invalid number: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads signed number.
+     *
+     * @param in Input
+     * @return Read number
+     * @throws IOException If number is not valid
+     */
+    public static long readSigned(ByteBuffer in) throws IOException {
+        long value = read(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads byte array written with it's length.
+     *
+     * @param in Input
+     * @return Read bytes
+     * @throws IOException If length is larger than remaining input
+     */
+    public static byte[] readBytes(ByteBuffer in) throws IOException {
+        int length = readInt(in);
+        if (length > in.remaining()) {
+            throw new IOException("Invalid length: " + length + ", " + in.remaining() + " bytes remaining");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads string written with it's length.
+     *
+     * @param in Input
+     * @return Read string
+     * @throws IOException If length is larger than remaining input
+     */
+    public static String readString(ByteBuffer in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,184 @@
+package com.ftp.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Decides which connections server accepts, so many clients (or one client that opens connections in loop) cannot use all threads
+ * and memory of server. Limits are read from {@code server.properties} ({@code 0} is unlimited):
+ * <ul>
+ * <li>{@code handshake.max} - number of connections in key exchange and authentication at once. Connection accepted above it is closed
+ * immediately, before key exchange (server cannot send encrypted response without key)</li>
+ * <li>{@code handshake.timeout} - milliseconds in which client must finish key exchange and send credentials</li>
+ * <li>{@code sessions.max}, {@code sessions.user} (or {@code sessions.user.<username>}) and {@code sessions.ip} - number of logged in
+ * sessions on server, of one user and from one address. Client above these limits gets {@link com.ftp.file.FTPCommand#FAILURE} response
+ * right after authentication and session is not started</li>
+ * <li>{@code idle.timeout} - milliseconds after which session without requests is closed, sessions that download files are not idle</li>
+ * </ul>
+ * Limits can be changed while server is running, they are applied to new connections. Numbers of sessions, waiting handshakes and refused
+ * connections are shown by {@link #report()}.
+ */
+public class AdmissionControl {
+    static final int DEFAULT_HANDSHAKE_MAX = 64;
+    static final int DEFAULT_HANDSHAKE_TIMEOUT = 10000;
+    private Properties config = new Properties();
+    private final Map<String, Integer> users = new HashMap<>();
+    private final Map<String, Integer> addresses = new HashMap<>();
+    private int sessions = 0;
+    private int handshakes = 0;
+    private int maxSessions = 0;
+    private int maxUserSessions = 0;
+    private int maxAddressSessions = 0;
+    private int maxHandshakes = DEFAULT_HANDSHAKE_MAX;
+    private volatile int handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+    private volatile int idleTimeout = 0;
+    private long refusedHandshakes = 0;
+    private long refusedServer = 0;
+    private long refusedUser = 0;
+    private long refusedAddress = 0;
+    private long timedOut = 0;
+    private long idleClosed = 0;
+
+    /**
+     * Applies limits from configuration.
+     *
+     * @param config Server configuration
+     */
+    public synchronized void configure(Properties config) {
+        this.config = config;
+        maxSessions = number("sessions.max", 0);
+        maxUserSessions = number("sessions.user", 0);
+        maxAddressSessions = number("sessions.ip", 0);
+        maxHandshakes = number("handshake.max", DEFAULT_HANDSHAKE_MAX);
+        handshakeTimeout = number("handshake.timeout", DEFAULT_HANDSHAKE_TIMEOUT);
+        idleTimeout = number("idle.timeout", 0);
+    }
+
+    /**
+     * Starts handshake of accepted connection if there is room for it. Every started handshake must be ended with {@link #endHandshake()}.
+     *
+     * @param address Address of client
+     * @return {@code false} if too many connections are in handshake and connection should be closed
+     */
+    synchronized boolean startHandshake(String address) {
+        if (maxHandshakes > 0 && handshakes >= maxHandshakes) {
+            refusedHandshakes++;
+            System.err.println("Connection from " + address + " refused, " + handshakes + " handshakes in progress. " + report());
+            return false;
+        }
+        handshakes++;
+        return true;
+    }
+
+    synchronized void endHandshake() {
+        handshakes--;
+    }
+
+    /**
+     * Counts client that didn't finish handshake in time. Connection is closed by caller.
+     *
+     * @param address Address of client
+     */
+    synchronized void handshakeTimedOut(String address) {
+        timedOut++;
+        System.err.println("Handshake of " + address + " timed out after " + handshakeTimeout + " ms. " + report());
+    }
+
+    /**
+     * Counts session closed because it was idle.
+     */
+    synchronized void idleClosed() {
+        idleClosed++;
+    }
+
+    /**
+     * Admits authenticated session if limits of server, user and address allow it. Admitted session must be released with
+     * {@link #release(String, String)} when it disconnects.
+     *
+     * @param username User of session
+     * @param address  Address of client
+     * @return {@code null} if session is admitted, otherwise message for client
+     */
+    synchronized String admit(String username, String address) {
+        String refused = null;
+        int maxUser = number("sessions.user." + username, maxUserSessions);
+        if (maxSessions > 0 && sessions >= maxSessions) {
+            refusedServer++;
+            refused = "Server is busy, " + sessions + " sessions are connected. Try again later";
+        } else if (maxUser > 0 && users.getOrDefault(username, 0) >= maxUser) {
+            refusedUser++;
+            refused = "Too many sessions of user " + username + " (maximum is " + maxUser + ")";
+        } else if (maxAddressSessions > 0 && addresses.getOrDefault(address, 0) >= maxAddressSessions) {
+            refusedAddress++;
+            refused = "Too many sessions from " + address + " (maximum is " + maxAddressSessions + ")";
+        }
+        if (refused != null) {
+            System.err.println("Session of " + username + " (" + address + ") refused: " + refused + ". " + report());
+            return refused;
+        }
+        sessions++;
+        users.merge(username, 1, Integer::sum);
+        addresses.merge(address, 1, Integer::sum);
+        return null;
+    }
+
+    /**
+     * Releases session admitted with {@link #admit(String, String)}.
+     *
+     * @param username User of session
+     * @param address  Address of client
+     */
+    synchronized void release(String username, String address) {
+        sessions--;
+        users.computeIfPresent(username, (name, count) -> count > 1 ? count - 1 : null);
+        addresses.computeIfPresent(address, (name, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Returns time in which client must finish handshake.
+     *
+     * @return Milliseconds, {@code 0} if there is no limit
+     */
+    int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * Returns time after which session without requests is closed.
+     *
+     * @return Milliseconds, {@code 0} if idle sessions are not closed
+     */
+    int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns number of sessions and waiting handshakes with their limits and number of refused connections for log.
+     *
+     * @return Description of admission state
+     */
+    public synchronized String report() {
+        return "Admission: " + sessions + " sessions (max " + format(maxSessions) + ", per user " + format(maxUserSessions) + ", per address "
+                + format(maxAddressSessions) + "), " + handshakes + " handshakes in progress (max " + format(maxHandshakes) + "), refused "
+                + refusedHandshakes + " handshakes, " + refusedServer + " server full, " + refusedUser + " user limit, " + refusedAddress
+                + " address limit, " + timedOut + " handshakes timed out, " + idleClosed + " idle sessions closed";
+    }
+
+    private static String format(int limit) {
+        return limit == 0 ? "unlimited" : "" + limit;
+    }
+
+    private int number(String key, int defaultValue) {
+        String value = config.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value of " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+}
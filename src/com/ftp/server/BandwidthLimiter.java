@@ -0,0 +1,151 @@
+package com.ftp.server;
+
+import com.ftp.file.SessionOptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+
+/**
+ * Limits rate of file data that server sends to clients, so one user that downloads big file cannot take whole uplink. Limits are
+ * read from {@code server.properties} in bytes per second (with K/M suffix, {@code 0} is unlimited): {@code rate.global} for all
+ * clients together, {@code rate.user} for all sessions of one user and {@code rate.session} for one session. Limit of user can be
+ * set for every user with {@code rate.user.<username>}. Every session has it's own {@link SessionShaper}, which uses token buckets
+ * of these limits (see {@link TokenBucket}).
+ * <p>
+ * Global rate is split between sessions that are sending files at the moment by weighted fair share (weight of user is
+ * {@code rate.weight.<username>}, default 1): every session gets part of global rate by it's weight, and part that session cannot
+ * use because of it's own limit is split again between other sessions. Shares are calculated again when session starts or stops
+ * sending files and when limits are changed. Limits can be changed while server is running ({@link #configure(Properties)}), they
+ * are applied to sessions that are already connected.
+ */
+public class BandwidthLimiter {
+    private final TokenBucket global = new TokenBucket(0);
+    private final Map<String, TokenBucket> users = new HashMap<>();
+    private final Map<SessionShaper, Boolean> sessions = new WeakHashMap<>();
+    private final List<SessionShaper> active = new ArrayList<>();
+    private Properties config = new Properties();
+    private long sessionRate = 0;
+    private long userRate = 0;
+
+    /**
+     * Applies limits from configuration. Limits of connected sessions and users are changed and shares are calculated again.
+     *
+     * @param config Server configuration
+     */
+    public synchronized void configure(Properties config) {
+        this.config = config;
+        global.setRate(rate("rate.global"));
+        sessionRate = rate("rate.session");
+        userRate = rate("rate.user");
+        for (Map.Entry<String, TokenBucket> user : users.entrySet()) {
+            user.getValue().setRate(userRate(user.getKey()));
+        }
+        for (SessionShaper session : sessions.keySet()) {
+            session.getSession().setRate(sessionRate);
+        }
+        rebalance();
+    }
+
+    /**
+     * Creates limits for new session of user.
+     *
+     * @param username User of session
+     * @return Session's limits
+     */
+    synchronized SessionShaper newSession(String username) {
+        TokenBucket user = users.computeIfAbsent(username, name -> new TokenBucket(userRate(name)));
+        SessionShaper session = new SessionShaper(this, username, new TokenBucket(sessionRate), user);
+        sessions.put(session, Boolean.TRUE);
+        return session;
+    }
+
+    TokenBucket getGlobal() {
+        return global;
+    }
+
+    synchronized void setActive(SessionShaper session, boolean sending) {
+        if (sending) {
+            active.add(session);
+        } else {
+            active.remove(session);
+        }
+        rebalance();
+    }
+
+    /**
+     * Splits global rate between active sessions by their weights (water filling): sessions are taken from the one with smallest
+     * limit per weight, each gets it's weighted part of remaining rate but not more than it's limit, and the rest stays for others.
+     */
+    private void rebalance() {
+        long rate = global.getRate();
+        if (rate == 0) {
+            for (SessionShaper session : active) {
+                session.getShare().setRate(0);
+            }
+            return;
+        }
+        List<SessionShaper> order = new ArrayList<>(active);
+        Collections.sort(order, (a, b) -> Double.compare(capPerWeight(a), capPerWeight(b)));
+        double remaining = rate;
+        double weights = 0;
+        for (SessionShaper session : order) {
+            weights += weight(session.getUsername());
+        }
+        for (SessionShaper session : order) {
+            double weight = weight(session.getUsername());
+            double share = remaining * weight / weights;
+            if (session.getCap() > 0) {
+                share = Math.min(share, session.getCap());
+            }
+            session.getShare().setRate(Math.max(1, (long) share));
+            remaining -= share;
+            weights -= weight;
+        }
+    }
+
+    private double capPerWeight(SessionShaper session) {
+        return session.getCap() == 0 ? Double.MAX_VALUE : session.getCap() / weight(session.getUsername());
+    }
+
+    private double weight(String username) {
+        try {
+            return Math.max(0.01, Double.parseDouble(config.getProperty("rate.weight." + username, "1").trim()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private long userRate(String username) {
+        String rate = config.getProperty("rate.user." + username);
+        return rate == null ? userRate : SessionOptions.parseSize(rate, 0);
+    }
+
+    private long rate(String key) {
+        return Math.max(0, SessionOptions.parseSize(config.getProperty(key), 0));
+    }
+
+    /**
+     * Returns current limits and shares for log.
+     *
+     * @return Description of limits
+     */
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder("Rate limits: global " + format(global.getRate()) + ", user " + format(userRate)
+                + ", session " + format(sessionRate) + ", " + active.size() + " sessions sending");
+        if (global.getRate() > 0) {
+            for (SessionShaper session : active) {
+                report.append(", ").append(session.getUsername()).append(' ').append(format(session.getShare().getRate()));
+            }
+        }
+        return report.toString();
+    }
+
+    private static String format(long rate) {
+        return rate == 0 ? "unlimited" : rate / 1024 + " KB/s";
+    }
+}
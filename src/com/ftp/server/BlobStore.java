@@ -0,0 +1,210 @@
+package com.ftp.server;
+
+import com.ftp.file.FileHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Content addressed storage of uploaded files, used when deduplication is enabled ({@code dedup=1} in {@code server.properties}).
+ * Every stored file is hard link to blob named by SHA-256 of it's content ({@code store/ab/abcd...}), so files with same content
+ * in different folders share one copy on disk, and number of links of blob is it's reference count. Blob that has only one link
+ * (store itself) is not used by any file and it is deleted by {@link #collect()}.
+ * <p>
+ * Before upload client announces hash of file ({@link com.ftp.file.FTPCommand#LINK}), and if blob with that hash exists file is
+ * created from it ({@link #link(byte[], long, File)}) and it is not uploaded at all. Uploaded files are added to store after they
+ * are received ({@link #store(File)}), server calculates hash itself, so client cannot link other content than it sent.
+ * Files are never written in place after they are stored, uploads are written to partial files that replace them.
+ * Store should be on same file system as server's root folder, otherwise files are copied instead of linked.
+ */
+public class BlobStore {
+    private final Path root;
+    private final boolean unix = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    private final AtomicBoolean collecting = new AtomicBoolean();
+    private final ExecutorService collector = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "Blob collector");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long blobs = 0;
+    private long uniqueBytes = 0;
+    private long logicalBytes = 0;
+    private long savedBytes = 0;
+    private long skippedBytes = 0;
+
+    /**
+     * Opens store in given folder, folder is created if it doesn't exist. Unused blobs are deleted and statistics are counted.
+     *
+     * @param root Folder of store
+     * @throws IOException If folder cannot be created
+     */
+    public BlobStore(Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        Files.createDirectories(this.root);
+        collect();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Creates file from stored blob with given hash. Existing file is replaced.
+     *
+     * @param hash SHA-256 of content
+     * @param size Size of content, it must be same as size of blob
+     * @param file File to be created
+     * @return {@code true} if file is created, {@code false} if there is no such blob
+     * @throws IOException If file cannot be created
+     */
+    public boolean link(byte[] hash, long size, File file) throws IOException {
+        Path blob = blob(hash);
+        if (!Files.isRegularFile(blob) || Files.size(blob) != size) {
+            return false;
+        }
+        replace(file.toPath(), blob);
+        synchronized (this) {
+            logicalBytes += size;
+            skippedBytes += size;
+        }
+        return true;
+    }
+
+    /**
+     * Adds received file to store. If blob with same content exists file is replaced with link to it, otherwise file becomes new blob.
+     *
+     * @param file Received file
+     * @throws IOException If file cannot be read or linked
+     */
+    public void store(File file) throws IOException {
+        long size = file.length();
+        Path blob = blob(FileHash.sha256(file));
+        if (!Files.isRegularFile(blob)) {
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, file.toPath());
+                synchronized (this) {
+                    blobs++;
+                    uniqueBytes += size;
+                    logicalBytes += size;
+                }
+                return;
+            } catch (FileAlreadyExistsException e) {
+                // same content was stored by other session in the meantime
+            }
+        }
+        if (Files.isSameFile(blob, file.toPath())) {
+            return;
+        }
+        replace(file.toPath(), blob);
+        synchronized (this) {
+            logicalBytes += size;
+            savedBytes += size;
+        }
+    }
+
+    /**
+     * Replaces file with link to blob. Link is created next to file and renamed over it, so file always has old or new content.
+     */
+    private void replace(Path file, Path blob) throws IOException {
+        Path link = file.resolveSibling(file.getFileName() + ".link");
+        Files.deleteIfExists(link);
+        try {
+            Files.createLink(link, blob);
+        } catch (UnsupportedOperationException | IOException e) {
+            // store is on other file system or it doesn't support links
+            Files.copy(blob, link);
+        }
+        try {
+            Files.move(link, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(link, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(link);
+        }
+    }
+
+    /**
+     * Deletes blobs that are not used by any file and counts statistics again. Number of links is known only on systems with
+     * unix attributes, on other systems blobs are never deleted.
+     */
+    public void collect() {
+        long count = 0;
+        long unique = 0;
+        long logical = 0;
+        long deleted = 0;
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(root)) {
+            for (Path folder : folders) {
+                if (!Files.isDirectory(folder)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                    for (Path blob : stream) {
+                        long size = Files.size(blob);
+                        int links = unix ? (Integer) Files.getAttribute(blob, "unix:nlink") : 2;
+                        if (links <= 1) {
+                            Files.deleteIfExists(blob);
+                            deleted++;
+                            continue;
+                        }
+                        count++;
+                        unique += size;
+                        logical += size * (links - 1);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        synchronized (this) {
+            blobs = count;
+            uniqueBytes = unique;
+            logicalBytes = logical;
+        }
+        if (deleted > 0) {
+            System.out.println("Deleted " + deleted + " unused blobs. " + report());
+        }
+    }
+
+    /**
+     * Runs {@link #collect()} in background, after files are deleted or replaced. Only one collection waits at a time.
+     */
+    public void collectLater() {
+        if (collecting.compareAndSet(false, true)) {
+            collector.execute(() -> {
+                collecting.set(false);
+                collect();
+            });
+        }
+    }
+
+    /**
+     * Returns statistics of store: size of files that use store and size of their unique content (deduplication ratio), bytes that
+     * are not written to disk because content was already stored, and bytes that are not uploaded at all.
+     *
+     * @return Statistics for log
+     */
+    public synchronized String report() {
+        return "Deduplication: " + blobs + " blobs (" + uniqueBytes + " bytes) for " + logicalBytes + " bytes of files, ratio "
+                + String.format("%.2f", uniqueBytes == 0 ? 1.0 : (double) logicalBytes / uniqueBytes) + ", " + savedBytes
+                + " bytes not stored again, " + skippedBytes + " bytes not uploaded";
+    }
+
+    private Path blob(byte[] hash) {
+        String name = FileHash.toHex(hash);
+        return root.resolve(name.substring(0, 2)).resolve(name);
+    }
+}
@@ -1,14 +1,20 @@
 package com.ftp.server;
 
+import com.ftp.file.CryptoContext;
+import com.ftp.file.FrameReader;
+import com.ftp.file.SessionOptions;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class represents client. It contains client username,password and unique socket assigned to it. Input and output stream are derived from socket.
- * It contains methods for getting client data such as IP.
+ * It contains methods for getting client data such as IP. All data sent to client goes through client's {@link OutboundQueue}.
  *
  * @author Stefan
  */
@@ -17,6 +23,16 @@ public class ClientConnection {
     private final String password;
     private final Socket socket;
     private String key;
+    private CryptoContext crypto;
+    private NIOSession session;
+    private OutboundQueue outbound = new OutboundQueue();
+    private SessionShaper shaper;
+    private FrameReader reader;
+    private SessionOptions options = new SessionOptions();
+    private UploadBatch uploadBatch;
+    private final Map<Integer, UploadStream> uploads = new ConcurrentHashMap<>();
+    private int requestId;
+    private volatile long treeVersion = 0;
 
     public ClientConnection(String username, String password, Socket socket) {
         this.username = username;
@@ -47,8 +63,151 @@ public class ClientConnection {
         return key;
     }
 
+    /**
+     * Sets key generated with client and creates session's {@link CryptoContext} from it.
+     *
+     * @param key Generated key
+     */
     public void setKey(String key) {
         this.key = key;
+        this.crypto = new CryptoContext(key, false);
+    }
+
+    /**
+     * Returns context used for encrypting data sent to client and decrypting data received from client.
+     *
+     * @return Crypto context
+     */
+    public CryptoContext getCrypto() {
+        return crypto;
+    }
+
+    /**
+     * Returns {@link NIOSession} that serves this client in {@link ServerMode#NIO} mode.
+     *
+     * @return Session or {@code null} in {@link ServerMode#BLOCKING} mode
+     */
+    public NIOSession getSession() {
+        return session;
+    }
+
+    public void setSession(NIOSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Returns reader of client's socket. It is used in blocking modes only.
+     *
+     * @return Frame reader
+     */
+    public FrameReader getReader() {
+        return reader;
+    }
+
+    public void setReader(FrameReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Returns options negotiated with client using {@link com.ftp.file.FTPCommand#OPTS} command.
+     *
+     * @return Session options
+     */
+    public SessionOptions getOptions() {
+        return options;
+    }
+
+    public void setOptions(SessionOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Returns id of request that is executed, responses are sent with that id (see {@link com.ftp.file.FTPTransferObject#getRequestId()}).
+     * Requests of client are executed by one thread at a time (reading thread, or event loop in {@link ServerMode#NIO} mode).
+     *
+     * @return Request id
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(int requestId) {
+        this.requestId = requestId;
+    }
+
+    /**
+     * Returns uploads whose files are being received, by request id. Uploads are added and finished only by thread that reads from client.
+     *
+     * @return Uploads of client
+     */
+    Map<Integer, UploadStream> getUploads() {
+        return uploads;
+    }
+
+    /**
+     * Returns files received with {@link com.ftp.file.FTPCommand#MPUT} that are not stored yet.
+     *
+     * @return Current batch or {@code null} if client isn't uploading batch
+     */
+    public UploadBatch getUploadBatch() {
+        return uploadBatch;
+    }
+
+    public void setUploadBatch(UploadBatch uploadBatch) {
+        this.uploadBatch = uploadBatch;
+    }
+
+    /**
+     * Returns version of directory tree that client has. It is version reported by client in last command, or version
+     * sent to client after that.
+     *
+     * @return Tree version
+     */
+    public long getTreeVersion() {
+        return treeVersion;
+    }
+
+    public void setTreeVersion(long treeVersion) {
+        this.treeVersion = treeVersion;
+    }
+
+    public OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Sets outbound queue. It is used in {@link ServerMode#NIO} mode where session starts sending data before client is authenticated.
+     *
+     * @param outbound Outbound queue
+     */
+    public void setOutbound(OutboundQueue outbound) {
+        this.outbound = outbound;
+        if (shaper != null) {
+            outbound.setShaper(shaper);
+        }
+    }
+
+    /**
+     * Sets rate limits of session (see {@link BandwidthLimiter}), files are sent from outbound queue only as fast as they allow.
+     *
+     * @param shaper Rate limits of session
+     */
+    void setShaper(SessionShaper shaper) {
+        this.shaper = shaper;
+        outbound.setShaper(shaper);
+    }
+
+    /**
+     * Closes client's outbound queue, socket and partial files of unfinished uploads.
+     *
+     * @throws IOException If socket cannot be closed
+     */
+    public void close() throws IOException {
+        outbound.close();
+        socket.close();
+        for (UploadStream upload : uploads.values()) {
+            upload.close();
+        }
     }
 
     public Socket getSocket() {
@@ -15,11 +15,21 @@ public class ConnectionManager {
         clients = new LinkedList<>();
     }
 
-    public void addClient(ClientConnection client) {
+    public synchronized void addClient(ClientConnection client) {
         clients.add(client);
     }
 
-    public void removeClient(ClientConnection currentClient) {
-        clients.remove(currentClient);
+    /**
+     * Removes client from list.
+     *
+     * @param currentClient Client to remove
+     * @return {@code true} if client was in list
+     */
+    public synchronized boolean removeClient(ClientConnection currentClient) {
+        return clients.remove(currentClient);
+    }
+
+    public synchronized int size() {
+        return clients.size();
     }
 }
@@ -0,0 +1,113 @@
+package com.ftp.server;
+
+import com.ftp.file.FrameCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File that is sent to client without encryption, in sessions where encryption is disabled (see {@link com.ftp.file.SessionOptions}).
+ * File is sent using {@link FileChannel#transferTo}, so when client's channel is socket channel operating system sends file
+ * directly from page cache and file bytes never pass through Java heap. File is sent in frames of {@link #FRAME_SIZE} bytes of stream
+ * of request (see {@link FrameCodec}), every frame is header followed by file bytes. File can be sent from offset, for continuing
+ * interrupted download, and only segment of given length can be sent. File is opened when writer reaches it.
+ */
+public class DirectFileOutbound implements Outbound {
+    public static final int FRAME_SIZE = 1024 * 1024;
+
+    private final File path;
+    private final long size;
+    private final int stream;
+    private FileChannel file;
+    private long position;
+    private ByteBuffer header;
+    private long frameEnd;
+
+    /**
+     * Creates file that is sent in frames of given stream.
+     *
+     * @param path   File to be sent
+     * @param offset Offset from which file is sent
+     * @param length Number of bytes to be sent
+     * @param stream Id of request
+     */
+    public DirectFileOutbound(File path, long offset, long length, int stream) {
+        this.path = path;
+        this.position = offset;
+        this.size = offset + length;
+        this.stream = stream;
+        this.frameEnd = offset;
+    }
+
+    @Override
+    public ByteBuffer next() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isDirect() {
+        return true;
+    }
+
+    /**
+     * Writes next part of current frame, or starts next frame if current is written.
+     *
+     * @param channel Client's channel
+     * @return Number of written file bytes (header is not counted), or -1 if whole file is sent
+     * @throws IOException If file cannot be read or was truncated
+     */
+    @Override
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        if (position >= size) {
+            close();
+            return -1;
+        }
+        if (file == null) {
+            file = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+        }
+        if (position == frameEnd) {
+            int length = (int) Math.min(size - position, FRAME_SIZE);
+            header = ByteBuffer.wrap(FrameCodec.header(length, stream));
+            frameEnd = position + length;
+        }
+        if (header.hasRemaining()) {
+            channel.write(header);
+            if (header.hasRemaining()) {
+                return 0;
+            }
+        }
+        long written = file.transferTo(position, frameEnd - position, channel);
+        if (written == 0 && position >= file.size()) {
+            throw new IOException("File was truncated while sending");
+        }
+        position += written;
+        return written;
+    }
+
+    @Override
+    public int getStream() {
+        return stream;
+    }
+
+    @Override
+    public boolean hasPendingFrame() {
+        return position < frameEnd;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return position >= size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+}
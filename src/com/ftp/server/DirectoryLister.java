@@ -0,0 +1,116 @@
+package com.ftp.server;
+
+import com.ftp.file.DirectoryPage;
+import com.ftp.file.FTPFile;
+import com.ftp.file.ListOptions;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class lists one page of folder for {@link com.ftp.file.FTPCommand#LIST}. Folder is read with {@link DirectoryStream} (filtered by
+ * glob if requested) and only entries that come after cursor are kept in heap limited to page size, so folder is never read into memory
+ * whole, no matter how many entries it has. Attributes are read only if entries are sorted by size or modification time,
+ * and {@link FTPFile} is created only for entries of the page.
+ */
+public class DirectoryLister {
+
+    private static class Entry {
+        final Path path;
+        final String name;
+        final long key;
+
+        Entry(Path path, String name, long key) {
+            this.path = path;
+            this.name = name;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Lists page of folder.
+     *
+     * @param directory Folder to be listed
+     * @param options   Sort, filter, page size and cursor
+     * @return Page with entries
+     * @throws IOException If folder cannot be read or filter is not valid glob
+     */
+    public static DirectoryPage list(Path directory, ListOptions options) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new NotDirectoryException(directory.toString());
+        }
+        Comparator<Entry> order = Comparator.comparingLong((Entry e) -> e.key).thenComparing(e -> e.name);
+        if (options.isDescending()) {
+            order = order.reversed();
+        }
+        Entry cursor = options.isFirstPage() ? null : new Entry(null, options.getAfterName(),
+                options.getSort() == ListOptions.Sort.NAME ? 0 : options.getAfterKey());
+        // heap keeps first entries of page, largest on top, so it is removed when heap is full
+        PriorityQueue<Entry> page = new PriorityQueue<>(Math.min(options.getLimit(), 1024) + 1, order.reversed());
+        boolean more = false;
+        try (DirectoryStream<Path> stream = open(directory, options.getFilter())) {
+            for (Path path : stream) {
+                Entry entry = entry(path, options.getSort());
+                if (entry == null || cursor != null && order.compare(entry, cursor) <= 0) {
+                    continue;
+                }
+                page.add(entry);
+                if (page.size() > options.getLimit()) {
+                    page.poll();
+                    more = true;
+                }
+            }
+        }
+        List<FTPFile> entries = new ArrayList<>(page.size());
+        Entry last = page.peek();
+        while (!page.isEmpty()) {
+            entries.add(new FTPFile(page.poll().path.toFile()));
+        }
+        Collections.reverse(entries);
+        return new DirectoryPage(new FTPFile(directory.toFile()), entries, more, more ? last.name : null, more ? last.key : 0);
+    }
+
+    /**
+     * Opens folder, filtered by glob if it is given.
+     *
+     * @param directory Folder to be listed
+     * @param filter    Glob pattern sent by client, or {@code null}
+     * @return Stream of folder entries
+     * @throws IOException If folder cannot be read or pattern is not valid
+     */
+    private static DirectoryStream<Path> open(Path directory, String filter) throws IOException {
+        if (filter == null) {
+            return Files.newDirectoryStream(directory);
+        }
+        try {
+            return Files.newDirectoryStream(directory, filter);
+        } catch (PatternSyntaxException e) {
+            throw new IOException("Invalid filter: " + e.getDescription(), e);
+        }
+    }
+
+    private static Entry entry(Path path, ListOptions.Sort sort) {
+        String name = path.getFileName().toString();
+        if (sort == ListOptions.Sort.NAME) {
+            return new Entry(path, name, 0);
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new Entry(path, name, sort == ListOptions.Sort.SIZE ? attributes.size() : attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            // entry was deleted while folder was listed
+            return null;
+        }
+    }
+}
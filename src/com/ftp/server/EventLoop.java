@@ -0,0 +1,229 @@
+package com.ftp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event loop is single thread with it's own {@link Selector} that serves many {@link NIOSession}s. Every session is always
+ * served by the same event loop, so session state is never accessed from multiple threads. Tasks can be delayed
+ * ({@link #schedule(Runnable, long)}), for example writing of session that waits for rate limits. If event loop stops because of
+ * error, all of it's sessions are closed, so they don't keep handshake slots (see {@link AdmissionControl}) and clients.
+ */
+public class EventLoop implements Runnable {
+    private final FTPServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final ByteBuffer batchBuffer = ByteBuffer.allocateDirect(OutboundQueue.BATCH_SIZE);
+    private Thread thread;
+    private volatile boolean stopped = false;
+
+    public EventLoop(FTPServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Starts thread of this event loop.
+     *
+     * @param name Thread name
+     */
+    public void start(String name) {
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Checks if current thread is thread of this event loop.
+     *
+     * @return {@code true} if called from event loop
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Checks if event loop was stopped because of error. Stopped event loop doesn't accept new channels.
+     *
+     * @return {@code true} if event loop is stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns buffer shared by all sessions of this event loop, used for collecting data before writing it to channel.
+     *
+     * @return Batch buffer
+     */
+    ByteBuffer getBatchBuffer() {
+        return batchBuffer;
+    }
+
+    /**
+     * Runs task on event loop thread.
+     *
+     * @param task Task to be executed
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs task on event loop thread after given time. Must be called from event loop.
+     *
+     * @param task  Task to be executed
+     * @param delay Delay in nanoseconds
+     */
+    void schedule(Runnable task, long delay) {
+        timers.add(new Timer(System.nanoTime() + delay, task));
+    }
+
+    /**
+     * Registers accepted channel with this event loop. {@link NIOSession} is created on event loop thread.
+     *
+     * @param channel Accepted non-blocking channel
+     * @throws IOException If event loop is stopped, channel is not registered
+     */
+    public void register(SocketChannel channel) throws IOException {
+        Runnable task = () -> {
+            NIOSession session = new NIOSession(server, this, channel);
+            try {
+                if (stopped) {
+                    throw new IOException("Event loop " + thread.getName() + " is stopped");
+                }
+                session.register(selector);
+            } catch (IOException | RuntimeException e) {
+                server.addToLog(e);
+                session.close();
+            }
+        };
+        if (stopped) {
+            throw new IOException("Event loop " + thread.getName() + " is stopped");
+        }
+        execute(task);
+        // event loop could stop after check, registration that is not run by stopping loop is taken back
+        if (stopped && tasks.remove(task)) {
+            throw new IOException("Event loop " + thread.getName() + " is stopped");
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            loop();
+        } finally {
+            stop();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            try {
+                if (timers.isEmpty()) {
+                    selector.select();
+                } else {
+                    long timeout = (timers.peek().deadline - System.nanoTime()) / 1_000_000;
+                    if (timeout > 0) {
+                        selector.select(timeout);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+            } catch (IOException e) {
+                server.addToLog(e);
+                return;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                runTask(task);
+            }
+            long now = System.nanoTime();
+            while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+                runTask(timers.poll().task);
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NIOSession session = (NIOSession) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        session.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.onWritable();
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    session.close();
+                } catch (RuntimeException e) {
+                    // error of one session (for example invalid data sent by client) must not stop other sessions of this loop
+                    server.addToLog(e);
+                    session.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops event loop after error. Sessions are closed, waiting tasks are run, so registrations that were not run close their
+     * sessions and other tasks see closed sessions.
+     */
+    private void stop() {
+        stopped = true;
+        System.err.println("Event loop " + thread.getName() + " stopped, closing " + selector.keys().size() + " sessions");
+        for (SelectionKey key : selector.keys()) {
+            runTask(((NIOSession) key.attachment())::close);
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runTask(task);
+        }
+        timers.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            server.addToLog(e);
+        }
+    }
+
+    /**
+     * Runs task or timer, error of task is logged, so it doesn't stop event loop.
+     *
+     * @param task Task to be executed
+     */
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            server.addToLog(e);
+        }
+    }
+
+    /**
+     * Task that is run at given time.
+     */
+    private static class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -4,21 +4,40 @@ import com.ftp.file.*;
 import javafx.scene.control.TreeItem;
 
 import java.io.*;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 /**
  * This is basic class that represents FTP server. It uses {@link Socket} for opening connection with given port and communicate with {@link FTPTransferObject}. It has 2 main threads,
- * one for reading and one for writing to socket input/output stream assigned to each client. Upon client connecting, after creating key for encryption
+ * one for reading and one for writing to socket input/output stream assigned to each client. Writing thread sends data from client's {@link OutboundQueue}. Upon client connecting, after creating key for encryption
  * it reads username and password as plain {@link String} and after that, if credentials are correct, client can get it's own socket,
  * then runs read thread which is responsible for listening and reading {@link FTPTransferObject} from each client.
- * On client connected, server sends object to client that contains {@link TreeItem} with folders/files from it.
- * Thread for writing to socket output stream runs on command received from client, while reading thread for each client works infinitely (until client disconnect).
+ * After session options are negotiated, server sends object to client that contains {@link TreeItem} with folders/files from it, unless
+ * client loads folders on demand with {@link FTPCommand#LIST} (see {@link SessionOptions#isLazyTree()}).
+ * Responses are added to queue on command received from client, while reading and writing thread for each client work infinitely (until client disconnect).
+ * Every request has id chosen by client, response is sent with same id and file of request is sent in frames of stream with that id
+ * (see {@link FrameCodec}), so client can run many transfers and other commands at once on one session.
+ * This is default {@link ServerMode#BLOCKING} mode, in {@link ServerMode#NIO} mode all clients are served by {@link NIOServer} on small number of event loops.
+ * Threads are started by session executor (see {@link SessionExecutors}), which uses virtual threads in {@link ServerMode#VIRTUAL} mode.
  *
  * @author Stefan
  */
@@ -26,111 +45,552 @@ public class FTPServer {
     private FolderTreeView ftv;
     private final ConnectionManager manager;
     private final int port;
+    private final ServerMode mode;
+    private final int eventLoops;
+    private Executor sessionExecutor;
     private Logger logger = Logger.getLogger("ErrorLoggerServer");
     private FileHandler fh;
     private final Map<String, String> credentials = new HashMap<>();
+    private final Properties config = new Properties();
+    static final long WRITE_TIMEOUT = 60000;
+    private static final int DEFAULT_HASH_CACHE = 1024;
+    private static final int DEFAULT_MAP_THRESHOLD = 16 * 1024 * 1024;
+    private volatile int maxChunkSize = SessionOptions.DEFAULT_MAX_CHUNK_SIZE;
+    private volatile long mapThreshold = DEFAULT_MAP_THRESHOLD;
+    private BlobStore blobs;
+    private HashCache hashes = new HashCache(DEFAULT_HASH_CACHE);
+    private final Executor workers = SessionExecutors.workerThreads();
+    private final Executor requests = SessionExecutors.requestThreads();
+    private final BandwidthLimiter bandwidth = new BandwidthLimiter();
+    private final AdmissionControl admission = new AdmissionControl();
+    private final ScheduledExecutorService timer = SessionExecutors.timerThread();
+    private static final long CONFIG_CHECK_INTERVAL = 2000;
 
     public FTPServer(int port) {
+        this(port, ServerMode.BLOCKING, Runtime.getRuntime().availableProcessors());
+    }
+
+    public FTPServer(int port, ServerMode mode, int eventLoops) {
         this.port = port;
+        this.mode = mode;
+        this.eventLoops = eventLoops;
+        this.sessionExecutor = mode == ServerMode.VIRTUAL ? SessionExecutors.virtualThreads() : SessionExecutors.platformThreads();
         manager = new ConnectionManager();
     }
 
+    /**
+     * Sets executor used for running reading and writing of client sessions in blocking modes.
+     *
+     * @param sessionExecutor Session executor
+     */
+    public void setSessionExecutor(Executor sessionExecutor) {
+        this.sessionExecutor = sessionExecutor;
+    }
+
+    /**
+     * Sets maximum size of file chunk that server offers to clients. It can be changed while server is running,
+     * new value is used for sessions that log in after the change.
+     *
+     * @param maxChunkSize Maximum chunk size in bytes, at least {@link SessionOptions#MIN_CHUNK_SIZE}
+     */
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = Math.max(SessionOptions.MIN_CHUNK_SIZE, maxChunkSize);
+    }
+
+    /**
+     * Sets size from which encrypted files are sent from memory mapped file instead of being read to chunk buffer (see {@link FileOutbound}).
+     * It can be changed while server is running, new value is used for downloads that start after the change.
+     *
+     * @param mapThreshold File size in bytes, {@code 0} if files are never mapped
+     */
+    public void setMapThreshold(long mapThreshold) {
+        this.mapThreshold = Math.max(0, mapThreshold);
+    }
+
     /**
      * This method opens connection on given port and server is ready for accepting connections. When client connects, server reads it's credentials,
      * and if they are correct server creates {@link ClientConnection} object and add client to list of active clients. Connected client will
      * get it's own socket and thread responsible for reading and writing to it's socket. After that first object with repository explorer
-     * will be sent to client. On failed authentication server refuses connection.
+     * will be sent to client. On failed authentication server refuses connection. Sockets are accepted through {@link ServerSocketChannel}
+     * (in blocking mode), so files can be sent directly to socket channel in sessions without encryption. Handshake of every client runs
+     * on it's own thread with time limit, so client that never sends key doesn't stop accepting of others, and number of handshakes at once
+     * and of sessions is limited (see {@link AdmissionControl}).
      */
     public void createSocket() throws IOException {
         ftv = new FolderTreeView(new FTPFile(System.getProperty("user.dir")));
+        ftv.watch();
         loadCredentials();
-        ServerSocket serverSocket = new ServerSocket(port);
+        loadConfig();
+        if (mode == ServerMode.NIO) {
+            configureLog();
+            new NIOServer(this, port, eventLoops).start();
+            return;
+        }
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(port));
         configureLog();
         System.err.println("Server ready");
         while (true) {
-            Socket socket = null;
-            ClientConnection currentClient = null;
+            Socket socket;
             try {
-                socket = serverSocket.accept();
-                currentClient = authenticateUser(socket);
-                if (currentClient != null) {
-                    manager.addClient(currentClient);
-                }
-                System.out.println("Clients available: " + manager.clients.size());
+                socket = serverSocket.accept().socket();
+                // responses are small frames, they are sent right away instead of waiting for acknowledgement of previous data
+                socket.setTcpNoDelay(true);
             } catch (IOException io) {
                 addToLog(io);
-                assert socket != null;
+                continue;
+            }
+            if (!admission.startHandshake(getAddress(socket))) {
                 socket.close();
-                System.err.println("Client has been disconnected! Error: " + io.getMessage());
-                System.out.println("Clients remaining: " + manager.clients.size());
+                continue;
             }
+            sessionExecutor.execute(() -> {
+                Future<?> deadline = expireHandshake(socket);
+                try {
+                    if (authenticateUser(socket, deadline) != null) {
+                        System.out.println("Clients available: " + manager.size());
+                    }
+                } catch (IOException | RuntimeException io) {
+                    // expired handshake is already reported
+                    if (deadline.cancel(false)) {
+                        addToLog(io);
+                        System.err.println("Client has been disconnected! Error: " + io.getMessage());
+                    }
+                    try {
+                        socket.close();
+                    } catch (IOException ioException) {
+                        addToLog(ioException);
+                    }
+                } finally {
+                    admission.endHandshake();
+                }
+            });
         }
 
     }
 
+    /**
+     * Closes socket of client if handshake is not finished in {@code handshake.timeout}.
+     *
+     * @param socket Socket of client in handshake
+     * @return Deadline, cancel of deadline fails if socket was already closed
+     */
+    private Future<?> expireHandshake(Socket socket) {
+        int timeout = admission.getHandshakeTimeout();
+        if (timeout == 0) {
+            return new CompletableFuture<>();
+        }
+        return timer.schedule(() -> {
+            admission.handshakeTimedOut(getAddress(socket));
+            try {
+                socket.close();
+            } catch (IOException e) {
+                addToLog(e);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * This method is responsible for listening to each client socket and reading commands from it. After client sends {@link FTPTransferObject} server
      * receives it and reads {@link FTPCommand}. Depends on command certain actions are performed, some of them locally some of them returns file to client.
+     * Uploaded files come in frames of their streams (see {@link UploadStream}), so other commands are read and executed while files are received.
+     * Session that sends nothing in {@code idle.timeout} and doesn't download files is closed (see {@link #closeIdle(ClientConnection)}).
      *
      * @param client The client for whom this thread is responsible
      */
     public void readFromSocket(ClientConnection client) {
-        Thread readThread = new Thread(() -> {
+        sessionExecutor.execute(() -> {
             while (client.getSocket().isConnected()) {
                 try {
-                    FTPTransferObject readObject = readObjectFromStream(client);
-                    readFileFromStream(client, readObject);
-
-                    if (readObject.getCommand().equals(FTPCommand.GET)) {
-                        System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested download of " + readObject.getPathServer());
-                        writeToSocket(client, readObject.getPathServer(), FTPCommand.GET, 1, "File sent successfully");
-                    }
-                    if (readObject.getCommand().equals(FTPCommand.CLOSE)) {
-                        manager.removeClient(client);
-                        System.err.println(client.getUsername() + " (" + client.getClientIP() + ") requested disconnect. Disconnecting " + client.getClientIP());
-                        System.out.println("Clients remaining: " + manager.clients.size());
-                        client.getSocket().close();
+                    byte[] header;
+                    try {
+                        client.getReader().setTimeouts(admission.getIdleTimeout(), FrameReader.DEFAULT_READ_TIMEOUT);
+                        header = client.getReader().readHeader();
+                    } catch (IdleTimeoutException e) {
+                        if (client.getOutbound().hasFiles()) {
+                            continue;
+                        }
+                        closeIdle(client);
                         return;
                     }
-                    if (readObject.getCommand().equals(FTPCommand.TREE)) {
-                        System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested tree refresh.");
-                        writeToSocket(client, null, FTPCommand.SUCCESS, 1, "Tree view sent.");
-                    }
-                    if (readObject.getCommand().equals(FTPCommand.MKDIR)) {
-                        System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested creating " + readObject.getPathServer());
-                        createFolder(readObject.getPathServer());
-                        writeToSocket(client, null, FTPCommand.SUCCESS, 1, "Folder created successfully");
+                    int length = FrameCodec.parseHeader(header);
+                    int stream = FrameCodec.parseStream(header);
+                    if (stream != 0) {
+                        readData(client, getUpload(client, stream), length);
+                        continue;
                     }
-                    if (readObject.getCommand().equals(FTPCommand.RMDIR)) {
-                        System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested deleting " + readObject.getPathServer());
-                        try {
-                            deleteFolder(readObject.getPathServer());
-                            writeToSocket(client, readObject.getPathServer(), FTPCommand.SUCCESS, 1, "Folder/file deleted successfully");
-                        } catch (IOException e) {
-                            addToLog(e);
-                            writeToSocket(client, readObject.getPathServer(), FTPCommand.FAILURE, -1, e.getMessage());
-                        }
+                    FTPTransferObject readObject = decodeObject(client, client.getReader().readBody(length));
+                    if (readObject.getFileSize() > 0) {
+                        startUpload(client, readObject);
+                    } else if (!executeCommand(client, readObject)) {
+                        return;
                     }
+                } catch (IOException e) {
+                    disconnect(client);
+                    return;
+                } catch (RuntimeException e) {
+                    addToLog(e);
+                    disconnect(client);
+                    return;
+                }
+            }
+        });
+    }
 
-                } catch (IOException | ClassNotFoundException e) {
-                    System.err.println(client.getUsername() + " (" + client.getClientIP() + ") disconnected.");
-                    manager.removeClient(client);
-                    System.out.println("Clients remaining: " + manager.clients.size());
-                    try {
-                        client.getSocket().close();
-                    } catch (IOException ioException) {
-                        addToLog(ioException);
+    /**
+     * This method executes {@link FTPCommand} read from client and sends response to it. It is shared between
+     * {@link ServerMode#BLOCKING} and {@link ServerMode#NIO} mode, objects with file ({@link FTPCommand#PUT}) start upload instead
+     * (see {@link #startUpload(ClientConnection, FTPTransferObject)}). Responses are sent with request id of object.
+     *
+     * @param client     Client that sent command
+     * @param readObject Object with command
+     * @return {@code false} if client requested disconnect, {@code true} otherwise
+     * @throws IOException If there is problem with closing client socket
+     */
+    boolean executeCommand(ClientConnection client, FTPTransferObject readObject) throws IOException {
+        client.setRequestId(readObject.getRequestId());
+        if (readObject.getCommand().equals(FTPCommand.MGET) && !isReadableFile(readObject.getPathServer())) {
+            writeToSocket(client, null, FTPCommand.MGET, -1, "File cannot be read: " + readObject.getPathServer(), null, 0, 0, 0);
+        } else if (readObject.getCommand().equals(FTPCommand.GET) && !isReadableFile(readObject.getPathServer())) {
+            writeToSocket(client, null, FTPCommand.GET, -1, "There is no such file on server", null, 0, 0, 0);
+        } else if (readObject.getCommand().equals(FTPCommand.GET) || readObject.getCommand().equals(FTPCommand.MGET)) {
+            System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested download of " + readObject.getPathServer());
+            int chunkSize = client.getOptions().limitChunkSize(readObject.getChunkSize() == 0 ? client.getOptions().getChunkSize() : readObject.getChunkSize());
+            if (readObject.getSegmentLength() > 0) {
+                writeToSocket(client, readObject.getPathServer(), FTPCommand.GET, 1, "Segment sent successfully", chunkSize,
+                        readObject.getOffset(), readObject.getSegmentLength());
+            } else if (readObject.getOffset() > 0) {
+                // checksum of client's partial file is checked outside of event loop, file can be big
+                offload(client, () -> restartOffset(readObject.getPathServer(), readObject.getOffset(), readObject.getChecksum()), (offset, error) -> {
+                    long from = offset == null ? 0 : offset;
+                    if (from > 0) {
+                        System.out.println("Continuing download of " + readObject.getPathServer() + " from " + from + " bytes");
                     }
-                    return;
+                    writeToSocket(client, readObject.getPathServer(), readObject.getCommand(), 1, "File sent successfully", chunkSize, from, 0);
+                });
+            } else {
+                writeToSocket(client, readObject.getPathServer(), readObject.getCommand(), 1, "File sent successfully", chunkSize, 0, 0);
+            }
+        }
+        if (readObject.getCommand().equals(FTPCommand.MPUT)) {
+            if (readObject.getPathClient() == null) {
+                storeBatch(client);
+            } else if (readObject.getFileSize() == 0) {
+                // empty file has no bytes to receive, it's partial file is created here
+                File file = fileInFolder(readObject.getPathServer(), readObject.getPathClient().getName());
+                if (file == null) {
+                    writeToSocket(client, null, FTPCommand.MPUT, -1, "Invalid path of uploaded file", null, 0, 0, 0);
+                } else {
+                    openUpload(file, readObject, true).close();
+                    receiveBatchFile(client, file, true);
+                }
+            }
+        }
+        if (readObject.getCommand().equals(FTPCommand.CLOSE)) {
+            manager.removeClient(client);
+            System.err.println(client.getUsername() + " (" + client.getClientIP() + ") requested disconnect. Disconnecting " + client.getClientIP());
+            System.out.println("Clients remaining: " + manager.size());
+            client.close();
+            return false;
+        }
+        if (readObject.getCommand().equals(FTPCommand.TREE)) {
+            System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested tree refresh.");
+            writeToSocket(client, null, FTPCommand.SUCCESS, 1, "Tree view sent.");
+        }
+        if (readObject.getCommand().equals(FTPCommand.MKDIR)) {
+            System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested creating " + readObject.getPathServer());
+            createFolder(readObject.getPathServer());
+            ftv.update(readObject.getPathServer());
+            writeToSocket(client, null, FTPCommand.SUCCESS, 1, "Folder created successfully");
+        }
+        if (readObject.getCommand().equals(FTPCommand.OPTS)) {
+            SessionOptions requested = SessionOptions.fromBytes(readObject.getAdditionalData());
+            SessionOptions options = negotiateOptions(client, requested);
+            // key of new cipher is derived before any record uses it, old cipher keeps generated key
+            client.getCrypto().deriveSessionKey(requested.getRandom() == null ? new byte[0] : requested.getRandom(), options.getRandom());
+            System.out.println(client.getUsername() + " (" + client.getClientIP() + ") negotiated options: encryption " + (options.isEncryption() ? "on" : "off")
+                    + ", cipher " + options.getCipher() + ", chunk " + options.getChunkSize() + "/" + options.getMaxChunkSize()
+                    + ", compression " + (options.isCompression() ? "on" : "off"));
+            // response is the last record encrypted with old cipher, writer switches cipher after sending it
+            client.getOutbound().add(new FrameOutbound(createObject(null, null, FTPCommand.OPTS, 1, "Options accepted", options.toBytes(), 0, 0, 0, client.getRequestId()), client.getCrypto()));
+            client.getOutbound().add(() -> {
+                client.getCrypto().setSendCipher(options.getCipher());
+                return null;
+            });
+            flush(client);
+            client.getCrypto().setReceiveCipher(options.getCipher());
+            client.setOptions(options);
+            if (!options.isLazyTree()) {
+                writeToSocket(client, null, FTPCommand.SUCCESS, 1, "Tree view sent.");
+            }
+        }
+        if (readObject.getCommand().equals(FTPCommand.LIST)) {
+            listDirectory(client, readObject);
+        }
+        if (readObject.getCommand().equals(FTPCommand.REST)) {
+            sendPartialFile(client, readObject);
+        }
+        if (readObject.getCommand().equals(FTPCommand.SIGN)) {
+            sendSignature(client, readObject);
+        }
+        if (readObject.getCommand().equals(FTPCommand.LINK)) {
+            linkStoredFile(client, readObject);
+        }
+        if (readObject.getCommand().equals(FTPCommand.HASH)) {
+            sendHash(client, readObject);
+        }
+        if (readObject.getCommand().equals(FTPCommand.WINDOW)) {
+            client.getOutbound().addCredit(readObject.getRequestId(), readObject.getOffset());
+            flush(client);
+        }
+        if (readObject.getCommand().equals(FTPCommand.RMDIR)) {
+            System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested deleting " + readObject.getPathServer());
+            try {
+                deleteFolder(readObject.getPathServer());
+                ftv.remove(readObject.getPathServer());
+                if (blobs != null) {
+                    blobs.collectLater();
                 }
+                writeToSocket(client, readObject.getPathServer(), FTPCommand.SUCCESS, 1, "Folder/file deleted successfully");
+            } catch (IOException e) {
+                addToLog(e);
+                writeToSocket(client, readObject.getPathServer(), FTPCommand.FAILURE, -1, e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends one page of folder requested with {@link FTPCommand#LIST} (see {@link DirectoryLister}). Folders outside of server's
+     * root folder are not listed. Every page reads whole folder, so it is read outside of event loop (see {@link #offload}).
+     *
+     * @param client     Client that requested listing
+     * @param readObject Object with folder (root folder if it is {@code null}) and {@link ListOptions}
+     * @throws IOException If response cannot be sent
+     */
+    private void listDirectory(ClientConnection client, FTPTransferObject readObject) throws IOException {
+        File directory = readObject.getPathServer() == null ? ftv.getRootPath().toFile() : readObject.getPathServer();
+        offload(client, () -> {
+            if (!isInRoot(directory)) {
+                throw new FileNotFoundException("Folder is outside of server root: " + directory);
+            }
+            return DirectoryLister.list(directory.toPath(), ListOptions.fromBytes(readObject.getAdditionalData()));
+        }, (page, error) -> {
+            if (error != null) {
+                addToLog(error);
+                writeToSocket(client, null, FTPCommand.LIST, -1, "Failed to list " + directory + ": " + error.getMessage(), null, 0, 0, 0);
+                return;
+            }
+            writeToSocket(client, null, FTPCommand.LIST, 1, "Listed " + page.getEntries().size() + " entries of " + directory, page.encode(), 0, 0, 0);
+        });
+    }
+
+    /**
+     * Checks offset from which client wants to continue download. Offset is accepted if client's partial file has same checksum
+     * as beginning of server's file.
+     *
+     * @param file     Requested file
+     * @param offset   Length of client's partial file
+     * @param checksum Checksum of client's partial file
+     * @return Accepted offset, or {@code 0} if whole file is sent
+     */
+    private long restartOffset(File file, long offset, long checksum) {
+        if (file == null || offset <= 0 || offset > file.length()) {
+            return 0;
+        }
+        try {
+            return PartialFile.checksum(file, offset) == checksum ? offset : 0;
+        } catch (IOException e) {
+            addToLog(e);
+            return 0;
+        }
+    }
+
+    /**
+     * Responds to {@link FTPCommand#REST} with length and checksum of partial file of upload (see {@link PartialFile}),
+     * so client can continue upload from there. Offset is {@code 0} if there is no partial file. Checksum is calculated outside
+     * of event loop (see {@link #offload}).
+     *
+     * @param client     Client that wants to upload file
+     * @param readObject Object with server's folder and name of file
+     * @throws IOException If response cannot be sent
+     */
+    private void sendPartialFile(ClientConnection client, FTPTransferObject readObject) throws IOException {
+        File file = fileInFolder(readObject.getPathServer(), readObject.getName());
+        if (file == null) {
+            writeToSocket(client, null, FTPCommand.REST, -1, "Invalid path of uploaded file", null, 0, 0, 0);
+            return;
+        }
+        File part = PartialFile.of(file);
+        offload(client, () -> {
+            long length = part.isFile() ? part.length() : 0;
+            if (length == 0) {
+                return new FTPTransferObject(null, null, FTPCommand.REST, 1, "No partial file", null);
+            }
+            FTPTransferObject partial = new FTPTransferObject(null, null, FTPCommand.REST, 1, "Partial file has " + length + " bytes", null);
+            partial.setOffset(length);
+            partial.setChecksum(PartialFile.checksum(part, length));
+            return partial;
+        }, (partial, error) -> {
+            FTPTransferObject response = partial;
+            if (error != null) {
+                addToLog(error);
+                response = new FTPTransferObject(null, null, FTPCommand.REST, 1, "Partial file cannot be read", null);
             }
+            response.setRequestId(client.getRequestId());
+            client.getOutbound().add(new FrameOutbound(FrameCodec.encode(response), client.getCrypto()));
+            flush(client);
         });
-        readThread.setPriority(Thread.MAX_PRIORITY);
-        readThread.start();
+    }
+
+    /**
+     * Responds to {@link FTPCommand#SIGN} with signature of server's file (see {@link FileDelta}), so client can upload only
+     * changes of file with {@link FTPCommand#DELTA}. File is read outside of event loop (see {@link #offload}).
+     *
+     * @param client     Client that wants to upload file
+     * @param readObject Object with server's folder and name of file
+     * @throws IOException If response cannot be sent
+     */
+    private void sendSignature(ClientConnection client, FTPTransferObject readObject) throws IOException {
+        File file = fileInFolder(readObject.getPathServer(), readObject.getName());
+        if (!isReadableFile(file)) {
+            writeToSocket(client, null, FTPCommand.SIGN, -1, file == null ? "Invalid path of file" : "There is no " + file.getName() + " on server", null, 0, 0, 0);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        offload(client, () -> FileDelta.sign(file), (signature, error) -> {
+            if (error != null) {
+                addToLog(error);
+                writeToSocket(client, null, FTPCommand.SIGN, -1, "File cannot be read: " + file.getName(), null, 0, 0, 0);
+                return;
+            }
+            System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested signature of " + file + ": " + signature.getBlocks()
+                    + " blocks of " + signature.getBlockSize() + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+            writeToSocket(client, null, FTPCommand.SIGN, 1, "Signature of " + signature.getBlocks() + " blocks", signature.encode(), 0, 0, 0);
+        });
+    }
+
+    /**
+     * Responds to {@link FTPCommand#HASH} with hash of range of server's file (see {@link FileHash}). Hashes of files that were not
+     * changed since last request are taken from cache (see {@link HashCache}), other hashes are calculated outside of event loop
+     * (see {@link #offload}).
+     *
+     * @param client     Client that wants to check file
+     * @param readObject Object with server's file, algorithm and range
+     * @throws IOException If response cannot be sent
+     */
+    private void sendHash(ClientConnection client, FTPTransferObject readObject) throws IOException {
+        File file = readObject.getPathServer();
+        String algorithm = readObject.getAdditionalData() == null || readObject.getAdditionalData().length == 0 ? FileHash.SHA256
+                : new String(readObject.getAdditionalData(), StandardCharsets.UTF_8);
+        if (!isReadableFile(file) || !FileHash.isSupported(algorithm)) {
+            writeToSocket(client, null, FTPCommand.HASH, -1, file == null || !isReadableFile(file) ? "There is no such file on server"
+                    : "Unsupported hash algorithm: " + algorithm, null, 0, 0, 0);
+            return;
+        }
+        long size = file.length();
+        long modified = file.lastModified();
+        long offset = readObject.getOffset();
+        long length = readObject.getSegmentLength() > 0 ? readObject.getSegmentLength() : size - offset;
+        if (offset < 0 || offset > size || length > size - offset) {
+            writeToSocket(client, null, FTPCommand.HASH, -1, "Range " + offset + "+" + length + " is outside of " + file.getName() + " (" + size + " bytes)", null, 0, 0, 0);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        byte[] cached = hashes.get(file, algorithm, offset, length, size, modified);
+        if (cached != null) {
+            sendHash(client, file, algorithm, offset, length, cached, start, true);
+            return;
+        }
+        offload(client, () -> {
+            byte[] hash = FileHash.hash(file, algorithm, offset, length, workers);
+            hashes.put(file, algorithm, offset, length, size, modified, hash);
+            return hash;
+        }, (hash, error) -> {
+            if (error != null) {
+                addToLog(error);
+                writeToSocket(client, null, FTPCommand.HASH, -1, "Hash of " + file.getName() + " cannot be calculated: " + error.getMessage(), null, 0, 0, 0);
+                return;
+            }
+            sendHash(client, file, algorithm, offset, length, hash, start, false);
+        });
+    }
+
+    /**
+     * Sends calculated or cached hash of range of file to client.
+     *
+     * @param client    Client that requested hash
+     * @param file      Hashed file
+     * @param algorithm Hash algorithm
+     * @param offset    Start of range
+     * @param length    Length of range
+     * @param hash      Hash of range
+     * @param start     Time when request was received
+     * @param cached    If hash was taken from cache
+     * @throws IOException If response cannot be sent
+     */
+    private void sendHash(ClientConnection client, File file, String algorithm, long offset, long length, byte[] hash, long start, boolean cached) throws IOException {
+        System.out.println(client.getUsername() + " (" + client.getClientIP() + ") requested " + algorithm + " of " + file + " (" + length + " bytes from "
+                + offset + ") in " + (System.currentTimeMillis() - start) + " ms" + (cached ? " from cache" : "") + ". " + hashes.report());
+        writeToSocket(client, file, FTPCommand.HASH, 1, algorithm + " " + FileHash.toHex(hash), hash, 0, offset, length);
+    }
+
+    /**
+     * Responds to {@link FTPCommand#LINK}. If server has stored file with announced hash and size (see {@link BlobStore}), file is
+     * created from it and client doesn't upload it.
+     *
+     * @param client     Client that wants to upload file
+     * @param readObject Object with server's folder, name of file, it's size and SHA-256 of it's content
+     * @throws IOException If response cannot be sent
+     */
+    private void linkStoredFile(ClientConnection client, FTPTransferObject readObject) throws IOException {
+        File file = fileInFolder(readObject.getPathServer(), readObject.getName());
+        byte[] hash = readObject.getAdditionalData();
+        if (blobs == null || file == null || hash == null || hash.length != FileHash.SHA256_LENGTH) {
+            writeToSocket(client, null, FTPCommand.LINK, -1, file == null ? "Invalid path of file" : "Upload " + file.getName(), null, 0, 0, 0);
+            return;
+        }
+        try {
+            if (!blobs.link(hash, readObject.getOffset(), file)) {
+                writeToSocket(client, null, FTPCommand.LINK, -1, "Upload " + file.getName(), null, 0, 0, 0);
+                return;
+            }
+        } catch (IOException e) {
+            addToLog(e);
+            writeToSocket(client, null, FTPCommand.LINK, -1, "Upload " + file.getName() + ", stored file cannot be linked", null, 0, 0, 0);
+            return;
+        }
+        ftv.update(file);
+        System.out.println(client.getUsername() + " (" + client.getClientIP() + ") skipped upload of " + file + " (" + readObject.getOffset()
+                + " bytes), content is already stored. " + blobs.report());
+        blobs.collectLater();
+        writeToSocket(client, null, FTPCommand.SUCCESS, 1, "File already stored on server, upload skipped");
+    }
+
+    /**
+     * Removes client from list of active clients and closes it's socket.
+     *
+     * @param client Client that disconnected
+     */
+    void disconnect(ClientConnection client) {
+        if (manager.removeClient(client)) {
+            admission.release(client.getUsername(), getAddress(client.getSocket()));
+        } else if (client.getSocket().isClosed()) {
+            return;
+        }
+        System.err.println(client.getUsername() + " (" + client.getClientIP() + ") disconnected.");
+        System.out.println("Clients remaining: " + manager.size());
+        try {
+            client.close();
+        } catch (IOException ioException) {
+            addToLog(ioException);
+        }
     }
 
     /**
      * This method writes object to each client. It can contain file or just response message after executing file deletion or folder creation for example.
+     * Object (and file) is added to client's {@link OutboundQueue} and sent by client's writer, with id of request that is executed.
+     * If client is not reading and queue is full, calling thread waits until client reads enough data.
      *
      * @param client          The client for whom this thread is responsible
      * @param path            Path from local file
@@ -139,208 +599,684 @@ public class FTPServer {
      * @param responseMessage Response message
      */
     public void writeToSocket(ClientConnection client, File path, FTPCommand command, Integer response, String responseMessage) {
-        Thread writeThread = new Thread(() -> {
+        writeToSocket(client, path, command, response, responseMessage, client.getOptions().getChunkSize());
+    }
+
+    /**
+     * This method writes object to client, file (if there is any) is sent in chunks of given size.
+     *
+     * @param client          The client for whom this thread is responsible
+     * @param path            Path from local file
+     * @param command         {@link FTPCommand#SUCCESS} or {@link FTPCommand#FAILURE} depends on command execution
+     * @param response        Response code
+     * @param responseMessage Response message
+     * @param chunkSize       Size of file chunks, must be allowed by client's {@link SessionOptions}
+     */
+    public void writeToSocket(ClientConnection client, File path, FTPCommand command, Integer response, String responseMessage, int chunkSize) {
+        writeToSocket(client, path, command, response, responseMessage, chunkSize, 0, 0);
+    }
+
+    /**
+     * This method writes object to client, file (if there is any) is sent in chunks of given size from given offset, whole or only
+     * one segment of it.
+     *
+     * @param client          The client for whom this thread is responsible
+     * @param path            Path from local file
+     * @param command         {@link FTPCommand#SUCCESS} or {@link FTPCommand#FAILURE} depends on command execution
+     * @param response        Response code
+     * @param responseMessage Response message
+     * @param chunkSize       Size of file chunks, must be allowed by client's {@link SessionOptions}
+     * @param offset          Offset from which file is sent (see {@link PartialFile})
+     * @param length          Length of sent segment, {@code 0} if file is sent to the end
+     */
+    public void writeToSocket(ClientConnection client, File path, FTPCommand command, Integer response, String responseMessage, int chunkSize, long offset, long length) {
+        try {
+            writeToSocket(client, path, command, response, responseMessage, response == -1 || client.getOptions().isLazyTree() ? null : treeDelta(client), chunkSize, offset, length);
+        } catch (IOException e) {
+            System.err.println("Failed to send data to client. It will be disconnected");
+            addToLog(e);
+            disconnect(client);
+        }
+    }
+
+    /**
+     * Creates {@link TreeDelta} with changes of directory tree since version that client has. Client will have current version
+     * after receiving it, so next response contains only newer changes.
+     *
+     * @param client Client to whom tree is sent
+     * @return Encoded delta
+     */
+    private byte[] treeDelta(ClientConnection client) {
+        TreeDelta delta = ftv.since(client.getTreeVersion());
+        client.setTreeVersion(delta.getVersion());
+        return delta.encode();
+    }
+
+    /**
+     * This method writes object with given additional data instead of tree view.
+     *
+     * @param client          The client for whom this thread is responsible
+     * @param path            Path from local file
+     * @param command         Command sent to client
+     * @param response        Response code
+     * @param responseMessage Response message
+     * @param additionalData  Additional data for client
+     * @param chunkSize       Size of file chunks
+     * @param offset          Offset from which file is sent
+     * @param length          Length of sent segment, {@code 0} if file is sent to the end
+     * @throws IOException If object or file cannot be sent
+     */
+    void writeToSocket(ClientConnection client, File path, FTPCommand command, Integer response, String responseMessage, byte[] additionalData, int chunkSize, long offset, long length) throws IOException {
+        client.getOutbound().add(new FrameOutbound(createObject(null, path, command, response, responseMessage, additionalData, chunkSize, offset, length, client.getRequestId()), client.getCrypto()));
+        long size = length > 0 ? length : path == null ? 0 : path.length() - offset;
+        if ((command.equals(FTPCommand.GET) || command.equals(FTPCommand.MGET)) && size > 0 && !path.getPath().equals("")) {
+            System.out.println("Sending " + path.getName() + " to " + client.getUsername() + " (" + client.getClientIP() + ")");
+            if (client.getOptions().isEncryption()) {
+                client.getOutbound().add(new FileOutbound(path, client.getCrypto(), chunkSize, offset, size, client.getRequestId(),
+                        client.getOptions().isCompression(), mapThreshold > 0 && path.length() >= mapThreshold));
+            } else {
+                client.getOutbound().add(new DirectFileOutbound(path, offset, size, client.getRequestId()));
+            }
+        }
+        flush(client);
+    }
+
+    /**
+     * Starts sending of data added to client's queue. In blocking modes calling thread waits if queue is full.
+     *
+     * @param client Client whose queue is flushed
+     * @throws IOException If client is not reading data
+     */
+    private void flush(ClientConnection client) throws IOException {
+        if (client.getSession() != null) {
+            client.getSession().flush();
+        } else {
+            client.getOutbound().awaitCapacity(WRITE_TIMEOUT);
+        }
+    }
+
+    /**
+     * Runs slow part of client's request (reading big folder, hashing, signing or rebuilding file...) and sends response with it's result.
+     * In {@link ServerMode#NIO} mode slow part runs on request thread (see {@link SessionExecutors#requestThreads()}) and reply runs on
+     * session's event loop after it, so other sessions of event loop are not stalled. Other requests of client are read in the meantime,
+     * response is sent with id of request. In blocking modes both parts run on client's reading thread.
+     *
+     * @param client Client that sent request
+     * @param work   Slow part, it must not change state of session
+     * @param reply  Response sent with result or error of slow part
+     * @param <T>    Type of result of slow part
+     * @throws IOException If response cannot be sent in blocking modes
+     */
+    <T> void offload(ClientConnection client, Callable<T> work, Reply<T> reply) throws IOException {
+        NIOSession session = client.getSession();
+        if (session == null) {
+            Outcome<T> outcome = Outcome.of(work);
+            reply.send(outcome.result, outcome.error);
+            return;
+        }
+        int requestId = client.getRequestId();
+        requests.execute(() -> {
+            Outcome<T> outcome = Outcome.of(work);
+            session.execute(() -> {
+                client.setRequestId(requestId);
+                reply.send(outcome.result, outcome.error);
+            });
+        });
+    }
+
+    /**
+     * Result or error of slow part of request.
+     */
+    private static class Outcome<T> {
+        private T result;
+        private Exception error;
+
+        static <T> Outcome<T> of(Callable<T> work) {
+            Outcome<T> outcome = new Outcome<>();
             try {
-                writeObjectToStream(client, null, path, command, response, responseMessage);
-                writeFileToStream(client, path, !command.equals(FTPCommand.GET));
+                outcome.result = work.call();
             } catch (Exception e) {
-                System.err.println("Failed to send data to client. It will be disconnected");
-                try {
-                    client.getSocket().close();
-                } catch (IOException ioException) {
-                    addToLog(ioException);
-                }
-                manager.removeClient(client);
+                outcome.error = e;
             }
+            return outcome;
+        }
+    }
 
+    /**
+     * This method starts writing thread of client in blocking modes. It is the only thread that writes to client's socket,
+     * it takes data from client's {@link OutboundQueue} in batches and runs until client disconnects.
+     *
+     * @param client Client for whom writing thread is started
+     */
+    void startWriter(ClientConnection client) {
+        sessionExecutor.execute(() -> {
+            ByteBuffer batch = ByteBuffer.allocateDirect(OutboundQueue.BATCH_SIZE);
+            try {
+                WritableByteChannel out = client.getSocket().getChannel() != null ? client.getSocket().getChannel() : Channels.newChannel(client.getOutStream());
+                while (client.getOutbound().awaitData()) {
+                    client.getOutbound().writeTo(out, batch);
+                }
+                if (client.getOutbound().isCloseAfterFlush()) {
+                    client.close();
+                }
+            } catch (IOException | InterruptedException e) {
+                if (!client.getSocket().isClosed()) {
+                    System.err.println("Failed to send data to client. It will be disconnected");
+                    disconnect(client);
+                }
+            }
         });
-        writeThread.setPriority(Thread.MAX_PRIORITY);
-        writeThread.start();
     }
 
     /**
-     * This method is responsible for reading serialized object from client input stream. First it reads size of object
-     * represented as {@link String}, then reads object with that size.
+     * Decrypts and decodes {@link FTPTransferObject} received from client (see {@link FrameCodec}). Version of directory tree
+     * reported by client is remembered, so next response contains changes since that version.
      *
-     * @param client Client which stream needs to be read
+     * @param client    Client that sent object
+     * @param encrypted Encrypted object bytes (without header)
      * @return Read object
      */
-    public FTPTransferObject readObjectFromStream(ClientConnection client) throws IOException, ClassNotFoundException {
-        FTPTransferObject readedObject;
-        byte[] b = new byte[16];
-        int i = client.getInStream().read(b, 0, 16);
-        if (i == 0) return null; //TODO 1
-        int size = Integer.parseInt((new String(b)).trim());
-        byte[] objInputArray = new byte[size];
-        int readBytes = 0;
-        while (size - readBytes > 0) {
-            while (client.getInStream().available() < Math.min(size - readBytes, 512)) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    addToLog(e);
-                }
+    FTPTransferObject decodeObject(ClientConnection client, byte[] encrypted) throws IOException {
+        byte[] decrypted = client.getCrypto().open(encrypted, 0, encrypted.length);
+        FTPTransferObject readObject = FrameCodec.decode(decrypted, 0, decrypted.length);
+        client.setTreeVersion(readObject.getTreeVersion());
+        return readObject;
+    }
+
+    /**
+     * Starts receiving of file that client sends after object. File is received to partial file, which is continued if client sent offset
+     * (see {@link PartialFile}), and renamed when whole file is received. Segment of file is only written to partial file and
+     * acknowledged with {@link FTPCommand#PUT}, file is completed later by upload from the end of all segments. Delta of file
+     * ({@link FTPCommand#DELTA}) is received to temporary file, and file is rebuilt from it when it is received. File without valid
+     * path (see {@link #fileInFolder(File, String)}) is received to temporary file and thrown away, client gets failure response.
+     *
+     * @param client     Client that sends file
+     * @param readObject Object that contains file size and other file related properties
+     * @throws IOException If partial file cannot be opened or request id is already used by other upload
+     */
+    void startUpload(ClientConnection client, FTPTransferObject readObject) throws IOException {
+        File file = readObject.getPathClient() == null ? null : fileInFolder(readObject.getPathServer(), readObject.getPathClient().getName());
+        boolean rejected = file == null;
+        boolean segment = readObject.getSegmentLength() > 0;
+        boolean delta = readObject.getCommand().equals(FTPCommand.DELTA);
+        System.out.println("Reading " + (segment ? "segment of " + readObject.getSegmentLength() + " bytes of file" : delta ? "delta of file" : "file") + " from "
+                + client.getUsername() + " (" + client.getClientIP() + ")" + (readObject.getOffset() > 0 ? " from " + readObject.getOffset() + " bytes" : "")
+                + (rejected ? ", path is invalid" : ""));
+        long remaining = segment ? readObject.getSegmentLength() : readObject.getFileSize() - readObject.getOffset();
+        boolean valid = !rejected && (segment || isValidUpload(file, readObject.getOffset()));
+        int chunkSize = client.getOptions().acceptChunkSize(readObject.getChunkSize());
+        File received = delta || rejected ? Files.createTempFile("upload", rejected ? ".rejected" : ".delta").toFile() : null;
+        FileChannel out = received != null ? FileChannel.open(received.toPath(), StandardOpenOption.WRITE) : openUpload(file, readObject, valid);
+        UploadStream upload = new UploadStream(readObject, rejected ? received : file, valid, out, remaining,
+                client.getOptions().isEncryption() ? client.getCrypto() : null, chunkSize, client.getOptions().isCompression());
+        upload.setRejected(rejected);
+        upload.setDelta(rejected ? null : received);
+        if (upload.isComplete()) {
+            finishUpload(client, upload);
+        } else if (client.getUploads().putIfAbsent(readObject.getRequestId(), upload) != null) {
+            upload.close();
+            throw new IOException("Request " + readObject.getRequestId() + " is already uploading");
+        }
+    }
+
+    /**
+     * Returns upload whose frame is received.
+     *
+     * @param client Client that sends file
+     * @param stream Stream of frame
+     * @return Upload with request id of stream
+     * @throws IOException If client has no such upload
+     */
+    UploadStream getUpload(ClientConnection client, int stream) throws IOException {
+        UploadStream upload = client.getUploads().get(stream);
+        if (upload == null) {
+            throw new IOException("Data of unknown stream " + stream);
+        }
+        return upload;
+    }
+
+    /**
+     * Reads one frame of uploaded file in blocking modes. Frame is decrypted, or written directly from socket channel using
+     * {@link FileChannel#transferFrom} if it is sent without encryption, so file bytes don't pass through Java heap.
+     *
+     * @param client Client that sends file
+     * @param upload Upload of frame
+     * @param length Length of frame body
+     * @throws IOException If frame is not valid, connection is closed or file cannot be written
+     */
+    private void readData(ClientConnection client, UploadStream upload, int length) throws IOException {
+        if (client.getOptions().isEncryption()) {
+            ByteBuffer frame = client.getReader().readBody(BufferPool.acquire(length));
+            try {
+                upload.receive(frame);
+            } finally {
+                BufferPool.release(frame);
+            }
+        } else {
+            long remaining = length;
+            while (remaining > 0) {
+                remaining -= upload.receiveDirect(client.getSocket().getChannel(), remaining);
             }
-            byte[] tmpArray = new byte[Math.min(size - readBytes, 512)];
+        }
+        if (upload.isComplete()) {
+            finishUpload(client, upload);
+        }
+    }
 
-            client.getInStream().read(tmpArray, 0, Math.min(size - readBytes, 512));
-            System.arraycopy(tmpArray, 0, objInputArray, readBytes, tmpArray.length);
-            readBytes += 512;
+    /**
+     * Finishes upload whose file is received and responds to client with id of upload's request. Segment is acknowledged with
+     * {@link FTPCommand#PUT}, file of batch is added to batch, file is rebuilt from received delta, and other file is renamed.
+     * File of rejected upload is deleted.
+     *
+     * @param client Client that uploaded file
+     * @param upload Received upload
+     * @throws IOException If partial file cannot be closed or renamed or response cannot be sent
+     */
+    void finishUpload(ClientConnection client, UploadStream upload) throws IOException {
+        FTPTransferObject readObject = upload.getRequest();
+        client.getUploads().remove(readObject.getRequestId());
+        String report = upload.close();
+        if (report != null) {
+            System.out.println("Received " + upload.getFile().getName() + " from " + client.getUsername() + ": " + report);
+        }
+        client.setRequestId(readObject.getRequestId());
+        if (upload.isRejected()) {
+            Files.deleteIfExists(upload.getFile().toPath());
+            writeToSocket(client, null, readObject.getCommand().equals(FTPCommand.MPUT) ? FTPCommand.MPUT : FTPCommand.FAILURE, -1,
+                    "Invalid path of uploaded file", null, 0, 0, 0);
+        } else if (readObject.getSegmentLength() > 0) {
+            writeToSocket(client, null, FTPCommand.PUT, 1, "Segment received successfully", null, 0, 0, 0);
+        } else if (readObject.getCommand().equals(FTPCommand.MPUT)) {
+            receiveBatchFile(client, upload.getFile(), upload.isValid());
+        } else if (upload.getDelta() != null) {
+            applyDelta(client, upload.getFile(), upload.getDelta(), readObject.getChecksum());
+        } else {
+            finishUpload(client, upload.getFile(), upload.isValid());
         }
-        ByteArrayInputStream bis = new ByteArrayInputStream(Objects.requireNonNull(AES.decrypt(objInputArray, new String(client.getKey()))));
-        ObjectInput in = new ObjectInputStream(bis);
-        readedObject = (FTPTransferObject) in.readObject();
-        bis.close();
-        in.close();
-        return readedObject;
     }
 
     /**
-     * This method reads file that was sent from client. It is decrypted after receiving every chunk (512 bytes).
+     * Opens partial file for upload. Segment is written at it's offset and rest of partial file is kept, while upload of whole file
+     * continues partial file from offset (or from start, if upload is not valid).
      *
-     * @param client     Client that send file
-     * @param readObject Object that contains file size and other file related properties
-     * @throws IOException if there is problem with file creation or other.
+     * @param file       Uploaded file
+     * @param readObject Object with offset and segment length
+     * @param valid      If upload continues valid partial file (see {@link #isValidUpload(File, long)})
+     * @return Channel positioned where received bytes are written
+     * @throws IOException If partial file cannot be opened
      */
-    public void readFileFromStream(ClientConnection client, FTPTransferObject readObject) throws IOException {
-        if (readObject.getFileSize() == 0) {
+    FileChannel openUpload(File file, FTPTransferObject readObject, boolean valid) throws IOException {
+        if (readObject.getSegmentLength() > 0) {
+            return PartialFile.openSegment(PartialFile.of(file), readObject.getOffset(), readObject.getSegmentLength());
+        }
+        return PartialFile.open(PartialFile.of(file), valid ? readObject.getOffset() : 0);
+    }
+
+    /**
+     * Checks if upload can continue from offset sent by client. Partial file can be shorter than offset only if it was changed
+     * after {@link FTPCommand#REST}, in that case received bytes are written from start of partial file and thrown away after upload.
+     *
+     * @param file   Uploaded file
+     * @param offset Offset from which client sends file
+     * @return {@code true} if partial file has at least offset bytes
+     */
+    boolean isValidUpload(File file, long offset) {
+        return offset == 0 || PartialFile.of(file).length() >= offset;
+    }
+
+    /**
+     * Renames received partial file and responds to client. If upload was not valid (see {@link #isValidUpload(File, long)}),
+     * partial file is deleted and client has to upload file again. File is added to blob store outside of event loop
+     * (see {@link #offload}).
+     *
+     * @param client Client that uploaded file
+     * @param file   Uploaded file
+     * @param valid  If upload continued valid partial file
+     * @throws IOException If partial file cannot be renamed or response cannot be sent
+     */
+    private void finishUpload(ClientConnection client, File file, boolean valid) throws IOException {
+        File part = PartialFile.of(file);
+        if (!valid) {
+            Files.deleteIfExists(part.toPath());
+            ftv.remove(part);
+            writeToSocket(client, null, FTPCommand.FAILURE, -1, "Partial file of " + file.getName() + " was changed, upload it again");
             return;
         }
-        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(new File(readObject.getPathServer().getPath() + "/" + readObject.getPathClient().getName())));
-        System.out.println("Reading file from " + client.getUsername() + " (" + client.getClientIP() + ")");
-        byte[] readBuffer = new byte[528];
-        long fileSizeEnc = ((readObject.getFileSize() / 512) + 1) * 528;
-        long fileSize = readObject.getFileSize();
-        while (fileSizeEnc > 0) {
-            while (client.getInStream().available() < 528) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    addToLog(e);
+        PartialFile.complete(part, file);
+        ftv.remove(part);
+        if (blobs == null) {
+            ftv.update(file);
+            writeToSocket(client, null, FTPCommand.SUCCESS, 1, "File received successfully");
+            return;
+        }
+        offload(client, () -> {
+            store(List.of(file));
+            return file;
+        }, (stored, error) -> {
+            ftv.update(file);
+            writeToSocket(client, null, FTPCommand.SUCCESS, 1, "File received successfully");
+        });
+    }
+
+    /**
+     * Rebuilds uploaded file from server's old file and received delta (see {@link FileDelta}). New file is written to partial file
+     * and replaces old file only if it has same checksum as client's file, otherwise client has to upload whole file. File is rebuilt
+     * outside of event loop (see {@link #offload}).
+     *
+     * @param client   Client that uploaded delta
+     * @param file     Uploaded file
+     * @param delta    Received delta, it is deleted after rebuilding
+     * @param checksum CRC32C of client's file
+     * @throws IOException If response cannot be sent
+     */
+    private void applyDelta(ClientConnection client, File file, File delta, long checksum) throws IOException {
+        File part = PartialFile.of(file);
+        long start = System.currentTimeMillis();
+        offload(client, () -> {
+            try {
+                long rebuilt;
+                try (InputStream in = new BufferedInputStream(new FileInputStream(delta), 1024 * 1024); FileChannel out = PartialFile.open(part, 0)) {
+                    rebuilt = FileDelta.apply(file, in, out);
                 }
+                if (rebuilt != checksum) {
+                    throw new IOException("checksum of rebuilt file is different");
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(part.toPath());
+                throw e;
+            } finally {
+                Files.deleteIfExists(delta.toPath());
+            }
+            PartialFile.complete(part, file);
+            store(List.of(file));
+            return file;
+        }, (rebuilt, error) -> {
+            if (error != null) {
+                addToLog(error);
+                writeToSocket(client, null, FTPCommand.FAILURE, -1, "Delta of " + file.getName() + " cannot be applied (" + error.getMessage() + "), upload whole file");
+                return;
             }
-            int num = client.getInStream().read(readBuffer, 0, 528);
-            if (num <= 0) break;
-            byte[] decrypted = AES.decrypt(readBuffer, new String(client.getKey()));
-            assert decrypted != null;
+            ftv.remove(part);
+            ftv.update(file);
+            System.out.println("Rebuilt " + file + " (" + file.length() + " bytes) from delta of " + client.getUsername() + " in " + (System.currentTimeMillis() - start) + " ms");
+            writeToSocket(client, null, FTPCommand.SUCCESS, 1, "File rebuilt from delta");
+        });
+    }
 
-            bos.write(decrypted, 0, fileSize < 512 ? (int) fileSize : decrypted.length);
-            fileSizeEnc -= 528;
-            fileSize -= 512;
+    /**
+     * Adds file received with {@link FTPCommand#MPUT} to client's batch and responds to client. File stays in partial file until
+     * the end of batch (see {@link UploadBatch}), so tree is not changed and client doesn't get tree for every file.
+     *
+     * @param client Client that uploaded file
+     * @param file   Uploaded file
+     * @param valid  If upload continued valid partial file (see {@link #isValidUpload(File, long)})
+     * @throws IOException If partial file cannot be deleted or response cannot be sent
+     */
+    void receiveBatchFile(ClientConnection client, File file, boolean valid) throws IOException {
+        if (!valid) {
+            Files.deleteIfExists(PartialFile.of(file).toPath());
+            writeToSocket(client, null, FTPCommand.MPUT, -1, "Partial file of " + file.getName() + " was changed, upload it again", null, 0, 0, 0);
+            return;
+        }
+        if (client.getUploadBatch() == null) {
+            client.setUploadBatch(new UploadBatch());
         }
-        writeToSocket(client, null, FTPCommand.SUCCESS, 1, "File received successfully");
-        bos.flush();
-        bos.close();
+        client.getUploadBatch().add(file);
+        writeToSocket(client, null, FTPCommand.MPUT, 1, "File received", null, 0, 0, 0);
+    }
+
+    /**
+     * Stores all files of client's batch at the end of {@link FTPCommand#MPUT} batch and responds to client with number of stored
+     * files. Tree is updated once for whole batch. Files are synced and renamed outside of event loop (see {@link #offload}).
+     *
+     * @param client Client that uploaded batch
+     * @throws IOException If response cannot be sent
+     */
+    private void storeBatch(ClientConnection client) throws IOException {
+        UploadBatch batch = client.getUploadBatch() == null ? new UploadBatch() : client.getUploadBatch();
+        client.setUploadBatch(null);
+        long start = System.currentTimeMillis();
+        offload(client, () -> {
+            List<File> stored = batch.store();
+            store(stored);
+            return stored;
+        }, (stored, error) -> {
+            if (error != null) {
+                addToLog(error);
+                writeToSocket(client, null, FTPCommand.MPUT, -1, "Batch cannot be stored: " + error.getMessage(), null, 0, 0, 0);
+                return;
+            }
+            batchStored(client, batch, stored, start);
+        });
     }
 
     /**
-     * This method writes file to stream. It encrypts file chunks (512 bytes) and sends them.
+     * Updates tree with stored files of batch and responds to client.
      *
-     * @param client     Client to whom file needs to be sent
-     * @param pathServer Server side path of file that needs to be sent
-     * @param empty      If file don't need to be sent (considering that this method is called always on every object receiving)
-     *                   this parameter is set to {@code false}
-     * @throws IOException If there is problem with server file
+     * @param client Client that uploaded batch
+     * @param batch  Stored batch
+     * @param stored Files that are stored
+     * @param start  Time when storing started
+     * @throws IOException If response cannot be sent
      */
-    public void writeFileToStream(ClientConnection client, File pathServer, boolean empty) throws IOException {
-        if (empty || pathServer == null || pathServer.getPath().equals("")) {
+    private void batchStored(ClientConnection client, UploadBatch batch, List<File> stored, long start) throws IOException {
+        for (File file : stored) {
+            ftv.remove(PartialFile.of(file));
+            ftv.update(file);
+        }
+        String message = "Stored " + stored.size() + " of " + batch.size() + " files"
+                + (batch.getErrors().isEmpty() ? "" : ", failed: " + String.join(", ", batch.getErrors()));
+        System.out.println(client.getUsername() + " (" + client.getClientIP() + ") uploaded batch. " + message + " in " + (System.currentTimeMillis() - start) + " ms");
+        writeToSocket(client, null, FTPCommand.MPUT, batch.getErrors().isEmpty() ? 1 : -1, message,
+                client.getOptions().isLazyTree() ? null : treeDelta(client), 0, 0, 0);
+    }
+
+    /**
+     * Adds received files to blob store, if deduplication is enabled. File that cannot be stored stays as it is, it is only not
+     * deduplicated. Files that were replaced by upload may leave unused blobs, so they are collected in background. Hash of every
+     * file is calculated, so it is called outside of event loop (see {@link #offload}).
+     *
+     * @param files Received files
+     */
+    private void store(List<File> files) {
+        if (blobs == null || files.isEmpty()) {
             return;
         }
-        System.out.println("Sending " + pathServer.getName() + " to " + client.getUsername() + " (" + client.getClientIP() + ")");
-        byte[] myBuffer = new byte[512];
-        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(pathServer));
-        while (true) {
-            int bytesRead = bis.read(myBuffer, 0, 512);
-            if (bytesRead == -1) break;
-            byte[] encrypted = AES.encrypt(myBuffer, new String(client.getKey()));
-            assert encrypted != null;
-            client.getOutStream().write(encrypted, 0, 528);
+        for (File file : files) {
+            try {
+                blobs.store(file);
+            } catch (IOException e) {
+                addToLog(e);
+            }
         }
-        client.getOutStream().flush();
-        bis.close();
+        System.out.println(blobs.report());
+        blobs.collectLater();
+    }
+
+    /**
+     * Checks if file requested with {@link FTPCommand#GET} or {@link FTPCommand#MGET} can be sent. Error for single file of
+     * {@link FTPCommand#MGET} is sent as response, so other files of batch are still sent.
+     *
+     * @param file Requested file
+     * @return {@code true} if it is readable file inside server's root folder
+     */
+    private boolean isReadableFile(File file) {
+        return file != null && isInRoot(file) && Files.isRegularFile(file.toPath()) && Files.isReadable(file.toPath());
+    }
 
+    /**
+     * Checks if file or folder sent by client is inside server's root folder.
+     *
+     * @param file File or folder
+     * @return {@code true} if it is inside root folder
+     */
+    private boolean isInRoot(File file) {
+        return file.toPath().toAbsolutePath().normalize().startsWith(ftv.getRootPath());
     }
 
     /**
-     * This method sends serialized {@link FTPTransferObject} to certain client with necessary data. This can be response message, tree explorer...
+     * Returns file with given name in server's folder, used for requests that name file in folder ({@link FTPCommand#REST}, uploads...).
+     *
+     * @param folder Server's folder sent by client
+     * @param name   Name of file
+     * @return File, or {@code null} if folder or name is missing or file is outside of server's root folder
+     */
+    private File fileInFolder(File folder, String name) {
+        if (folder == null || name == null || name.isEmpty()) {
+            return null;
+        }
+        File file = new File(folder.getPath() + "/" + name);
+        return isInRoot(file) ? file : null;
+    }
+
+    /**
+     * This method creates encoded {@link FTPTransferObject} (see {@link FrameCodec}). Object is encrypted by {@link FrameOutbound}
+     * when it is sent, frame starts with header, followed by encrypted object.
      *
-     * @param client          Client to whom object needs to be sent
      * @param pathClient      Path from client side (for obtaining file properties)
      * @param pathServer      Path from server side
      * @param command         FTP command
      * @param response        Response code for client
      * @param responseMessage Response message for client
-     * @throws IOException if there is problem with certain file
+     * @param additionalData  Additional data for client (tree view, session options...)
+     * @param chunkSize       Size of chunks in which file is sent
+     * @param offset          Offset from which file is sent
+     * @param length          Length of sent segment, {@code 0} if file is sent to the end
+     * @param requestId       Id of request to which object responds
+     * @return Encoded object
      */
-    public void writeObjectToStream(ClientConnection client, File pathClient, File pathServer, FTPCommand command, Integer response, String responseMessage) throws IOException {
-        FTPTransferObject objToSend = new FTPTransferObject(null, null, command, response, responseMessage, response == -1 ? null : TreeItemSerialisation.serialize(ftv.getTreeItem()));
+    byte[] createObject(File pathClient, File pathServer, FTPCommand command, Integer response, String responseMessage, byte[] additionalData, int chunkSize, long offset, long length, int requestId) {
+        FTPTransferObject objToSend = new FTPTransferObject(null, null, command, response, responseMessage, additionalData);
         objToSend.setPathClient(pathClient);
         objToSend.setPathServer(pathServer);
         if (pathServer != null) {
             if (!pathServer.getName().equals(""))
                 objToSend.setName(pathServer.getName());
         }
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutput out = new ObjectOutputStream(bos);
         if (pathServer == null)
             objToSend.setFileSize(0);
         else
             objToSend.setFileSize(pathServer.length());
-        out.writeObject(objToSend);
-        byte[] objBytes = AES.encrypt(bos.toByteArray(), new String(client.getKey()));
-        assert objBytes != null;
-        client.getOutStream().write(Arrays.copyOf((objBytes.length + "").getBytes(StandardCharsets.UTF_8), 16), 0, 16);
-        int sendObjectSize = 0;
-        while (objBytes.length - sendObjectSize > 0) {
-            byte[] tmpArray = Arrays.copyOfRange(objBytes, sendObjectSize, sendObjectSize + Math.min(objBytes.length - sendObjectSize, 512));
-            client.getOutStream().write(tmpArray, 0, tmpArray.length);
-            sendObjectSize += 512;
-        }
-        client.getOutStream().flush();
-        bos.close();
-        out.close();
+        objToSend.setChunkSize(chunkSize);
+        objToSend.setOffset(offset);
+        objToSend.setSegmentLength(length);
+        objToSend.setRequestId(requestId);
+        return FrameCodec.encode(objToSend);
     }
 
     /**
      * This method generates encryption key using Diffie Hellman algorithm.
      *
      * @param client Client with whom key needs to be generated
+     * @param reader Reader of client socket
      * @return Generated key
+     * @throws IOException If client disconnected or didn't send it's code
      */
-    private String generateKey(Socket client) {
-        KeyGenerator keyGenerator = new KeyGenerator(new Random().nextInt() + 10);
-        try {
-            byte[] toSend = new byte[32];
-            client.getOutputStream().write(Arrays.copyOf(String.valueOf(keyGenerator.getCodeToSend()).getBytes(StandardCharsets.US_ASCII), 16));
-            client.getInputStream().read(toSend, 0, 32);
-            keyGenerator.setReceivedCode(Long.parseLong(new String(toSend, StandardCharsets.US_ASCII).trim()));
-            client.getOutputStream().flush();
-            return keyGenerator.getFinalCode() + "";
-        } catch (IOException e) {
-            addToLog(e);
+    private String generateKey(Socket client, FrameReader reader) throws IOException {
+        KeyGenerator keyGenerator = createKeyGenerator();
+        client.getOutputStream().write(Arrays.copyOf(String.valueOf(keyGenerator.getCodeToSend()).getBytes(StandardCharsets.US_ASCII), 16));
+        client.getOutputStream().flush();
+        keyGenerator.setReceivedCode(KeyGenerator.parseCode(reader.readNext(16)));
+        return keyGenerator.getFinalCode() + "";
+    }
+
+    /**
+     * Creates {@link KeyGenerator} with random secret number for new client.
+     *
+     * @return Key generator
+     */
+    KeyGenerator createKeyGenerator() {
+        return new KeyGenerator(new Random().nextInt() + 10);
+    }
+
+    /**
+     * This method is used for authenticating user before giving permission to connect to server. Authenticated user is connected
+     * only if limits of sessions allow it (see {@link #admit(ClientConnection)}), otherwise it gets {@link FTPCommand#FAILURE} response.
+     *
+     * @param socket   Possible client socket
+     * @param deadline Deadline of handshake (see {@link #expireHandshake(Socket)})
+     * @return Connected client represented as {@link ClientConnection}, or {@code null} if client is refused
+     * @throws IOException if there is problem with reading/writing or handshake timed out
+     */
+    private ClientConnection authenticateUser(Socket socket, Future<?> deadline) throws IOException {
+        FrameReader reader = new FrameReader(socket, 0, FrameReader.DEFAULT_READ_TIMEOUT);
+        String genKey = generateKey(socket, reader);
+        byte[] fromClient = reader.readFrame(32, FrameReader.MAX_CREDENTIALS_SIZE);
+        if (!deadline.cancel(false)) {
+            throw new SocketTimeoutException("Handshake timed out");
         }
+        ClientConnection currentClient = login(socket, genKey, fromClient);
+        String refused = currentClient == null ? "Incorrect credentials!" : admit(currentClient);
+        if (refused == null) {
+            currentClient.setReader(reader);
+            startWriter(currentClient);
+            writeToSocket(currentClient, null, FTPCommand.SUCCESS, 1, "Credentials correct. Successfully logged in", null, 0, 0, 0);
+            readFromSocket(currentClient);
+            return currentClient;
+        }
+        ClientConnection client = new ClientConnection(null, null, socket);
+        client.setKey(genKey);
+        startWriter(client);
+        writeToSocket(client, null, FTPCommand.FAILURE, -1, refused);
+        client.getOutbound().closeAfterFlush();
         return null;
     }
 
     /**
-     * This method is used for authenticating user before giving permission to connect to server.
+     * Adds authenticated client to list of active clients if limits of sessions allow it (see {@link AdmissionControl}).
+     *
+     * @param client Authenticated client
+     * @return {@code null} if client is connected, otherwise reason for client why it is refused
+     */
+    String admit(ClientConnection client) {
+        String refused = admission.admit(client.getUsername(), getAddress(client.getSocket()));
+        if (refused == null) {
+            manager.addClient(client);
+        }
+        return refused;
+    }
+
+    /**
+     * Closes session that was idle for {@code idle.timeout}. Client gets {@link FTPCommand#FAILURE} response before it's socket is closed.
+     *
+     * @param client Idle client
+     */
+    void closeIdle(ClientConnection client) {
+        System.err.println(client.getUsername() + " (" + client.getClientIP() + ") was idle for " + admission.getIdleTimeout() + " ms. Disconnecting");
+        admission.idleClosed();
+        writeToSocket(client, null, FTPCommand.FAILURE, -1, "Session closed after " + admission.getIdleTimeout() / 1000 + " s without requests");
+        client.getOutbound().closeAfterFlush();
+        if (manager.removeClient(client)) {
+            admission.release(client.getUsername(), getAddress(client.getSocket()));
+        }
+        System.out.println("Clients remaining: " + manager.size());
+    }
+
+    /**
+     * Returns address of client without port, used for limit of sessions from one address.
      *
-     * @param socket Possible client socket
-     * @return Connected client represented as {@link ClientConnection}
-     * @throws IOException if there is problem with reading/writing
+     * @param socket Client socket
+     * @return Address of client
      */
-    private ClientConnection authenticateUser(Socket socket) throws IOException {
+    static String getAddress(Socket socket) {
+        InetSocketAddress address = (InetSocketAddress) socket.getRemoteSocketAddress();
+        return address == null ? "unknown" : address.getAddress().getHostAddress();
+    }
+
+    /**
+     * Decrypts credentials sent by client and checks them.
+     *
+     * @param socket     Client socket
+     * @param genKey     Key generated for client
+     * @param fromClient Encrypted credentials in format {@code username:password}
+     * @return Connected client represented as {@link ClientConnection}, or {@code null} if credentials are incorrect
+     */
+    ClientConnection login(Socket socket, String genKey, byte[] fromClient) {
         String username = "";
         String password = "";
         ClientConnection currentClient = null;
-        InputStream inStream = socket.getInputStream();
-        String genKey = generateKey(socket);
-        byte[] sizeByte = new byte[32];
-        socket.getInputStream().read(sizeByte, 0, 32);
-        int size = Integer.parseInt(new String(sizeByte, StandardCharsets.US_ASCII).trim());
-        byte[] fromClient = new byte[size];
-        inStream.read(fromClient, 0, size);
-        String[] credentials = (new String(Objects.requireNonNull(AES.decrypt(fromClient, genKey)), StandardCharsets.UTF_8)).split(":");
+        byte[] decrypted = AES.decrypt(fromClient, genKey);
+        String[] credentials = decrypted == null ? new String[0] : new String(decrypted, StandardCharsets.UTF_8).split(":");
         if (credentials.length == 2) {
             username = credentials[0].trim();
             password = credentials[1].trim();
@@ -350,14 +1286,10 @@ public class FTPServer {
         if (checkCredentials(username,password)) {
             currentClient = new ClientConnection(username, password, socket);
             currentClient.setKey(genKey);
+            currentClient.setShaper(bandwidth.newSession(username));
             System.out.println("Credentials correct. Successfully logged in as " + username + ", IP:" + currentClient.getClientIP());
-            writeToSocket(currentClient, null, FTPCommand.SUCCESS, 1, "Credentials correct. Successfully logged in");
-            readFromSocket(currentClient);
         } else {
-            ClientConnection client = new ClientConnection(null, null, socket);
-            client.setKey(genKey);
             System.out.println("Incorrect credentials!");
-            writeToSocket(client, null, FTPCommand.FAILURE, -1, "Incorrect credentials!");
         }
         return currentClient;
     }
@@ -379,6 +1311,146 @@ public class FTPServer {
         }
     }
 
+    /**
+     * Returns limits of connections and sessions, which can be changed with {@link AdmissionControl#configure(Properties)}.
+     *
+     * @return Admission control
+     */
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Returns rate limits of server. Limits can be changed while server is running with {@link BandwidthLimiter#configure(Properties)}.
+     *
+     * @return Bandwidth limiter
+     */
+    public BandwidthLimiter getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Loads server configuration from {@code server.properties}. File is optional, default values are used for missing options.
+     * File is checked for changes while server is running (see {@link #watchConfig(File)}).
+     */
+    private void loadConfig() {
+        File file = new File("server.properties");
+        watchConfig(file);
+        if (!file.exists()) {
+            return;
+        }
+        try (FileReader reader = new FileReader(file)) {
+            config.load(reader);
+        } catch (IOException e) {
+            addToLog(e);
+        }
+        applyConfig();
+        try {
+            hashes = new HashCache(Math.max(0, Integer.parseInt(config.getProperty("hash.cache", "" + DEFAULT_HASH_CACHE).trim())));
+        } catch (NumberFormatException e) {
+            addToLog(e);
+        }
+        if (config.getProperty("dedup", "0").trim().equals("1")) {
+            String store = config.getProperty("dedup.store", ftv.getRootPath() + ".blobs").trim();
+            try {
+                blobs = new BlobStore(new File(store).toPath());
+                System.out.println("Blob store " + blobs.getRoot() + ". " + blobs.report());
+            } catch (IOException e) {
+                addToLog(e);
+                System.err.println("Blob store cannot be opened, deduplication is disabled: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Applies options that can be changed while server is running: chunk size, memory mapping threshold, rate limits and admission limits.
+     */
+    private void applyConfig() {
+        setMaxChunkSize(SessionOptions.parseSize(config.getProperty("chunk.max"), SessionOptions.DEFAULT_MAX_CHUNK_SIZE));
+        setMapThreshold(SessionOptions.parseSize(config.getProperty("mmap.threshold"), DEFAULT_MAP_THRESHOLD));
+        bandwidth.configure(config);
+        System.out.println(bandwidth.report());
+        admission.configure(config);
+        System.out.println(admission.report());
+    }
+
+    /**
+     * Starts thread that reads configuration again when file is changed, so rate limits and other options from {@link #applyConfig()}
+     * can be changed without restarting server and dropping sessions. Other options are used only when server starts.
+     *
+     * @param file Configuration file
+     */
+    private void watchConfig(File file) {
+        Thread watcher = new Thread(() -> {
+            long modified = file.lastModified();
+            while (true) {
+                try {
+                    Thread.sleep(CONFIG_CHECK_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (file.lastModified() == modified) {
+                    continue;
+                }
+                modified = file.lastModified();
+                Properties changed = new Properties();
+                try (FileReader reader = new FileReader(file)) {
+                    changed.load(reader);
+                } catch (IOException e) {
+                    addToLog(e);
+                    continue;
+                }
+                // removed options are removed one by one, so other threads never see empty configuration
+                config.keySet().retainAll(changed.keySet());
+                config.putAll(changed);
+                System.out.println("Configuration changed");
+                applyConfig();
+            }
+        }, "Config watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Grants session options requested by client according to server policy. Encryption can be disabled only if it is allowed
+     * ({@code plaintext.allowed=1}) and client's address starts with one of trusted prefixes ({@code plaintext.networks}).
+     * Requested cipher is granted if it is supported, chunk size is limited to maximum chunk size of server ({@code chunk.max}).
+     * Compression is granted in sessions with encryption, unless it is disabled with {@code compression.allowed=0}.
+     * Deduplication is granted if server stores files by content ({@code dedup=1}). Granted options carry new random bytes of server.
+     *
+     * @param client    Client that requested options
+     * @param requested Requested options
+     * @return Granted options
+     */
+    SessionOptions negotiateOptions(ClientConnection client, SessionOptions requested) {
+        SessionOptions granted = new SessionOptions();
+        granted.setEncryption(requested.isEncryption() || !isTrusted(client));
+        if (CryptoContext.AES_ECB.equals(requested.getCipher())) {
+            granted.setCipher(CryptoContext.AES_ECB);
+        }
+        granted.setMaxChunkSize(maxChunkSize);
+        granted.setChunkSize(granted.limitChunkSize(requested.getChunkSize()));
+        granted.setLazyTree(requested.isLazyTree());
+        granted.setCompression(requested.isCompression() && granted.isEncryption()
+                && !config.getProperty("compression.allowed", "1").trim().equals("0"));
+        granted.setDedup(requested.isDedup() && blobs != null);
+        granted.setRandom(SessionOptions.newRandom());
+        return granted;
+    }
+
+    private boolean isTrusted(ClientConnection client) {
+        if (!config.getProperty("plaintext.allowed", "0").trim().equals("1")) {
+            return false;
+        }
+        String address = client.getSocket().getInetAddress().getHostAddress();
+        for (String network : config.getProperty("plaintext.networks", "127.0.0.1").split(",")) {
+            if (!network.trim().isEmpty() && address.startsWith(network.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean checkCredentials(String username, String password){
         if(credentials.containsKey(username)){
             return credentials.get(username).equals(password);
@@ -386,6 +1458,14 @@ public class FTPServer {
     }
 
 
+    ConnectionManager getManager() {
+        return manager;
+    }
+
+    FolderTreeView getTreeView() {
+        return ftv;
+    }
+
     /**
      * Creating folder on server side
      *
@@ -436,7 +1516,9 @@ public class FTPServer {
             System.err.println("Missing or invalid arugments. " + args.length);
             return;
         }
-        FTPServer chatServer = new FTPServer(Integer.parseInt(args[0]));
+        ServerMode mode = args.length > 1 ? ServerMode.valueOf(args[1].toUpperCase()) : ServerMode.BLOCKING;
+        int eventLoops = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        FTPServer chatServer = new FTPServer(Integer.parseInt(args[0]), mode, eventLoops);
         chatServer.createSocket();
     }
 
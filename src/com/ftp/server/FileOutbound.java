@@ -0,0 +1,183 @@
+package com.ftp.server;
+
+import com.ftp.file.BufferPool;
+import com.ftp.file.ChunkCompressor;
+import com.ftp.file.CryptoContext;
+import com.ftp.file.FrameCodec;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File that is sent to client after {@link com.ftp.file.FTPCommand#GET} response. File is read and encrypted in chunks (one record
+ * of size sent in response, see {@link com.ftp.file.FTPTransferObject#getChunkSize()}) only when writer needs more data,
+ * so only one chunk is kept in memory. Last chunk is encrypted with it's real length. File can be sent from offset, for continuing
+ * interrupted download, and only segment of given length can be sent (see {@link com.ftp.file.FTPTransferObject#getSegmentLength()}).
+ * In sessions with compression chunks are compressed before encryption. Every record is returned as one frame of stream of request
+ * (see {@link FrameCodec}).
+ * <p>
+ * File is opened and chunk buffer is taken when writer reaches file, so many files can wait in queue (for example files of
+ * {@link com.ftp.file.FTPCommand#MGET} batch) without holding memory and open files. Chunk and frame buffers are taken from
+ * {@link BufferPool}, frame is given back by queue after it is written ({@link #recycle(ByteBuffer)}) and chunk after last frame,
+ * so file is sent without allocating buffers for every chunk.
+ * <p>
+ * Big files without compression are not read to chunk buffer, they are mapped in memory in windows of {@link #MAP_WINDOW} bytes
+ * and cipher reads chunks directly from mapped window and writes record directly to frame. Window slides through file in the
+ * order file is sent, so operating system reads ahead pages of mapped file, and clients that download same file share it's pages
+ * in page cache instead of having their own copies in heap.
+ */
+public class FileOutbound implements Outbound {
+    private static final int MAP_WINDOW = 16 * 1024 * 1024;
+    private final File path;
+    private final CryptoContext crypto;
+    private final int chunkSize;
+    private final long offset;
+    private final int stream;
+    private final boolean compression;
+    private final boolean mapped;
+    private ChunkCompressor compressor;
+    private FileChannel file;
+    private ByteBuffer chunk;
+    private ByteBuffer record;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private long remaining;
+
+    /**
+     * Creates file that is sent in frames of given stream.
+     *
+     * @param path        File to be sent
+     * @param crypto      Crypto context of client's session
+     * @param chunkSize   Size of chunks
+     * @param offset      Offset from which file is sent
+     * @param length      Number of bytes to be sent
+     * @param stream      Id of request
+     * @param compression If chunks are compressed
+     * @param mapped      If file is read through memory mapped window, it is used only without compression
+     */
+    public FileOutbound(File path, CryptoContext crypto, int chunkSize, long offset, long length, int stream, boolean compression, boolean mapped) {
+        this.path = path;
+        this.crypto = crypto;
+        this.chunkSize = chunkSize;
+        this.offset = offset;
+        this.remaining = length;
+        this.stream = stream;
+        this.compression = compression;
+        this.mapped = mapped && !compression;
+    }
+
+    private void open() throws IOException {
+        file = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+        file.position(offset);
+        position = offset;
+        if (mapped) {
+            return;
+        }
+        int length = (int) Math.max(1, Math.min(chunkSize, remaining));
+        chunk = BufferPool.acquire(length);
+        if (compression) {
+            record = BufferPool.acquire(ChunkCompressor.maxRecordLength(length));
+            compressor = new ChunkCompressor();
+        }
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (remaining == 0) {
+            close();
+            // buffers are given back only by writer, file closed by other thread leaves them to garbage collector
+            BufferPool.release(chunk);
+            BufferPool.release(record);
+            chunk = null;
+            record = null;
+            return null;
+        }
+        if (file == null) {
+            open();
+        }
+        if (mapped) {
+            return nextMapped();
+        }
+        chunk.clear().limit((int) Math.min(chunkSize, remaining));
+        while (chunk.hasRemaining()) {
+            if (file.read(chunk) == -1) {
+                throw new EOFException("File was truncated while sending");
+            }
+        }
+        remaining -= chunk.position();
+        chunk.flip();
+        ByteBuffer data = chunk;
+        if (compressor != null) {
+            data = record.clear().limit(compressor.compress(chunk.array(), 0, chunk.limit(), record.array()));
+        }
+        int sealedLength = crypto.sealedLength(data.remaining());
+        ByteBuffer frame = FrameCodec.putHeader(BufferPool.acquire(FrameCodec.HEADER_LENGTH + sealedLength), sealedLength, stream);
+        crypto.seal(data, frame);
+        return frame.flip();
+    }
+
+    /**
+     * Encrypts next chunk from mapped window directly to frame. Window is mapped again when chunk is not inside it.
+     */
+    private ByteBuffer nextMapped() throws IOException {
+        int length = (int) Math.min(chunkSize, remaining);
+        if (window == null || position + length > windowStart + window.capacity()) {
+            long size = Math.min(Math.max(MAP_WINDOW, chunkSize), remaining);
+            if (file.size() < position + size) {
+                throw new EOFException("File was truncated while sending");
+            }
+            windowStart = position;
+            window = file.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+        }
+        int sealedLength = crypto.sealedLength(length);
+        ByteBuffer frame = FrameCodec.putHeader(BufferPool.acquire(FrameCodec.HEADER_LENGTH + sealedLength), sealedLength, stream);
+        int start = (int) (position - windowStart);
+        window.limit(start + length).position(start);
+        try {
+            crypto.seal(window, frame);
+        } catch (InternalError e) {
+            // mapped page of file that was truncated after it was mapped cannot be read
+            throw new EOFException("File was truncated while sending");
+        }
+        position += length;
+        remaining -= length;
+        return frame.flip();
+    }
+
+    @Override
+    public void recycle(ByteBuffer buffer) {
+        BufferPool.release(buffer);
+    }
+
+    @Override
+    public int getStream() {
+        return stream;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return remaining == 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        window = null;
+        if (compressor != null) {
+            if (remaining == 0) {
+                System.out.println("Sent " + path.getName() + ": " + compressor.sendReport());
+            }
+            compressor.close();
+            compressor = null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.ftp.server;
+
+import com.ftp.file.CryptoContext;
+import com.ftp.file.FrameCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frame that is already prepared in memory, for example encoded {@link com.ftp.file.FTPTransferObject}. If frame has
+ * {@link CryptoContext}, it is encrypted by writer just before sending and sent with header (see {@link FrameCodec}), so records are
+ * encrypted in the same order they are sent.
+ */
+public class FrameOutbound implements Outbound {
+    private final byte[] frame;
+    private final CryptoContext crypto;
+    private boolean sent = false;
+
+    /**
+     * Creates frame that is sent as it is.
+     *
+     * @param frame Frame bytes
+     */
+    public FrameOutbound(byte[] frame) {
+        this(frame, null);
+    }
+
+    /**
+     * Creates frame that is encrypted before sending.
+     *
+     * @param frame  Object bytes
+     * @param crypto Crypto context of client's session
+     */
+    public FrameOutbound(byte[] frame, CryptoContext crypto) {
+        this.frame = frame;
+        this.crypto = crypto;
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+        if (sent) return null;
+        sent = true;
+        if (crypto == null) {
+            return ByteBuffer.wrap(frame);
+        }
+        byte[] encrypted = crypto.seal(frame, 0, frame.length);
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + encrypted.length);
+        buffer.put(FrameCodec.header(encrypted.length));
+        buffer.put(encrypted);
+        return buffer.flip();
+    }
+
+    @Override
+    public long queuedBytes() {
+        return frame.length;
+    }
+}
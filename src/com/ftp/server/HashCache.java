@@ -0,0 +1,83 @@
+package com.ftp.server;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of hashes calculated for {@link com.ftp.file.FTPCommand#HASH}. Hash is kept for path, algorithm and range of file,
+ * together with size and modification time that file had before hashing. Changed file has other size or modification time, so
+ * it's hash is calculated again. Least recently used hash is removed when cache is full.
+ */
+class HashCache {
+    /**
+     * Files modified less than this before hashing are not cached, because they can be changed again without changing modification time.
+     */
+    private static final long MODIFIED_MARGIN = 2000;
+    private final Map<String, Entry> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    HashCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns cached hash if file is not changed since it was hashed.
+     *
+     * @param file      Hashed file
+     * @param algorithm Hash algorithm
+     * @param offset    Start of range
+     * @param length    Length of range
+     * @param size      Current size of file
+     * @param modified  Current modification time of file
+     * @return Hash bytes, or {@code null} if hash has to be calculated
+     */
+    synchronized byte[] get(File file, String algorithm, long offset, long length, long size, long modified) {
+        Entry entry = entries.get(key(file, algorithm, offset, length));
+        if (entry == null || entry.size != size || entry.modified != modified) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.hash;
+    }
+
+    /**
+     * Adds calculated hash to cache.
+     *
+     * @param size     Size of file before hashing
+     * @param modified Modification time of file before hashing
+     */
+    synchronized void put(File file, String algorithm, long offset, long length, long size, long modified, byte[] hash) {
+        if (modified > System.currentTimeMillis() - MODIFIED_MARGIN) {
+            return;
+        }
+        entries.put(key(file, algorithm, offset, length), new Entry(size, modified, hash));
+    }
+
+    synchronized String report() {
+        return entries.size() + " hashes cached, " + hits + " hits, " + misses + " misses";
+    }
+
+    private static String key(File file, String algorithm, long offset, long length) {
+        return file.getAbsolutePath() + "\n" + algorithm + "\n" + offset + "\n" + length;
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final byte[] hash;
+
+        private Entry(long size, long modified, byte[] hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ftp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class is used for serving clients in {@link ServerMode#NIO} mode. It accepts connections on given port and assigns
+ * each accepted {@link SocketChannel} to one of the {@link EventLoop}s (round robin). Number of threads doesn't depend on number
+ * of connected clients, there is one accepting thread and fixed number of event loop threads. Connection is closed right after
+ * accepting if too many clients are in handshake (see {@link AdmissionControl}). Event loop that stopped because of error is skipped.
+ */
+public class NIOServer {
+    private final FTPServer server;
+    private final int port;
+    private final EventLoop[] eventLoops;
+
+    public NIOServer(FTPServer server, int port, int eventLoops) {
+        this.server = server;
+        this.port = port;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoops)];
+    }
+
+    /**
+     * Starts event loops and accepts connections until server is stopped.
+     *
+     * @throws IOException If server channel cannot be opened on given port
+     */
+    public void start() throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(server);
+            eventLoops[i].start("EventLoop-" + i);
+        }
+        System.err.println("Server ready (NIO, " + eventLoops.length + " event loops)");
+        int next = 0;
+        while (true) {
+            SocketChannel channel = null;
+            boolean handshake = false;
+            try {
+                channel = serverChannel.accept();
+                if (!server.getAdmission().startHandshake(FTPServer.getAddress(channel.socket()))) {
+                    channel.close();
+                    continue;
+                }
+                handshake = true;
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                for (int i = 0; i < eventLoops.length && eventLoops[next].isStopped(); i++) {
+                    next = (next + 1) % eventLoops.length;
+                }
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            } catch (IOException io) {
+                server.addToLog(io);
+                if (handshake) {
+                    // session was not created, so it cannot end handshake
+                    server.getAdmission().endHandshake();
+                }
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+}
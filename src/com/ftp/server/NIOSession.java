@@ -0,0 +1,394 @@
+package com.ftp.server;
+
+import com.ftp.file.FTPCommand;
+import com.ftp.file.FrameCodec;
+import com.ftp.file.FTPTransferObject;
+import com.ftp.file.FrameReader;
+import com.ftp.file.KeyGenerator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class represents one client connection in {@link ServerMode#NIO} mode. Whole protocol (key exchange, authentication,
+ * reading {@link FTPTransferObject} frames, receiving and sending files) is implemented as state machine driven by {@link EventLoop}
+ * when channel is readable or writable. Wire format is same as in {@link ServerMode#BLOCKING} mode. Responses are added to
+ * {@link OutboundQueue} and written when channel is writable. Frames of uploaded files are written to their uploads (see {@link UploadStream}).
+ * Session is closed if handshake is not finished in {@code handshake.timeout} or if client sends nothing in {@code idle.timeout}
+ * (see {@link AdmissionControl}).
+ */
+public class NIOSession {
+    private static final long IDLE_CHECK_INTERVAL = 10_000_000_000L;
+    /**
+     * Task that is run on event loop of session with {@link #execute(Task)}.
+     */
+    @FunctionalInterface
+    interface Task {
+        void run() throws IOException;
+    }
+
+    private enum State {
+        /**
+         * Waiting for client's Diffie Hellman code (16 bytes)
+         */
+        KEY_EXCHANGE,
+
+        /**
+         * Waiting for size of encrypted credentials (32 bytes)
+         */
+        CREDENTIALS_SIZE,
+
+        /**
+         * Waiting for encrypted credentials
+         */
+        CREDENTIALS,
+
+        /**
+         * Waiting for header of next frame (see {@link com.ftp.file.FrameCodec})
+         */
+        FRAME_SIZE,
+
+        /**
+         * Waiting for encrypted object
+         */
+        FRAME,
+
+        /**
+         * Waiting for frame of uploaded file (one encrypted record)
+         */
+        DATA,
+
+        /**
+         * Receiving frame of file without encryption, file is written directly from channel
+         */
+        FILE_DIRECT,
+
+        /**
+         * No more reading, session is closed or will be closed after sending remaining data
+         */
+        CLOSED
+    }
+
+    private final FTPServer server;
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final KeyGenerator keyGenerator;
+    private final OutboundQueue outbound = new OutboundQueue();
+    private SelectionKey key;
+    private State state;
+    private ByteBuffer inBuffer;
+    private String genKey;
+    private ClientConnection client;
+    private UploadStream upload;
+    private long frameRemaining;
+    private boolean readingSuspended = false;
+    private boolean flushScheduled = false;
+    private boolean handshaking = true;
+    private long lastRead = System.nanoTime();
+    private boolean closed = false;
+
+    public NIOSession(FTPServer server, EventLoop loop, SocketChannel channel) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.keyGenerator = server.createKeyGenerator();
+    }
+
+    /**
+     * Registers session with selector and starts key exchange by sending server's code.
+     *
+     * @param selector Selector of event loop
+     * @throws IOException If channel cannot be registered
+     */
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        outbound.add(new FrameOutbound(Arrays.copyOf(String.valueOf(keyGenerator.getCodeToSend()).getBytes(StandardCharsets.US_ASCII), 16)));
+        flush();
+        expect(State.KEY_EXCHANGE, 16);
+        int timeout = server.getAdmission().getHandshakeTimeout();
+        if (timeout > 0) {
+            loop.schedule(this::expireHandshake, timeout * 1_000_000L);
+        }
+    }
+
+    /**
+     * Reads available bytes from channel and handles every completed part of the protocol. Reading stops when responses fill the
+     * queue (see {@link #flush()}), so client that sends many requests at once (for example {@link FTPCommand#MGET} batch) waits
+     * until it reads responses.
+     *
+     * @throws IOException If client disconnected or sent invalid data
+     */
+    void onReadable() throws IOException {
+        lastRead = System.nanoTime();
+        while (state != State.CLOSED && !readingSuspended) {
+            if (state == State.FILE_DIRECT) {
+                if (!readFileDirect()) {
+                    return;
+                }
+                continue;
+            }
+            int num = channel.read(inBuffer);
+            if (num == -1) {
+                throw new EOFException("Client closed connection");
+            }
+            if (inBuffer.hasRemaining()) {
+                return;
+            }
+            inBuffer.flip();
+            handle(inBuffer);
+        }
+    }
+
+    /**
+     * Writes as much of queued data as channel can accept. Data is taken from {@link OutboundQueue} in batches using event loop's
+     * batch buffer, only data that channel didn't accept is copied to queue's own buffer. When queue drops below low water mark
+     * reading from client is resumed. If files wait for rate limits of session, writing is started again when limits allow it.
+     *
+     * @throws IOException If data cannot be written
+     */
+    void onWritable() throws IOException {
+        if (outbound.writeTo(channel, loop.getBatchBuffer())) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (outbound.isCloseAfterFlush()) {
+                close();
+                return;
+            }
+            long delay = outbound.throttleDelay();
+            if (delay >= 0 && !flushScheduled) {
+                flushScheduled = true;
+                loop.schedule(() -> {
+                    flushScheduled = false;
+                    flush();
+                }, delay);
+            }
+        }
+        if (readingSuspended && !closed && outbound.isBelowLowWaterMark()) {
+            readingSuspended = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Starts writing of data added to {@link OutboundQueue}. It is called by {@link FTPServer#writeToSocket} after adding response
+     * to queue. If queue is above high water mark, reading from client is suspended until client reads queued data.
+     */
+    void flush() {
+        if (!loop.inEventLoop()) {
+            loop.execute(this::flush);
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        int ops = key.interestOps() | SelectionKey.OP_WRITE;
+        if (outbound.isAboveHighWaterMark()) {
+            readingSuspended = true;
+            ops &= ~SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Runs task on event loop of this session, for example response to request whose slow part was run on other thread (see
+     * {@link FTPServer#offload}). Task is not run if session is already closed, and session is closed if task fails.
+     *
+     * @param task Task to be executed
+     */
+    void execute(Task task) {
+        loop.execute(() -> {
+            if (closed) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (IOException e) {
+                close();
+            } catch (RuntimeException e) {
+                server.addToLog(e);
+                close();
+            }
+        });
+    }
+
+    /**
+     * Closes session. If client was authenticated it is removed from list of active clients.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        state = State.CLOSED;
+        endHandshake();
+        if (key != null) {
+            key.cancel();
+        }
+        outbound.close();
+        if (client != null && client.getUsername() != null) {
+            server.disconnect(client);
+        } else {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                server.addToLog(e);
+            }
+        }
+    }
+
+    private void handle(ByteBuffer data) throws IOException {
+        if (state == State.DATA) {
+            // file frame is decrypted directly from input buffer
+            upload.receive(data);
+            finishFrame();
+            return;
+        }
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        switch (state) {
+            case KEY_EXCHANGE:
+                keyGenerator.setReceivedCode(KeyGenerator.parseCode(bytes));
+                genKey = keyGenerator.getFinalCode() + "";
+                expect(State.CREDENTIALS_SIZE, 32);
+                break;
+            case CREDENTIALS_SIZE:
+                expect(State.CREDENTIALS, FrameReader.parseSize(bytes, FrameReader.MAX_CREDENTIALS_SIZE));
+                break;
+            case CREDENTIALS:
+                authenticate(bytes);
+                break;
+            case FRAME_SIZE:
+                int length = FrameCodec.parseHeader(bytes);
+                int stream = FrameCodec.parseStream(bytes);
+                if (stream == 0) {
+                    expect(State.FRAME, length);
+                    break;
+                }
+                upload = server.getUpload(client, stream);
+                if (client.getOptions().isEncryption()) {
+                    expect(State.DATA, length);
+                } else {
+                    frameRemaining = length;
+                    state = State.FILE_DIRECT;
+                }
+                break;
+            case FRAME:
+                FTPTransferObject readObject = server.decodeObject(client, bytes);
+                if (readObject.getFileSize() == 0) {
+                    execute(readObject);
+                } else {
+                    server.startUpload(client, readObject);
+                    expect(State.FRAME_SIZE, FrameCodec.HEADER_LENGTH);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void authenticate(byte[] credentials) throws IOException {
+        endHandshake();
+        client = server.login(channel.socket(), genKey, credentials);
+        String refused = client == null ? "Incorrect credentials!" : server.admit(client);
+        if (refused == null) {
+            client.setSession(this);
+            client.setOutbound(outbound);
+            System.out.println("Clients available: " + server.getManager().size());
+            server.writeToSocket(client, null, FTPCommand.SUCCESS, 1, "Credentials correct. Successfully logged in", null, 0, 0, 0);
+            expect(State.FRAME_SIZE, FrameCodec.HEADER_LENGTH);
+            checkIdle();
+        } else {
+            client = new ClientConnection(null, null, channel.socket());
+            client.setKey(genKey);
+            client.setSession(this);
+            client.setOutbound(outbound);
+            server.writeToSocket(client, null, FTPCommand.FAILURE, -1, refused);
+            key.interestOps(SelectionKey.OP_WRITE);
+            state = State.CLOSED;
+            outbound.closeAfterFlush();
+        }
+    }
+
+    private void endHandshake() {
+        if (handshaking) {
+            handshaking = false;
+            server.getAdmission().endHandshake();
+        }
+    }
+
+    private void expireHandshake() {
+        if (handshaking && !closed) {
+            server.getAdmission().handshakeTimedOut(FTPServer.getAddress(channel.socket()));
+            close();
+        }
+    }
+
+    /**
+     * Closes session if client sent nothing in idle timeout and no file is being sent to it, otherwise checks it again later.
+     * Timeout is read on every check, so it can be changed while session is connected.
+     */
+    private void checkIdle() {
+        if (closed || state == State.CLOSED) {
+            return;
+        }
+        long timeout = server.getAdmission().getIdleTimeout() * 1_000_000L;
+        long idle = System.nanoTime() - lastRead;
+        if (timeout == 0 || idle < timeout || outbound.hasFiles()) {
+            loop.schedule(this::checkIdle, timeout == 0 ? IDLE_CHECK_INTERVAL : idle < timeout ? timeout - idle : timeout);
+            return;
+        }
+        server.closeIdle(client);
+        key.interestOps(SelectionKey.OP_WRITE);
+        state = State.CLOSED;
+    }
+
+    /**
+     * Writes bytes of frame that are available in channel directly to file using {@link FileChannel#transferFrom}.
+     *
+     * @return {@code true} if whole frame is received
+     * @throws IOException If client disconnected or file cannot be written
+     */
+    private boolean readFileDirect() throws IOException {
+        if (frameRemaining > 0) {
+            frameRemaining -= upload.receiveDirect(channel, frameRemaining);
+        }
+        if (frameRemaining > 0) {
+            return false;
+        }
+        finishFrame();
+        return true;
+    }
+
+    private void finishFrame() throws IOException {
+        if (upload.isComplete()) {
+            server.finishUpload(client, upload);
+        }
+        upload = null;
+        expect(State.FRAME_SIZE, FrameCodec.HEADER_LENGTH);
+    }
+
+    private void execute(FTPTransferObject readObject) throws IOException {
+        if (server.executeCommand(client, readObject)) {
+            expect(State.FRAME_SIZE, FrameCodec.HEADER_LENGTH);
+        } else {
+            closed = true;
+            state = State.CLOSED;
+        }
+    }
+
+    private void expect(State next, int size) {
+        state = next;
+        // buffer of file frames is kept while client uploads files, frames of files come between other frames
+        boolean uploading = client != null && !client.getUploads().isEmpty();
+        if (inBuffer == null || inBuffer.capacity() < size || size <= 528 && inBuffer.capacity() > 528 && !uploading) {
+            inBuffer = ByteBuffer.allocate(Math.max(size, 528));
+        }
+        inBuffer.clear().limit(size);
+    }
+}
@@ -0,0 +1,96 @@
+package com.ftp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Part of data that is waiting in {@link OutboundQueue} to be sent to client. Data is returned in buffers, so files can be
+ * sent chunk by chunk without being loaded in memory. Direct parts are not returned in buffers, they write themselves to client's channel.
+ * Files are sent as streams (see {@link com.ftp.file.FrameCodec}): every buffer is one whole frame, direct part writes one frame at a time,
+ * so queue can send other data between frames.
+ */
+public interface Outbound {
+
+    /**
+     * Returns next buffer to be written to client.
+     *
+     * @return Next buffer or {@code null} if there is no more data
+     * @throws IOException If data cannot be prepared (for example file cannot be read)
+     */
+    ByteBuffer next() throws IOException;
+
+    /**
+     * Gives back buffer returned by {@link #next()} after it is written or copied to batch, so part can reuse it for next frame.
+     * Buffers of parts that are closed before they are sent are not given back.
+     *
+     * @param buffer Buffer returned by {@link #next()}
+     */
+    default void recycle(ByteBuffer buffer) {
+    }
+
+    /**
+     * Checks if this part writes itself to channel using {@link #transferTo(WritableByteChannel)} instead of returning buffers.
+     *
+     * @return {@code true} for direct parts
+     */
+    default boolean isDirect() {
+        return false;
+    }
+
+    /**
+     * Writes part of the data directly to client's channel. Used only if {@link #isDirect()} returns {@code true}.
+     *
+     * @param channel Client's channel
+     * @return Number of written bytes, or -1 if there is no more data
+     * @throws IOException If data cannot be written
+     */
+    default long transferTo(WritableByteChannel channel) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns stream of this part. Parts of stream {@code 0} (objects) are sent in order they are added, streams are sent
+     * at the same time, one frame of each stream in turn, and only while they have credit.
+     *
+     * @return Id of request whose file is sent, {@code 0} if part is not file
+     */
+    default int getStream() {
+        return 0;
+    }
+
+    /**
+     * Checks if direct part started writing frame that is not written completely yet. Nothing else can be sent until frame is written.
+     *
+     * @return {@code true} if part is in the middle of frame
+     */
+    default boolean hasPendingFrame() {
+        return false;
+    }
+
+    /**
+     * Checks if all frames of stream were returned. Finished stream is closed by queue without waiting for credit.
+     *
+     * @return {@code true} if there is no more data
+     */
+    default boolean isFinished() {
+        return false;
+    }
+
+    /**
+     * Number of bytes this part holds in memory while waiting in queue. It is used for limiting memory used by slow clients.
+     *
+     * @return Number of bytes
+     */
+    default long queuedBytes() {
+        return 0;
+    }
+
+    /**
+     * Releases resources if part is dropped before it is fully sent.
+     *
+     * @throws IOException If resources cannot be released
+     */
+    default void close() throws IOException {
+    }
+}
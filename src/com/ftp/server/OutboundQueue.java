@@ -0,0 +1,490 @@
+package com.ftp.server;
+
+import com.ftp.file.BufferPool;
+import com.ftp.file.FrameCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class represents queue of data waiting to be sent to one client. Responses are added by any thread, but queue is drained
+ * by only one writer (writing thread in blocking modes, {@link EventLoop} in {@link ServerMode#NIO} mode), so frames are never mixed.
+ * Objects are sent in the same order they were added, before any file data. Files are streams (see {@link Outbound#getStream()}):
+ * up to {@link #MAX_ACTIVE_STREAMS} files are sent at the same time, one frame of each file in turn, and other files wait in order
+ * they were added. File is sent only while it has credit, client gives {@link FrameCodec#STREAM_WINDOW} bytes for every file and
+ * more as it writes received data ({@link #addCredit(int, long)}), so big download doesn't hold small responses and client that stops
+ * writing one file doesn't stop other files.
+ * <p>
+ * Writer takes data in batches: small frames and file chunks are copied to one buffer (up to {@link #BATCH_SIZE} bytes) and sent with
+ * one socket write. Parts that can write themselves directly to socket (see {@link Outbound#isDirect()}) are not copied at all.
+ * Buffers are given back to their parts after they are copied or written ({@link Outbound#recycle(ByteBuffer)}), so parts can reuse them.
+ * Files are sent only as fast as rate limits of session allow ({@link SessionShaper}), while they wait other data is sent.
+ * Memory held by queue is limited, when queued frames exceed high water mark producers have to wait
+ * (or stop reading from client in NIO mode) until client reads enough data and queue drops below low water mark.
+ * <p>
+ * State is guarded by {@link ReentrantLock} and threads wait on it's {@link Condition}s instead of object monitor, because in
+ * {@link ServerMode#VIRTUAL} mode writer and producers are virtual threads, and virtual thread that waits in monitor keeps it's carrier thread.
+ */
+public class OutboundQueue {
+    public static final int BATCH_SIZE = 64 * 1024;
+    public static final long HIGH_WATER_MARK = 4 * 1024 * 1024;
+    public static final long LOW_WATER_MARK = 1024 * 1024;
+    public static final int MAX_ACTIVE_STREAMS = 4;
+
+    private final Deque<Outbound> items = new ArrayDeque<>();
+    private final List<Outbound> streams = new ArrayList<>();
+    private final Deque<Outbound> waitingStreams = new ArrayDeque<>();
+    private final Map<Integer, Long> credits = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition belowHighWater = lock.newCondition();
+    private int nextStream = 0;
+    private long queuedBytes = 0;
+    private boolean closed = false;
+    private boolean closeAfterFlush = false;
+    private SessionShaper shaper;
+    private Outbound currentItem;
+    private ByteBuffer current;
+    private Outbound currentOwner;
+    private ByteBuffer pending;
+    private Outbound pendingOwner;
+    private boolean pendingPooled;
+
+    /**
+     * Sets rate limits of session, frames of files are sent only when they allow it.
+     *
+     * @param shaper Rate limits of session
+     */
+    public void setShaper(SessionShaper shaper) {
+        lock.lock();
+        try {
+            this.shaper = shaper;
+            if (!streams.isEmpty()) {
+                shaper.setActive(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds data at the end of queue.
+     *
+     * @param item Data to be sent
+     * @throws IOException If queue is already closed
+     */
+    public void add(Outbound item) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                item.close();
+                throw new IOException("Connection is closed");
+            }
+            if (item.getStream() == 0) {
+                items.add(item);
+            } else {
+                credits.put(item.getStream(), (long) FrameCodec.STREAM_WINDOW);
+                if (shaper != null) {
+                    shaper.setActive(true);
+                }
+                if (streams.size() < MAX_ACTIVE_STREAMS) {
+                    streams.add(item);
+                } else {
+                    waitingStreams.add(item);
+                }
+            }
+            queuedBytes += item.queuedBytes();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives more credit to stream, after client wrote data of stream (see {@link com.ftp.file.FTPCommand#WINDOW}). Credit of
+     * stream that is already sent is ignored.
+     *
+     * @param stream Id of request whose file is sent
+     * @param bytes  Number of bytes
+     */
+    public void addCredit(int stream, long bytes) {
+        lock.lock();
+        try {
+            credits.computeIfPresent(stream, (id, credit) -> credit + bytes);
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until queued data drops below high water mark. It is used in blocking modes, so thread that produces responses
+     * can't fill memory if client stopped reading.
+     *
+     * @param timeout Maximum time to wait in milliseconds
+     * @throws IOException If client didn't read data in given time or queue is closed
+     */
+    public void awaitCapacity(long timeout) throws IOException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (queuedBytes > HIGH_WATER_MARK && !closed) {
+                if (remaining <= 0) {
+                    throw new IOException("Client is not reading, " + queuedBytes + " bytes queued");
+                }
+                remaining = belowHighWater.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if files are being sent, session that downloads files is not idle even if client sends no requests.
+     *
+     * @return {@code true} if queue has files that are not sent yet
+     */
+    public boolean hasFiles() {
+        lock.lock();
+        try {
+            return !streams.isEmpty() || !waitingStreams.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isAboveHighWaterMark() {
+        lock.lock();
+        try {
+            return queuedBytes > HIGH_WATER_MARK;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isBelowLowWaterMark() {
+        lock.lock();
+        try {
+            return queuedBytes < LOW_WATER_MARK;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writer will stop after all queued data is sent.
+     */
+    public void closeAfterFlush() {
+        lock.lock();
+        try {
+            closeAfterFlush = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isCloseAfterFlush() {
+        lock.lock();
+        try {
+            return closeAfterFlush;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes queue and drops all data that wasn't sent.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            try {
+                if (currentItem != null) {
+                    currentItem.close();
+                }
+                for (Outbound item : items) {
+                    item.close();
+                }
+                for (Outbound item : streams) {
+                    item.close();
+                }
+                for (Outbound item : waitingStreams) {
+                    item.close();
+                }
+            } catch (IOException ignored) {
+            }
+            items.clear();
+            streams.clear();
+            waitingStreams.clear();
+            credits.clear();
+            if (shaper != null) {
+                shaper.setActive(false);
+            }
+            notEmpty.signalAll();
+            belowHighWater.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until there is data to be written, files without credit are not counted. Called by writer only, in blocking modes.
+     *
+     * @return {@code false} if queue is closed or all data was written and queue should be closed
+     * @throws InterruptedException If writer is interrupted while waiting
+     */
+    public boolean awaitData() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!hasData() && !closed && !closeAfterFlush) {
+                long delay = throttleDelay();
+                if (delay < 0) {
+                    notEmpty.await();
+                } else if (delay > 0) {
+                    notEmpty.awaitNanos(delay);
+                }
+            }
+            return !closed && hasData();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns time until file that is ready to be sent can be sent by rate limits. Writer that has nothing else to send
+     * waits that long before it tries again.
+     *
+     * @return Nanoseconds, {@code 0} if file can be sent now, {@code -1} if no file waits for rate limits
+     */
+    public long throttleDelay() {
+        lock.lock();
+        try {
+            if (shaper == null) {
+                return -1;
+            }
+            for (Outbound stream : streams) {
+                if (isReady(stream)) {
+                    return shaper.delay();
+                }
+            }
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes queued data to channel. Blocking channel writes all queued data that can be sent, non-blocking channel writes until it
+     * doesn't accept more data. Called by writer only. Batch buffer is not kept by queue after method returns, so it can be shared between queues of the same writer.
+     *
+     * @param channel Client's channel
+     * @param batch   Buffer for collecting data
+     * @return {@code true} if all queued data was written (except files without credit)
+     * @throws IOException If data cannot be prepared or written
+     */
+    public boolean writeTo(WritableByteChannel channel, ByteBuffer batch) throws IOException {
+        while (true) {
+            if (pending == null) {
+                pending = poll(batch);
+                if (pending == null) {
+                    if (currentItem == null) {
+                        return true;
+                    }
+                    long written = currentItem.transferTo(channel);
+                    if (written == -1) {
+                        finishItem();
+                        continue;
+                    }
+                    charge(currentItem, written);
+                    if (!currentItem.hasPendingFrame()) {
+                        currentItem = null;
+                    }
+                    if (written == 0) {
+                        return false;
+                    }
+                    continue;
+                }
+            }
+            channel.write(pending);
+            if (pending.hasRemaining()) {
+                if (pending == batch) {
+                    pending = BufferPool.acquire(pending.remaining()).put(pending).flip();
+                    pendingPooled = true;
+                }
+                return false;
+            }
+            if (pendingOwner != null) {
+                pendingOwner.recycle(pending);
+            } else if (pendingPooled) {
+                BufferPool.release(pending);
+            }
+            pending = null;
+            pendingOwner = null;
+            pendingPooled = false;
+        }
+    }
+
+    /**
+     * Takes next data and copies it to given batch buffer, except for buffers larger than batch which are returned directly.
+     * It stops before part that writes itself directly to channel.
+     *
+     * @param batch Buffer for collecting data
+     * @return Buffer that needs to be written or {@code null} if there is no data in buffers
+     * @throws IOException If data cannot be prepared
+     */
+    private ByteBuffer poll(ByteBuffer batch) throws IOException {
+        batch.clear();
+        while (batch.hasRemaining()) {
+            if (current == null || !current.hasRemaining()) {
+                recycleCurrent();
+                current = nextBuffer();
+                if (current == null) break;
+            }
+            if (batch.position() == 0 && current.remaining() >= batch.capacity()) {
+                ByteBuffer large = current;
+                pendingOwner = currentOwner;
+                current = null;
+                currentOwner = null;
+                return large;
+            }
+            int length = Math.min(batch.remaining(), current.remaining());
+            batch.put(batch.position(), current, current.position(), length);
+            batch.position(batch.position() + length);
+            current.position(current.position() + length);
+        }
+        if (current != null && !current.hasRemaining()) {
+            recycleCurrent();
+        }
+        batch.flip();
+        return batch.hasRemaining() ? batch : null;
+    }
+
+    private void recycleCurrent() {
+        if (current != null && currentOwner != null) {
+            currentOwner.recycle(current);
+        }
+        current = null;
+        currentOwner = null;
+    }
+
+    private boolean hasData() {
+        lock.lock();
+        try {
+            if (!items.isEmpty()) return true;
+            for (Outbound stream : streams) {
+                if (isReady(stream)) return shaper == null || shaper.delay() == 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return currentItem != null || pending != null || current != null && current.hasRemaining();
+    }
+
+    private ByteBuffer nextBuffer() throws IOException {
+        while (true) {
+            if (currentItem == null) {
+                currentItem = take();
+                if (currentItem == null) return null;
+            }
+            if (currentItem.isDirect()) {
+                return null;
+            }
+            ByteBuffer buffer = currentItem.next();
+            if (buffer == null) {
+                finishItem();
+                continue;
+            }
+            currentOwner = currentItem;
+            if (currentItem.getStream() != 0) {
+                // buffer is one frame of file, next frame is taken again so objects and other files are sent in between
+                charge(currentItem, buffer.remaining() - FrameCodec.HEADER_LENGTH);
+                currentItem = null;
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Takes next part to be sent: first object, or else next file in turn that has credit.
+     *
+     * @return Part or {@code null} if nothing can be sent
+     */
+    private Outbound take() {
+        lock.lock();
+        try {
+            Outbound item = items.poll();
+            if (item != null) {
+                return item;
+            }
+            if (shaper != null && !streams.isEmpty() && shaper.delay() > 0) {
+                return null;
+            }
+            for (int i = 0; i < streams.size(); i++) {
+                int index = (nextStream + i) % streams.size();
+                if (isReady(streams.get(index))) {
+                    nextStream = index + 1;
+                    return streams.get(index);
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isReady(Outbound stream) {
+        return stream.isFinished() || credits.getOrDefault(stream.getStream(), 0L) > 0;
+    }
+
+    private void charge(Outbound item, long bytes) {
+        if (item.getStream() == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            credits.computeIfPresent(item.getStream(), (id, credit) -> credit - bytes);
+            if (shaper != null) {
+                shaper.consume(bytes);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finishItem() {
+        lock.lock();
+        try {
+            queuedBytes -= currentItem.queuedBytes();
+            if (currentItem.getStream() != 0) {
+                streams.remove(currentItem);
+                credits.remove(currentItem.getStream());
+                if (!waitingStreams.isEmpty()) {
+                    streams.add(waitingStreams.poll());
+                }
+                if (streams.isEmpty() && shaper != null) {
+                    shaper.setActive(false);
+                }
+            }
+            currentItem = null;
+            if (queuedBytes <= HIGH_WATER_MARK) {
+                belowHighWater.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.ftp.server;
+
+import java.io.IOException;
+
+/**
+ * Sends response to request whose slow part was run by {@link FTPServer#offload}. Reply runs on thread that serves client's session
+ * (event loop in {@link ServerMode#NIO} mode), with id of request set on client, so it can use session state and send responses as
+ * any other command.
+ *
+ * @param <T> Type of result of slow part
+ */
+@FunctionalInterface
+public interface Reply<T> {
+
+    /**
+     * Sends response to client.
+     *
+     * @param result Result of slow part, {@code null} if it failed
+     * @param error  Error of slow part, {@code null} if it succeeded
+     * @throws IOException If response cannot be sent
+     */
+    void send(T result, Exception error) throws IOException;
+}
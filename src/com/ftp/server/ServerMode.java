@@ -0,0 +1,24 @@
+package com.ftp.server;
+
+/**
+ * This enum contains modes in which {@link FTPServer} can serve clients. Mode is chosen on server startup as second argument
+ * and both modes use same {@link com.ftp.file.FTPTransferObject} and AES framing, so client doesn't need to know which one is used.
+ */
+public enum ServerMode {
+    /**
+     * Each client has it's own reading thread and every response is written by new thread using blocking socket streams
+     */
+    BLOCKING,
+
+    /**
+     * Same as {@link ServerMode#BLOCKING}, but reading and writing of each client runs on virtual threads
+     * (see {@link SessionExecutors#virtualThreads()}), so idle clients don't occupy platform threads
+     */
+    VIRTUAL,
+
+    /**
+     * Clients are served by fixed number of event loops using {@link java.nio.channels.Selector} and non-blocking
+     * {@link java.nio.channels.SocketChannel}. Handshake, reading, command execution and file streaming are done as state machine in {@link NIOSession}
+     */
+    NIO
+}
@@ -0,0 +1,84 @@
+package com.ftp.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * This class contains factory methods for executors that {@link FTPServer} uses for running client sessions
+ * (reading thread of each client and writing of responses) in blocking modes.
+ */
+public class SessionExecutors {
+
+    /**
+     * Executor that starts new platform thread with maximum priority for every task. This is default executor of {@link ServerMode#BLOCKING} mode.
+     *
+     * @return Platform thread executor
+     */
+    public static Executor platformThreads() {
+        return task -> {
+            Thread thread = new Thread(task);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        };
+    }
+
+    /**
+     * Executor with one daemon platform thread per processor, used for processor bound work that is split in parts
+     * (for example hashing segments of big file, see {@link com.ftp.file.FileHash}).
+     *
+     * @return Fixed thread pool executor
+     */
+    public static Executor workerThreads() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executor with two daemon platform threads per processor for slow parts of requests in {@link ServerMode#NIO} mode (listing big
+     * folders, hashing, signing and rebuilding files, storing uploads), so they don't stall event loop. It is separate from
+     * {@link #workerThreads()}, because these tasks wait for disk and can wait for parts that they run on worker threads.
+     *
+     * @return Fixed thread pool executor
+     */
+    public static Executor requestThreads() {
+        return Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "Request worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executor with one daemon thread for delayed tasks, for example closing connection of client that didn't finish handshake in time.
+     *
+     * @return Scheduled executor
+     */
+    public static ScheduledExecutorService timerThread() {
+        return Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executor that starts new virtual thread for every task, so idle clients don't occupy platform threads. Virtual threads are
+     * available from Java 21, on older JRE platform thread executor is returned.
+     *
+     * @return Virtual thread executor
+     */
+    public static Executor virtualThreads() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads are not supported by this JRE (Java 21 or newer is needed). Using platform threads.");
+            return platformThreads();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ftp.server;
+
+/**
+ * Rate limits of one session, used by session's {@link OutboundQueue} before it sends next frame of file. Frame can be sent when
+ * all buckets of session are not empty: bucket of session ({@code rate.session}), bucket of user that is shared by all his sessions
+ * ({@code rate.user}), global bucket of server ({@code rate.global}) and bucket of session's fair share of global rate, which is set by
+ * {@link BandwidthLimiter} while session sends files. Objects (responses and directory trees) are not limited.
+ */
+class SessionShaper {
+    private final BandwidthLimiter limiter;
+    private final String username;
+    private final TokenBucket session;
+    private final TokenBucket user;
+    private final TokenBucket share = new TokenBucket(0);
+    private boolean active = false;
+
+    SessionShaper(BandwidthLimiter limiter, String username, TokenBucket session, TokenBucket user) {
+        this.limiter = limiter;
+        this.username = username;
+        this.session = session;
+        this.user = user;
+    }
+
+    /**
+     * Returns time until next frame of file can be sent.
+     *
+     * @return Nanoseconds, {@code 0} if frame can be sent now
+     */
+    long delay() {
+        long now = System.nanoTime();
+        return Math.max(Math.max(session.delay(now), user.delay(now)), Math.max(share.delay(now), limiter.getGlobal().delay(now)));
+    }
+
+    /**
+     * Takes sent bytes of file from all buckets.
+     *
+     * @param bytes Number of sent bytes
+     */
+    void consume(long bytes) {
+        long now = System.nanoTime();
+        session.consume(bytes, now);
+        user.consume(bytes, now);
+        share.consume(bytes, now);
+        limiter.getGlobal().consume(bytes, now);
+    }
+
+    /**
+     * Marks session as session that sends files, only those sessions get share of global rate. It is called by queue when it's first
+     * file is added and after it's last file is sent or queue is closed.
+     *
+     * @param active If session has files to send
+     */
+    void setActive(boolean active) {
+        if (this.active != active) {
+            this.active = active;
+            limiter.setActive(this, active);
+        }
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    TokenBucket getSession() {
+        return session;
+    }
+
+    TokenBucket getShare() {
+        return share;
+    }
+
+    /**
+     * Maximum rate of session given by it's own limit and limit of user, used for splitting global rate.
+     *
+     * @return Bytes per second, {@code 0} if session is not limited
+     */
+    long getCap() {
+        long sessionRate = session.getRate();
+        long userRate = user.getRate();
+        if (sessionRate == 0 || userRate == 0) {
+            return Math.max(sessionRate, userRate);
+        }
+        return Math.min(sessionRate, userRate);
+    }
+}
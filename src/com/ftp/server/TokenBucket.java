@@ -0,0 +1,79 @@
+package com.ftp.server;
+
+/**
+ * Token bucket that limits rate of sent bytes. Bucket is filled with {@link #getRate()} tokens per second, up to quarter of second
+ * of tokens (but at least {@link #MIN_BURST}), and every sent byte takes one token. Whole frame is always taken at once, so tokens can
+ * go below zero, and next frame waits until bucket is not empty again. That way frames bigger than bucket are sent at given rate too.
+ * Rate can be changed at any time, tokens that are already in bucket are kept.
+ */
+class TokenBucket {
+    static final long MIN_BURST = 64 * 1024;
+    private static final long NANOS = 1_000_000_000L;
+    private long rate;
+    private double tokens;
+    private long last = System.nanoTime();
+
+    /**
+     * Creates bucket with given rate.
+     *
+     * @param rate Bytes per second, {@code 0} if rate is not limited
+     */
+    TokenBucket(long rate) {
+        this.rate = Math.max(0, rate);
+        this.tokens = burst();
+    }
+
+    synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Changes rate of bucket.
+     *
+     * @param rate Bytes per second, {@code 0} if rate is not limited
+     */
+    synchronized void setRate(long rate) {
+        refill(System.nanoTime());
+        this.rate = Math.max(0, rate);
+        tokens = Math.min(tokens, burst());
+    }
+
+    /**
+     * Returns time until bucket is not empty.
+     *
+     * @param now Current time from {@link System#nanoTime()}
+     * @return Nanoseconds, {@code 0} if bytes can be sent now
+     */
+    synchronized long delay(long now) {
+        if (rate == 0) {
+            return 0;
+        }
+        refill(now);
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * NANOS / rate);
+    }
+
+    /**
+     * Takes tokens for sent bytes.
+     *
+     * @param bytes Number of sent bytes
+     * @param now   Current time from {@link System#nanoTime()}
+     */
+    synchronized void consume(long bytes, long now) {
+        if (rate == 0) {
+            return;
+        }
+        refill(now);
+        tokens -= bytes;
+    }
+
+    private void refill(long now) {
+        if (now > last) {
+            tokens = Math.min(burst(), tokens + (double) (now - last) * rate / NANOS);
+        }
+        last = Math.max(last, now);
+    }
+
+    private double burst() {
+        return Math.max(MIN_BURST, rate / 4.0);
+    }
+}
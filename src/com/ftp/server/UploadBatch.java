@@ -0,0 +1,87 @@
+package com.ftp.server;
+
+import com.ftp.file.PartialFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Files received in one batch of {@link com.ftp.file.FTPCommand#MPUT} commands. Files are received to partial files (see {@link PartialFile})
+ * and kept there until the end of batch, then all of them are written to disk at once ({@link #store()}): partial files are flushed,
+ * renamed and their folders flushed, so file is never renamed before it's content is on disk and disk is flushed once per batch
+ * instead of once per file.
+ */
+public class UploadBatch {
+    private final List<File> files = new ArrayList<>();
+    private final List<File> stored = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+
+    /**
+     * Adds file whose partial file is received.
+     *
+     * @param file Uploaded file
+     */
+    public void add(File file) {
+        files.add(file);
+    }
+
+    /**
+     * Returns number of files in batch.
+     *
+     * @return Number of received files
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Flushes all partial files to disk, renames them to real files and flushes their folders. File that cannot be stored is left
+     * as partial file, so it can be continued by next upload.
+     *
+     * @return Stored files
+     */
+    public List<File> store() {
+        List<File> flushed = new ArrayList<>();
+        for (File file : files) {
+            try (FileChannel channel = FileChannel.open(PartialFile.of(file).toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+                flushed.add(file);
+            } catch (IOException e) {
+                errors.add(file.getName() + " (" + e.getMessage() + ")");
+            }
+        }
+        Set<File> folders = new LinkedHashSet<>();
+        for (File file : flushed) {
+            try {
+                PartialFile.complete(PartialFile.of(file), file);
+                stored.add(file);
+                folders.add(file.getAbsoluteFile().getParentFile());
+            } catch (IOException e) {
+                errors.add(file.getName() + " (" + e.getMessage() + ")");
+            }
+        }
+        for (File folder : folders) {
+            try (FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // folders cannot be opened on some systems (Windows), renames are flushed by file system there
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Returns files that couldn't be stored, with reason.
+     *
+     * @return Errors of last {@link #store()}
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,199 @@
+package com.ftp.server;
+
+import com.ftp.file.BufferPool;
+import com.ftp.file.ChunkCompressor;
+import com.ftp.file.CryptoContext;
+import com.ftp.file.FTPTransferObject;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+
+/**
+ * File that is being received from client with {@link com.ftp.file.FTPCommand#PUT} or {@link com.ftp.file.FTPCommand#MPUT}. File data
+ * comes in frames of stream of request (see {@link com.ftp.file.FrameCodec}), and frames of different uploads and other requests can
+ * be interleaved, so every upload keeps it's own partial file, compressor and number of remaining bytes. It is used in all server modes.
+ * Delta of changed file ({@link com.ftp.file.FTPCommand#DELTA}) is received to temporary file instead of partial file.
+ * Frames are decrypted and decompressed to buffers taken from {@link BufferPool} when first frame comes, and buffers are given back
+ * when whole file is received.
+ */
+class UploadStream {
+    private final FTPTransferObject request;
+    private final File file;
+    private final boolean valid;
+    private final FileChannel out;
+    private final CryptoContext crypto;
+    private final int chunkSize;
+    private final int maxRecordLength;
+    private ChunkCompressor compressor;
+    private ByteBuffer record;
+    private ByteBuffer chunk;
+    private long remaining;
+    private File delta;
+    private boolean rejected = false;
+
+    /**
+     * Creates upload that writes received data to opened partial file.
+     *
+     * @param request   Request with uploaded file
+     * @param file      Uploaded file
+     * @param valid     If upload continues valid partial file (see {@link FTPServer#isValidUpload(File, long)})
+     * @param out       Partial file, positioned where received bytes are written
+     * @param remaining Number of bytes to be received
+     * @param crypto    Crypto context of client's session, {@code null} if file is sent without encryption
+     * @param chunkSize Chunk size chosen by client
+     * @param compress  If chunks are compressed
+     */
+    UploadStream(FTPTransferObject request, File file, boolean valid, FileChannel out, long remaining, CryptoContext crypto, int chunkSize, boolean compress) {
+        this.request = request;
+        this.file = file;
+        this.valid = valid;
+        this.out = out;
+        this.remaining = remaining;
+        this.crypto = crypto;
+        this.chunkSize = chunkSize;
+        if (compress) {
+            this.compressor = new ChunkCompressor();
+        }
+        this.maxRecordLength = crypto == null ? 0 : crypto.openedRecordLength(ChunkCompressor.maxRecordLength(chunkSize));
+    }
+
+    /**
+     * Decrypts one frame of file (decompresses it, if chunks are compressed) and writes it to partial file.
+     *
+     * @param frame Buffer with frame body, buffer's position is moved to it's limit
+     * @throws IOException If frame is not valid or file cannot be written
+     */
+    void receive(ByteBuffer frame) throws IOException {
+        if (frame.remaining() > maxRecordLength) {
+            throw new IOException("Invalid record size: " + frame.remaining());
+        }
+        if (record == null) {
+            record = BufferPool.acquire(maxRecordLength);
+            chunk = compressor == null ? null : BufferPool.acquire(chunkSize);
+        }
+        ByteBuffer data = record.clear();
+        data.limit(crypto.open(frame, data)).position(0);
+        if (compressor != null) {
+            int length = compressor.decompress(record.array(), 0, data.limit(), chunk.array());
+            if (length > chunkSize) {
+                throw new IOException("Chunk is bigger than " + chunkSize + " bytes");
+            }
+            data = chunk.clear().limit(length);
+        }
+        if (data.remaining() == 0 || data.remaining() > remaining) {
+            throw new IOException("Invalid chunk of " + data.remaining() + " bytes, " + remaining + " bytes remaining");
+        }
+        remaining -= data.remaining();
+        out.write(data);
+    }
+
+    /**
+     * Writes file bytes sent without encryption directly from channel to partial file using {@link FileChannel#transferFrom}.
+     * Non-blocking channel can write less bytes than requested.
+     *
+     * @param channel Client's channel
+     * @param length  Maximum number of bytes, not more than remaining bytes of frame
+     * @return Number of written bytes
+     * @throws IOException If client disconnected, sent more bytes than file has or file cannot be written
+     */
+    long receiveDirect(ReadableByteChannel channel, long length) throws IOException {
+        if (length > remaining) {
+            throw new IOException("Invalid frame of " + length + " bytes, " + remaining + " bytes remaining");
+        }
+        long position = out.position();
+        long num = out.transferFrom(channel, position, length);
+        if (num == 0) {
+            // transferFrom doesn't report end of stream, so one byte is read directly to check it
+            ByteBuffer single = ByteBuffer.allocate(1);
+            int read = channel.read(single);
+            if (read == -1) {
+                throw new EOFException("Client closed connection");
+            }
+            if (read == 0) {
+                return 0;
+            }
+            num = out.write(single.flip(), position);
+        }
+        out.position(position + num);
+        remaining -= num;
+        return num;
+    }
+
+    boolean isComplete() {
+        return remaining == 0;
+    }
+
+    FTPTransferObject getRequest() {
+        return request;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Returns temporary file where delta is received (see {@link com.ftp.file.FileDelta}).
+     *
+     * @return Delta file, {@code null} if whole file is uploaded
+     */
+    File getDelta() {
+        return delta;
+    }
+
+    void setDelta(File delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Checks if upload is rejected (for example because of invalid path). Rejected upload receives file to temporary file
+     * ({@link #getFile()}), because client sends frames of file without waiting for response, and file is thrown away.
+     *
+     * @return {@code true} if received file is thrown away
+     */
+    boolean isRejected() {
+        return rejected;
+    }
+
+    void setRejected(boolean rejected) {
+        this.rejected = rejected;
+    }
+
+    /**
+     * Closes partial file. Delta file and file of rejected upload are deleted if upload is interrupted, because it cannot be continued.
+     *
+     * @return Compression report for log, {@code null} if chunks were not compressed
+     * @throws IOException If partial file cannot be closed
+     */
+    String close() throws IOException {
+        out.close();
+        if (isComplete()) {
+            // upload closed by other thread leaves buffers to garbage collector, thread that receives frames can still use them
+            BufferPool.release(record);
+            BufferPool.release(chunk);
+            record = null;
+            chunk = null;
+        }
+        if (delta != null && !isComplete()) {
+            Files.deleteIfExists(delta.toPath());
+        }
+        if (rejected && !isComplete()) {
+            Files.deleteIfExists(file.toPath());
+        }
+        if (compressor == null) {
+            return null;
+        }
+        String report = compressor.receiveReport();
+        compressor.close();
+        compressor = null;
+        return report;
+    }
+}